@@ -0,0 +1,63 @@
+package com.aitorarias.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Catalogos sinteticos para los benchmarks
+ *
+ * @author AitorArias
+ *
+ */
+class Catalogs {
+
+	// Palabras para los nombres del catalogo
+	private static final String[] WORDS = { "Pizza", "Jamón", "Queso", "Piña", "Atún", "Champiñón", "Barbacoa",
+			"Cuatro", "Estaciones", "Mediana", "Familiar", "Picante" };
+
+	private Catalogs() {
+	}
+
+	/**
+	 * Catalogo sintetico: nombres repetidos con acentos, algunos con imagen, precios con centimos
+	 *
+	 * @param random Random
+	 * @param size   int
+	 * @return List<Product>
+	 */
+	static List<Product> catalog(Random random, int size) {
+		List<Product> products = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			String filePath = random.nextInt(10) == 0 ? "/imagenes/producto-" + random.nextInt(1000) + ".png" : null;
+			products.add(new Product(name(random), random.nextInt(100), random.nextInt(100_000) / 100.0, filePath));
+		}
+		return products;
+	}
+
+	/**
+	 * Lo que se podria escribir en los campos de la ventana: casi todo valido, algo vacio o que no es numero
+	 *
+	 * @param random Random
+	 * @param size   int
+	 * @return String[][] nombre, cantidad y precio
+	 */
+	static String[][] inputs(Random random, int size) {
+		String[] badPrices = { "", "abc", "NaN", "Infinity", "1,5", "1e400" };
+		String[][] inputs = new String[size][];
+		for (int i = 0; i < size; i++) {
+			String precio = random.nextInt(20) == 0 ? badPrices[random.nextInt(badPrices.length)]
+					: Double.toString(random.nextInt(100_000) / 100.0);
+			String cantidad = random.nextInt(50) == 0 ? "x" : Integer.toString(random.nextInt(100));
+			inputs[i] = new String[] { name(random), cantidad, precio };
+		}
+		return inputs;
+	}
+
+	private static String name(Random random) {
+		return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " "
+				+ random.nextInt(10_000);
+	}
+}
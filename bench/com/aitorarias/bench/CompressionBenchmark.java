@@ -0,0 +1,87 @@
+package com.aitorarias.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.util.StreamCodec;
+import com.aitorarias.util.StreamCodecs;
+import com.aitorarias.util.XmlFileManager;
+
+/**
+ * Mide lo que cuesta guardar y cargar un catalogo xml comprimido con cada formato, frente a sin comprimir.
+ * El tamaño de cada archivo se escribe al preparar el benchmark.
+ *
+ * @author AitorArias
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompressionBenchmark {
+
+	private static final int BATCH_SIZE = 1000;
+
+	@Param({ "100000" })
+	public int size;
+
+	// none, o el nombre de un formato de StreamCodecs
+	@Param({ "none", "gzip", "deflate" })
+	public String codec;
+
+	private List<Product> catalog;
+	private File dir;
+	private File file;
+
+	@Setup
+	public void setUp() throws Exception {
+		XmlFileManager.warmUp();
+		catalog = Catalogs.catalog(new Random(size), size);
+		dir = Files.createTempDirectory("compression-bench").toFile();
+		String extension = "";
+		if (!codec.equals("none")) {
+			StreamCodec streamCodec = StreamCodecs.forName(codec);
+			if (streamCodec == null) {
+				throw new IllegalArgumentException("Formato de compresion desconocido: " + codec);
+			}
+			extension = streamCodec.getExtension();
+		}
+		file = new File(dir, "catalogo.xml" + extension);
+		XmlFileManager.saveToXmlFile(catalog, file, false);
+		System.out.println(codec + ": " + file.length() + " bytes, " + file.length() / size + " bytes por producto");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.delete(file.toPath());
+		Files.delete(dir.toPath());
+	}
+
+	@Benchmark
+	public long save() throws Exception {
+		XmlFileManager.saveToXmlFile(catalog, file, false);
+		return file.length();
+	}
+
+	@Benchmark
+	public List<Product> load() throws Exception {
+		List<Product> loaded = new ArrayList<>(size);
+		XmlFileManager.loadFromXmlFile(file, BATCH_SIZE, loaded::addAll);
+		return loaded;
+	}
+}
@@ -0,0 +1,104 @@
+package com.aitorarias.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.util.ProductValidator;
+
+/**
+ * Mide lo que cuesta crear productos y leer sus valores, y comprobar los datos que se escriben a mano
+ *
+ * @author AitorArias
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProductBenchmark {
+
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	private List<Product> catalog;
+	private String[][] inputs;
+
+	@Setup
+	public void setUp() {
+		catalog = Catalogs.catalog(new Random(size), size);
+		inputs = Catalogs.inputs(new Random(size), size);
+	}
+
+	@Benchmark
+	public List<Product> createProducts() {
+		return Catalogs.catalog(new Random(1), size);
+	}
+
+	@Benchmark
+	public double readValues() {
+		double total = 0;
+		for (Product product : catalog) {
+			total += product.getCantidad() * product.getUnitPrice() + product.getName().length();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public long createProperties() {
+		// Productos nuevos cada vez: las propiedades se crean la primera vez que se piden
+		List<Product> products = Catalogs.catalog(new Random(2), size);
+		long total = 0;
+		for (Product product : products) {
+			total += product.getNameProperty().get().length() + product.getCantidadProperty().get();
+			total += (long) product.getUnitPriceProperty().get();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public int validateProducts() {
+		int invalid = 0;
+		for (Product product : catalog) {
+			if (ProductValidator.validate(product) != null) {
+				invalid++;
+			}
+		}
+		return invalid;
+	}
+
+	@Benchmark
+	public int validateInputs() {
+		int invalid = 0;
+		for (String[] input : inputs) {
+			if (!isInputValid(input[0], input[1], input[2])) {
+				invalid++;
+			}
+		}
+		return invalid;
+	}
+
+	/**
+	 * Las mismas comprobaciones que hace la ventana al añadir un producto
+	 */
+	private static boolean isInputValid(String nombre, String cantidad, String precio) {
+		if (nombre.isEmpty() || cantidad.isEmpty() || precio.isEmpty()) {
+			return false;
+		}
+		try {
+			Integer.parseInt(cantidad);
+			return ProductValidator.isNumber(Double.parseDouble(precio));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
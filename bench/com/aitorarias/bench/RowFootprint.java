@@ -0,0 +1,98 @@
+package com.aitorarias.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductColumnStore;
+import com.aitorarias.util.ProductBinaryFile;
+
+/**
+ * Mide la memoria que ocupa cada fila de un catalogo segun como se tenga en memoria: lista de Product,
+ * lista de Product con las propiedades de JavaFX creadas (como en la tabla) y ProductColumnStore.
+ * No es un benchmark de JMH: se mide el heap ocupado despues de un GC, antes y despues de crear el catalogo.
+ *
+ * Uso: RowFootprint [tamaño...]
+ *
+ * @author AitorArias
+ *
+ */
+public class RowFootprint {
+
+	private static final int[] DEFAULT_SIZES = { 1_000_000 };
+
+	// Lo que se esta midiendo, para que el GC no lo libere antes de tiempo
+	private static volatile Object retained;
+
+	private RowFootprint() {
+	}
+
+	/**
+	 * Empieza las medidas
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		for (int size : sizes) {
+			System.out.printf(Locale.ROOT, "%n%,d productos%n", size);
+			report("Product", size, () -> Catalogs.catalog(new Random(size), size));
+			report("Product con propiedades", size, () -> {
+				List<Product> products = Catalogs.catalog(new Random(size), size);
+				for (Product product : products) {
+					product.getNameProperty();
+					product.getCantidadProperty();
+					product.getUnitPriceProperty();
+				}
+				return products;
+			});
+			report("ProductColumnStore", size, () -> {
+				ProductColumnStore store = new ProductColumnStore();
+				for (Product product : Catalogs.catalog(new Random(size), size)) {
+					store.add(product);
+				}
+				return store;
+			});
+			File file = File.createTempFile("catalogo", ProductBinaryFile.EXTENSION);
+			try {
+				XmlBenchmark.writeBinary(Catalogs.catalog(new Random(size), size), file);
+				report("ProductColumnStore (binario)", size, () -> ProductBinaryFile.read(file));
+			} finally {
+				Files.delete(file.toPath());
+			}
+		}
+	}
+
+	private static void report(String name, int size, Callable<Object> builder) throws Exception {
+		long before = usedHeap();
+		retained = builder.call();
+		long after = usedHeap();
+		retained = null;
+		System.out.printf(Locale.ROOT, "  %-30s %8.1f bytes/fila%n", name, (double) (after - before) / size);
+	}
+
+	/**
+	 * Heap ocupado despues de varios GC seguidos, para que no cuente la basura
+	 */
+	private static long usedHeap() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 4; i++) {
+			memory.gc();
+			Thread.sleep(100);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
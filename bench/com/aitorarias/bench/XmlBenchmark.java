@@ -0,0 +1,130 @@
+package com.aitorarias.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductColumnStore;
+import com.aitorarias.util.ProductBinaryFile;
+import com.aitorarias.util.ProductWriter;
+import com.aitorarias.util.XmlFileManager;
+import com.aitorarias.wrapper.ProductListWrapper;
+
+/**
+ * Mide lo que cuesta guardar y cargar catalogos grandes: xml con JAXB, xml por streaming
+ * (en un hilo y por trozos en varios hilos) y el formato binario. Los archivos se generan al empezar.
+ *
+ * @author AitorArias
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class XmlBenchmark {
+
+	private static final int BATCH_SIZE = 1000;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	private List<Product> catalog;
+	private ProductListWrapper wrapper;
+	private File dir;
+	private File jaxbFile;
+	private File streamFile;
+	private File binaryFile;
+	// Un hilo por procesador para la carga por trozos
+	private ExecutorService executor;
+	private int shards;
+
+	@Setup
+	public void setUp() throws Exception {
+		XmlFileManager.warmUp();
+		catalog = Catalogs.catalog(new Random(size), size);
+		wrapper = new ProductListWrapper();
+		wrapper.setProducts(catalog);
+		dir = Files.createTempDirectory("catalog-bench").toFile();
+		jaxbFile = new File(dir, "catalogo-jaxb.xml");
+		streamFile = new File(dir, "catalogo.xml");
+		binaryFile = new File(dir, "catalogo" + ProductBinaryFile.EXTENSION);
+		XmlFileManager.saveToXmlFile(wrapper, jaxbFile);
+		XmlFileManager.saveToXmlFile(catalog, streamFile, false);
+		writeBinary(catalog, binaryFile);
+		shards = Runtime.getRuntime().availableProcessors();
+		executor = Executors.newFixedThreadPool(shards);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		executor.shutdownNow();
+		for (File file : dir.listFiles()) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(dir.toPath());
+	}
+
+	@Benchmark
+	public long saveJaxb() throws Exception {
+		XmlFileManager.saveToXmlFile(wrapper, jaxbFile);
+		return jaxbFile.length();
+	}
+
+	@Benchmark
+	public List<Product> loadJaxb() throws Exception {
+		return XmlFileManager.loadFromXmlFile(jaxbFile);
+	}
+
+	@Benchmark
+	public long saveStreaming() throws Exception {
+		XmlFileManager.saveToXmlFile(catalog, streamFile, false);
+		return streamFile.length();
+	}
+
+	@Benchmark
+	public List<Product> loadStreaming() throws Exception {
+		List<Product> loaded = new ArrayList<>(size);
+		XmlFileManager.loadFromXmlFile(streamFile, BATCH_SIZE, loaded::addAll);
+		return loaded;
+	}
+
+	@Benchmark
+	public List<Product> loadSharded() throws Exception {
+		return XmlFileManager.loadFromXmlFileParallel(streamFile, executor, shards);
+	}
+
+	@Benchmark
+	public long saveBinary() throws IOException {
+		writeBinary(catalog, binaryFile);
+		return binaryFile.length();
+	}
+
+	@Benchmark
+	public ProductColumnStore loadBinary() throws IOException {
+		return ProductBinaryFile.read(binaryFile);
+	}
+
+	static void writeBinary(List<Product> products, File file) throws IOException {
+		try (ProductWriter writer = ProductBinaryFile.openWriter(file)) {
+			for (Product product : products) {
+				writer.write(product);
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.aitorarias;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.util.PagedProductList;
+import com.aitorarias.util.ProductXmlIndex;
+
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ObservableValue;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+/**
+ * Ventana para ver un catalogo de proveedor muy grande sin cargarlo entero. La tabla usa una
+ * PagedProductList, asi que solo hay en memoria las paginas cercanas a lo que se ve. Las paginas
+ * se leen en otro hilo; hasta que llegan sus filas se ven vacias. Si falla una lectura se enseña
+ * el error abajo y se puede reintentar. Los productos elegidos se pueden añadir a la factura.
+ * 
+ * @author AitorArias
+ *
+ */
+public class CatalogView {
+
+	private static final int SCREEN_WIDTH = 500;
+	private static final int SCREEN_HEIGHT = 500;
+	// Paginas del catalogo en memoria a la vez
+	private static final int MAX_PAGES = 8;
+
+	private final Stage stage = new Stage();
+	private final TableView<Product> catalogTableView = new TableView<>();
+	private final TableColumn<Product, String> nombreColumn = new TableColumn<>("Nombre");
+	private final TableColumn<Product, Number> cantidadColumn = new TableColumn<>("Cantidad");
+	private final TableColumn<Product, Number> precioColumn = new TableColumn<>("Precio");
+	private final Button addButton = new Button("Añadir a la factura");
+	private final Button retryButton = new Button("Reintentar");
+	private final Label statusLabel = new Label();
+	private final ProductXmlIndex index;
+	private final PagedProductList catalogItems;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param index ProductXmlIndex del archivo del catalogo
+	 * @param onAdd Consumer<List<Product>> recibe copias de los productos elegidos
+	 */
+	public CatalogView(ProductXmlIndex index, Consumer<List<Product>> onAdd) {
+		this.index = index;
+		this.catalogItems = new PagedProductList(index, MAX_PAGES);
+		nombreColumn.setPrefWidth(250);
+		nombreColumn.setCellValueFactory(param -> param.getValue().getNameProperty());
+		cantidadColumn.setPrefWidth(100);
+		cantidadColumn.setCellValueFactory(param -> numberOf(param.getValue(), param.getValue().getCantidadProperty()));
+		precioColumn.setPrefWidth(100);
+		precioColumn.setCellValueFactory(param -> numberOf(param.getValue(), param.getValue().getUnitPriceProperty()));
+		catalogTableView.getColumns().add(nombreColumn);
+		catalogTableView.getColumns().add(cantidadColumn);
+		catalogTableView.getColumns().add(precioColumn);
+		// Ordenar obligaria a leer el catalogo entero
+		catalogTableView.setSortPolicy(table -> false);
+		catalogTableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+		catalogTableView.setItems(catalogItems);
+		// Al llegar una pagina las celdas vuelven a pedir sus filas
+		catalogItems.setOnChange(() -> {
+			catalogTableView.refresh();
+			refreshStatus();
+		});
+
+		addButton.setOnAction(event -> {
+			// Las filas elegidas pueden ser de paginas que ya no estan en memoria: se leen en el hilo de carga
+			List<Integer> indices = catalogTableView.getSelectionModel().getSelectedIndices();
+			int[] rows = new int[indices.size()];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = indices.get(i);
+			}
+			catalogItems.readRows(rows, products -> {
+				// Copias: las paginas del catalogo se descartan y se vuelven a leer
+				List<Product> selected = new ArrayList<>();
+				for (Product product : products) {
+					Product copy = new Product(product.getName(), product.getCantidad(), product.getUnitPrice(),
+							product.getFilePath());
+					copy.setImageDigest(product.getImageDigest());
+					selected.add(copy);
+				}
+				onAdd.accept(selected);
+			});
+		});
+		retryButton.setOnAction(event -> catalogItems.retry());
+		retryButton.managedProperty().bind(retryButton.visibleProperty());
+		refreshStatus();
+
+		HBox bottomBox = new HBox();
+		bottomBox.setSpacing(10);
+		bottomBox.setPadding(new Insets(5));
+		bottomBox.setAlignment(Pos.CENTER_LEFT);
+		bottomBox.getChildren().addAll(addButton, statusLabel, retryButton);
+
+		BorderPane mainPane = new BorderPane();
+		mainPane.setCenter(catalogTableView);
+		mainPane.setBottom(bottomBox);
+		stage.setTitle("Catalogo: " + index.getFile().getName());
+		stage.setWidth(SCREEN_WIDTH);
+		stage.setHeight(SCREEN_HEIGHT);
+		stage.setScene(new Scene(mainPane));
+		stage.setOnHidden(event -> catalogItems.shutdown());
+	}
+
+	/**
+	 * Valor numerico de una celda; vacio en las filas que aun no se han leido
+	 */
+	private ObservableValue<Number> numberOf(Product product, ObservableValue<Number> value) {
+		return catalogItems.isPlaceholder(product) ? new SimpleObjectProperty<>() : value;
+	}
+
+	/**
+	 * Enseña el numero de productos, o el ultimo error de lectura con el boton de reintentar
+	 */
+	private void refreshStatus() {
+		Exception error = catalogItems.getError();
+		if (error == null) {
+			statusLabel.setText(index.size() + " productos");
+		} else {
+			statusLabel.setText("Error al leer el catálogo: " + error.getMessage());
+		}
+		retryButton.setVisible(error != null);
+	}
+
+	/**
+	 * Enseña la ventana
+	 * 
+	 * @param owner Window
+	 */
+	public void show(Window owner) {
+		stage.initOwner(owner);
+		stage.show();
+	}
+}
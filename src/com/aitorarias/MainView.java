@@ -3,50 +3,88 @@ package com.aitorarias;
 import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.UnaryOperator;
+import java.util.prefs.Preferences;
 
 import javax.xml.bind.JAXBException;
 
 import com.aitorarias.entity.Product;
 import com.aitorarias.enums.FileOption;
+import com.aitorarias.enums.MergeKey;
+import com.aitorarias.enums.SortKey;
+import com.aitorarias.task.ImportProductsTask;
+import com.aitorarias.task.LoadProductsTask;
+import com.aitorarias.task.SaveProductsTask;
+import com.aitorarias.util.ChangeJournal;
 import com.aitorarias.util.DialogBuilder;
+import com.aitorarias.util.FilteredProductList;
+import com.aitorarias.util.ImageExporter;
+import com.aitorarias.util.ImageStore;
+import com.aitorarias.util.InvoiceSummary;
+import com.aitorarias.util.InvoiceTotals;
+import com.aitorarias.util.ListUpdateBuffer;
+import com.aitorarias.util.NumberConverters;
+import com.aitorarias.util.ProductBinaryFile;
+import com.aitorarias.util.ProductListOps;
+import com.aitorarias.util.ProductSearchIndex;
+import com.aitorarias.util.ProductValidator;
+import com.aitorarias.util.ProductXmlIndex;
+import com.aitorarias.util.SortedProductList;
+import com.aitorarias.util.StreamCodecs;
+import com.aitorarias.util.ThumbnailCache;
+import com.aitorarias.util.UndoHistory;
 import com.aitorarias.util.XmlFileManager;
-import com.aitorarias.wrapper.ProductListWrapper;
 
 import javafx.application.Application;
-import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableColumn.CellEditEvent;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextFormatter;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.control.cell.TextFieldTableCell;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
-import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import javafx.util.converter.DoubleStringConverter;
-import javafx.util.converter.IntegerStringConverter;
 
 /**
  * Clase principal para la vista de la app. 
@@ -63,6 +101,27 @@ public class MainView extends Application {
 	// Dimensiones de la pantalla
 	private static final int SCREEN_WIDTH = 600;
 	private static final int SCREEN_HEIGHT = 500;
+	// Lado de las miniaturas y cuantas se guardan en memoria
+	private static final int THUMBNAIL_SIZE = 32;
+	private static final int THUMBNAIL_CACHE_ENTRIES = 500;
+	// Cambios en el diario a partir de los cuales se reescribe el documento entero
+	private static final int JOURNAL_COMPACT_AFTER = 10000;
+	private static final String LAST_DOCUMENT_KEY = "lastDocument";
+	// Copias de la version anterior que se guardan al guardar (archivo.bak1, archivo.bak2...)
+	private static final int SAVE_BACKUPS = 3;
+	// Memoria que puede ocupar el historial de deshacer, se puede cambiar en las preferencias
+	private static final long UNDO_MAX_BYTES = 32L * 1024 * 1024;
+	private static final String UNDO_MAX_BYTES_KEY = "undoMaxBytes";
+	// Tipo de IVA de los totales, se cambia desde el menu Editar
+	private static final String TAX_RATE_KEY = "taxRate";
+	// Productos por pagina al ver un catalogo
+	private static final int CATALOG_PAGE_SIZE = 1000;
+	// Texto de la etiqueta de imagen cuando el producto no tiene ninguna
+	private static final String NO_IMAGE_TEXT = "No se ha seleccionado imagen...";
+	// Productos que se leen de golpe al importar un archivo, y como mucho los que se añaden a la tabla por pulso
+	private static final int LOAD_BATCH_SIZE = 5000;
+	// Filas cambiadas de una vez a partir de las cuales se reordena toda la tabla en lugar de mover cada una
+	private static final int RESORT_LIMIT = 64;
 	// Invocamos tambien a Product.java
 	// Innacesibles desde otros partes del proyecto. ¿Qué elementos tiene la pantalla? Elementos importados de JavaFX: 
 	private TextField productNombreTextField = new TextField();
@@ -70,19 +129,90 @@ public class MainView extends Application {
 	private TextField precioTextField = new TextField();
 	private Button addProductButton = new Button("Añadir");
 	private Button addImageButton = new Button("Añadir imagen...");
-	private Label imageLabel = new Label("No se ha seleccionado imagen...");
+	private Label imageLabel = new Label(NO_IMAGE_TEXT);
 	private TableView<Product> productsTableView = new TableView<>();
 	private TableColumn<Product, String> productNombreColumn = new TableColumn<>("Nombre");
-	private TableColumn<Product, Integer> productCantidadColumn = new TableColumn<>("Cantidad");
-	private TableColumn<Product, Double> productPrecioColumn = new TableColumn<>("Precio");
-	private TableColumn<Product, Product> deleteButtonColumn = new TableColumn<>("Eliminar");
-	private TableColumn<Product, Product> previewButtonColumn = new TableColumn<>("Ver imagen");
+	// Number: asi la columna usa directamente la IntegerProperty/DoubleProperty del producto
+	private TableColumn<Product, Number> productCantidadColumn = new TableColumn<>("Cantidad");
+	private TableColumn<Product, Number> productPrecioColumn = new TableColumn<>("Precio");
+	// Columnas sin valor: sus celdas leen el producto de la fila cuando lo necesitan
+	private TableColumn<Product, Void> deleteButtonColumn = new TableColumn<>("Eliminar");
+	private TableColumn<Product, Void> previewButtonColumn = new TableColumn<>("Ver imagen");
+	private TableColumn<Product, Void> thumbnailColumn = new TableColumn<>("Imagen");
 	private MenuBar menuBar = new MenuBar();
 	private Menu fileMenu = new Menu("Opciones");
 	private MenuItem saveAsMenuItem = new MenuItem("Guardar como...");
 	private MenuItem loadMenuItem = new MenuItem("Importar...");
+	private MenuItem catalogMenuItem = new MenuItem("Abrir catálogo...");
+	private Menu editMenu = new Menu("Editar");
+	private MenuItem undoMenuItem = new MenuItem("Deshacer");
+	private MenuItem redoMenuItem = new MenuItem("Rehacer");
+	// Barra de progreso para guardar e importar
+	private ProgressBar progressBar = new ProgressBar(0);
+	private Label progressLabel = new Label();
+	private Button cancelTaskButton = new Button("Cancelar");
+	private HBox progressBox = new HBox();
+	// Un solo hilo para leer y escribir archivos, asi nunca bloqueamos el hilo de JavaFX
+	private ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "xml-io");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private ObservableList<Product> products = FXCollections.observableArrayList();
+	// Lo que enseña la tabla: los productos que cumplen la busqueda
+	private FilteredProductList filteredProducts = new FilteredProductList(products);
+	// ... y en el orden de la columna elegida
+	private SortedProductList sortedProducts = new SortedProductList(filteredProducts);
+	private ProductSearchIndex searchIndex = new ProductSearchIndex(products);
+	private TextField searchTextField = new TextField();
+	private boolean searchRefreshPending;
+	// Totales de la factura, en el pie de la tabla
+	private InvoiceTotals invoiceTotals = new InvoiceTotals(products);
+	private Label totalsLabel = new Label();
+	private boolean totalsRefreshPending;
+	// Documento abierto (el ultimo guardado o importado) y su diario de cambios
+	private File currentFile;
+	private ChangeJournal journal;
+	// Diario del archivo nuevo mientras se guarda como otro archivo; pasa a ser el diario si el guardado termina bien
+	private ChangeJournal saveAsJournal;
+	// Guardado pedido mientras se compactaba el diario; se lanza cuando termina la compactacion
+	private Runnable afterCompaction;
+	private Preferences preferences = Preferences.userNodeForPackage(MainView.class);
+	// Cambios que se pueden deshacer
+	private UndoHistory history = new UndoHistory(preferences.getLong(UNDO_MAX_BYTES_KEY, UNDO_MAX_BYTES));
+	// Mientras una carga sigue añadiendo filas a la tabla no se puede deshacer ni rehacer
+	private boolean loadingList;
+	// Almacen de imagenes del ultimo archivo guardado
+	private ImageStore imageStore;
+	// Miniaturas de la columna de imagen
+	private ThumbnailCache thumbnailCache = new ThumbnailCache(THUMBNAIL_SIZE, THUMBNAIL_CACHE_ENTRIES,
+			new File(System.getProperty("user.home"), ".xmlinvoice/thumbnails"));
+
+	/**
+	 * Se ejecuta antes de start() fuera del hilo de JavaFX. Preparamos aqui el contexto JAXB
+	 * para que el primer guardado o importacion no tenga que crearlo.
+	 */
+	@Override
+	public void init() {
+		try {
+			XmlFileManager.warmUp();
+		} catch (JAXBException e) {
+			// No es grave: se volvera a intentar al guardar o cargar
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Al cerrar la aplicacion cancelamos lo que quede en segundo plano
+	 */
+	@Override
+	public void stop() {
+		// El diario se queda en disco para poder recuperar los cambios la proxima vez
+		closeJournal();
+		ioExecutor.shutdownNow();
+		thumbnailCache.shutdown();
+	}
 
 	/**
 	 * Aquí empieza la aplicación
@@ -146,13 +276,18 @@ public class MainView extends Application {
 		inputGridPane.add(imageLabel, 1, 3);
 
 		// Creamos las tablas y sus columnas
-		productNombreColumn.setPrefWidth(250);
-		productNombreColumn.setCellValueFactory(new PropertyValueFactory<>("nombre"));
+		productNombreColumn.setPrefWidth(205);
+		// Las propiedades del producto directamente, sin buscar getters por reflexion en cada celda
+		productNombreColumn.setCellValueFactory(param -> param.getValue().getNameProperty());
 		productNombreColumn.setCellFactory(TextFieldTableCell.forTableColumn());
 		productNombreColumn.setOnEditCommit(new EventHandler<TableColumn.CellEditEvent<Product, String>>() {
 			@Override
 			public void handle(CellEditEvent<Product, String> t) {
-				((Product) t.getTableView().getItems().get(t.getTablePosition().getRow())).setNombre(t.getNewValue());
+				int index = sourceIndexOf(t.getTablePosition().getRow());
+				recordEdit(UndoHistory.nameChange(products, index, t.getNewValue()));
+				t.getRowValue().setName(t.getNewValue());
+				sortedProducts.rowChanged(t.getTablePosition().getRow());
+				logChange(journal -> journal.logName(index, t.getNewValue()));
 			}
 		});
 
@@ -160,84 +295,155 @@ public class MainView extends Application {
 		// Tipos de  parametros en JavaFX:
 		// 	S - Tabla genérica (i.e. S == TableView<S>)
 		// 	T - El tipo de contenido en todas las celdas es TableColum
-		productCantidadColumn.setCellValueFactory(new PropertyValueFactory<>("cantidad"));
-		productCantidadColumn.setCellFactory(TextFieldTableCell.forTableColumn(new IntegerStringConverter()));
-		productCantidadColumn.setOnEditCommit(new EventHandler<TableColumn.CellEditEvent<Product, Integer>>() {
+		productCantidadColumn.setCellValueFactory(param -> param.getValue().getCantidadProperty());
+		productCantidadColumn.setCellFactory(TextFieldTableCell.forTableColumn(NumberConverters.INTEGER));
+		productCantidadColumn.setOnEditCommit(new EventHandler<TableColumn.CellEditEvent<Product, Number>>() {
 			@Override
-			public void handle(CellEditEvent<Product, Integer> t) {
+			public void handle(CellEditEvent<Product, Number> t) {
 				// conseguimos el TableView, los Items, la posicion de la Tabla, columnna, cantidad, y nuevo valor
 				// TODO ELLO VIENE DE PRODUCT.JAVA
-				((Product) t.getTableView().getItems().get(t.getTablePosition().getRow())).setCantidad(t.getNewValue());
+				if (t.getNewValue() == null) {
+					productsTableView.refresh();
+					return;
+				}
+				int index = sourceIndexOf(t.getTablePosition().getRow());
+				int cantidad = t.getNewValue().intValue();
+				recordEdit(UndoHistory.cantidadChange(products, new int[] { index }, cantidad));
+				t.getRowValue().setCantidad(cantidad);
+				sortedProducts.rowChanged(t.getTablePosition().getRow());
+				logChange(journal -> journal.logCantidad(index, cantidad));
 
 			}
 		});
 
 		productPrecioColumn.setPrefWidth(75);
-		productPrecioColumn.setCellValueFactory(new PropertyValueFactory<>("Precio"));
-		productPrecioColumn.setCellFactory(TextFieldTableCell.forTableColumn(new DoubleStringConverter()));
-		productPrecioColumn.setOnEditCommit(new EventHandler<TableColumn.CellEditEvent<Product, Double>>() {
+		productPrecioColumn.setCellValueFactory(param -> param.getValue().getUnitPriceProperty());
+		productPrecioColumn.setCellFactory(TextFieldTableCell.forTableColumn(NumberConverters.DOUBLE));
+		productPrecioColumn.setOnEditCommit(new EventHandler<TableColumn.CellEditEvent<Product, Number>>() {
 			@Override
-			public void handle(CellEditEvent<Product, Double> t) {
-				((Product) t.getTableView().getItems().get(t.getTablePosition().getRow()))
-						.setPrecio(t.getNewValue());
+			public void handle(CellEditEvent<Product, Number> t) {
+				if (t.getNewValue() == null) {
+					productsTableView.refresh();
+					return;
+				}
+				int index = sourceIndexOf(t.getTablePosition().getRow());
+				double precio = t.getNewValue().doubleValue();
+				if (!ProductValidator.isNumber(precio)) {
+					DialogBuilder.showErrorgDialog("Input inválido", null, "El precio no es un número: " + precio);
+					productsTableView.refresh();
+					return;
+				}
+				recordEdit(UndoHistory.precioChange(products, new int[] { index }, new double[] { precio }));
+				t.getRowValue().setUnitPrice(precio);
+				sortedProducts.rowChanged(t.getTablePosition().getRow());
+				logChange(journal -> journal.logPrecio(index, precio));
 			}
 		});
 		// Interfaz gráfica para el botón de "Borrar"
 		deleteButtonColumn.setPrefWidth(100);
-		deleteButtonColumn.setCellValueFactory(param -> new ReadOnlyObjectWrapper<>(param.getValue()));
-		deleteButtonColumn.setCellFactory(param -> new TableCell<Product, Product>() {
+		deleteButtonColumn.setCellFactory(param -> new TableCell<Product, Void>() {
 			private final Button deleteButton = new Button("Borrar");
+
+			{
+				// Acción de borrar, una sola vez por celda: la fila se mira al hacer click.
+				// Si la fila esta entre las seleccionadas se borran todas las seleccionadas
+				deleteButton.setOnAction(event -> {
+					if (productsTableView.getSelectionModel().isSelected(getIndex())) {
+						removeSelectedProducts();
+					} else {
+						removeProducts(new int[] { sourceIndexOf(getIndex()) });
+					}
+				});
+			}
+
 			// Sobreescribe el método
 			@Override
-			// Función para actualizar el Item. Si no existe elemento en la tabla, la interfaz nos devuelve null
-			protected void updateItem(Product product, boolean item) {
-				super.updateItem(product, item);
-				if (product == null) {
-					setGraphic(null);
-					return;
-				}
-			// Si existe y borramos un item, ésta tabla adquiere 0 valor
-				setGraphic(deleteButton);
-				// Acción de borrar: 
-				deleteButton.setOnAction(event -> getTableView().getItems().remove(product));
+			// Función para actualizar la celda. Si la fila esta vacia no hay boton
+			protected void updateItem(Void item, boolean empty) {
+				super.updateItem(item, empty);
+				setGraphic(empty ? null : deleteButton);
 			}
 		});
 		// Diseño del botón "Imagen"
 		previewButtonColumn.setPrefWidth(75);
-		previewButtonColumn.setCellValueFactory(param -> new ReadOnlyObjectWrapper<>(param.getValue()));
-		previewButtonColumn.setCellFactory(param -> new TableCell<Product, Product>() {
+		previewButtonColumn.setCellFactory(param -> new TableCell<Product, Void>() {
 			private final Button previewButton = new Button("Ver Imagen");
 
+			{
+				// El producto se lee al hacer click, no cada vez que se reutiliza la celda
+				previewButton.setOnAction(event -> previewImage(getTableView().getItems().get(getIndex())));
+			}
+
+			@Override
+			// Volvemos a actualizar la celda como en la de borrar. Si la fila esta vacia no hay boton
+			protected void updateItem(Void item, boolean empty) {
+				super.updateItem(item, empty);
+				setGraphic(empty ? null : previewButton);
+			}
+		});
+		// Miniatura de la imagen. Las celdas reutilizan su ImageView y la imagen sale de la cache
+		thumbnailColumn.setPrefWidth(45);
+		thumbnailColumn.setCellFactory(param -> new TableCell<Product, Void>() {
+			private final ImageView imageView = new ImageView();
+
 			@Override
-			// Volvemos a actualizar el producto como en el deleteItem. Si no existe imagen, devuelve null
-			protected void updateItem(Product product, boolean item) {
-				super.updateItem(product, item);
-				if (product == null) {
+			protected void updateItem(Void item, boolean empty) {
+				super.updateItem(item, empty);
+				Product product = empty ? null : getTableView().getItems().get(getIndex());
+				// Si no esta en memoria llega despues; para entonces la celda puede estar enseñando otra fila
+				Image thumbnail = product == null ? null : thumbnailCache.get(product, image -> {
+					if (!isEmpty() && getIndex() < getTableView().getItems().size()
+							&& getTableView().getItems().get(getIndex()) == product) {
+						imageView.setImage(image);
+						setGraphic(imageView);
+					}
+				});
+				if (thumbnail == null) {
+					imageView.setImage(null);
 					setGraphic(null);
 					return;
 				}
-			// Si existe imagen, entonces podemos verla
-				setGraphic(previewButton);
-				previewButton.setOnAction(event -> {
-					Desktop desktop = Desktop.getDesktop();
-					File file = new File(product.getFilePath());
-					// lanzamos error. UBUNTU 18.04 tiene problemas para abrir, no así en mi Windows. ¡OJO!
-					try {
-						desktop.open(file);
-					} catch (IOException e) {
-						// sino, dialogo de error 
-						DialogBuilder.showErrorgDialog("Previsualización imagen", null, "Errror al abrir el archivo: " + e.getMessage());
-						e.printStackTrace();
-					}
-				});
+				imageView.setImage(thumbnail);
+				setGraphic(imageView);
 			}
 		});
 		// Documentado desde: https://docs.oracle.com/javafx/2/ui_controls/table-view.htm#sthref119
 		productsTableView.setEditable(true);
-		productsTableView.setItems(products);
+		// Se pueden seleccionar varias filas para borrarlas de una vez
+		productsTableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+		productsTableView.setOnKeyPressed(event -> {
+			if (event.getCode() == KeyCode.DELETE && productsTableView.getEditingCell() == null) {
+				removeSelectedProducts();
+			}
+		});
+		// Operaciones sobre todas las filas seleccionadas, cada una como un solo cambio
+		MenuItem changePricesMenuItem = new MenuItem("Cambiar precio (%)...");
+		changePricesMenuItem.setOnAction(event -> changeSelectedPrices());
+		MenuItem setCantidadMenuItem = new MenuItem("Poner cantidad...");
+		setCantidadMenuItem.setOnAction(event -> setSelectedCantidad());
+		MenuItem removeSelectionMenuItem = new MenuItem("Borrar selección");
+		removeSelectionMenuItem.setOnAction(event -> removeSelectedProducts());
+		productsTableView.setContextMenu(
+				new ContextMenu(changePricesMenuItem, setCantidadMenuItem, removeSelectionMenuItem));
+		productsTableView.setItems(sortedProducts);
+		// Ordenar lo hace sortedProducts con claves primitivas; se ordena por la primera columna elegida
+		productsTableView.setSortPolicy(table -> {
+			SortKey sortKey = SortKey.NONE;
+			boolean ascending = true;
+			if (!table.getSortOrder().isEmpty()) {
+				TableColumn<Product, ?> column = table.getSortOrder().get(0);
+				sortKey = sortKeyOf(column);
+				ascending = column.getSortType() == TableColumn.SortType.ASCENDING;
+			}
+			sortedProducts.sort(sortKey, ascending);
+			return true;
+		});
+		thumbnailColumn.setSortable(false);
+		previewButtonColumn.setSortable(false);
+		deleteButtonColumn.setSortable(false);
 		// Añadimos TODAS las columnas
-		productsTableView.getColumns().addAll(productNombreColumn, productCantidadColumn, productPrecioColumn,
-				previewButtonColumn, deleteButtonColumn);
+		productsTableView.getColumns().addAll(thumbnailColumn, productNombreColumn, productCantidadColumn,
+				productPrecioColumn, previewButtonColumn, deleteButtonColumn);
 
 		addProductButton.setPrefWidth(150);
 		addProductButton.setOnAction((ActionEvent e) -> {
@@ -254,7 +460,19 @@ public class MainView extends Application {
 		// Creando los menús
 		menuBar.setPrefWidth(200);
 		menuBar.getMenus().add(fileMenu);
-		fileMenu.getItems().addAll(saveAsMenuItem, loadMenuItem);
+		fileMenu.getItems().addAll(saveAsMenuItem, loadMenuItem, catalogMenuItem);
+		menuBar.getMenus().add(editMenu);
+		MenuItem taxRateMenuItem = new MenuItem("Tipo de IVA...");
+		taxRateMenuItem.setOnAction(event -> changeTaxRate());
+		editMenu.getItems().addAll(undoMenuItem, redoMenuItem, new SeparatorMenuItem(), taxRateMenuItem);
+		undoMenuItem.setAccelerator(KeyCombination.keyCombination("Shortcut+Z"));
+		undoMenuItem.setOnAction(event -> undo());
+		redoMenuItem.setAccelerator(KeyCombination.keyCombination("Shortcut+Y"));
+		redoMenuItem.setOnAction(event -> redo());
+		editMenu.setOnShowing(event -> {
+			undoMenuItem.setDisable(loadingList || !history.canUndo());
+			redoMenuItem.setDisable(loadingList || !history.canRedo());
+		});
 		// Le damos "vida" al boton "guardar como"
 		saveAsMenuItem.setOnAction((ActionEvent e) -> {
 			// NO PUEDE HABER PRODUCTO VACIO, SINO: 
@@ -276,15 +494,41 @@ public class MainView extends Application {
 				showFileChooser(FileOption.LOAD, primaryStage);
 			}
 		});
+		// Catalogos de proveedor: se ven en otra ventana sin cargarlos enteros
+		catalogMenuItem.setOnAction((ActionEvent e) -> openCatalog(primaryStage));
 		// VBox propio de JavaFX
 		VBox vbox1 = new VBox();
 		vbox1.setSpacing(10);
 		vbox1.setPadding(new Insets(5));
-		vbox1.getChildren().addAll(inputGridPane, addProductButton, productsTableView);
+		// Busqueda sobre el indice. Se vuelve a aplicar cada vez que cambia el texto o el indice
+		searchTextField.setPromptText("Buscar: nombre precio:10-20 cantidad:1-");
+		HBox.setHgrow(searchTextField, Priority.ALWAYS);
+		searchTextField.textProperty().addListener((observable, oldValue, newValue) -> applySearch());
+		searchIndex.setOnChange(this::scheduleSearchRefresh);
+		HBox actionBox = new HBox();
+		actionBox.setSpacing(10);
+		actionBox.getChildren().addAll(addProductButton, searchTextField);
+
+		// Pie con los totales, se actualiza como mucho una vez por pulso
+		invoiceTotals.setTaxRate(readTaxRate());
+		invoiceTotals.setOnChange(this::scheduleTotalsRefresh);
+		refreshTotals();
+
+		vbox1.getChildren().addAll(inputGridPane, actionBox, productsTableView, totalsLabel);
+
+		// Progreso de las tareas en segundo plano, oculto mientras no haya ninguna
+		progressBar.setPrefWidth(200);
+		progressBox.setSpacing(10);
+		progressBox.setPadding(new Insets(5));
+		progressBox.setAlignment(Pos.CENTER_LEFT);
+		progressBox.getChildren().addAll(progressBar, progressLabel, cancelTaskButton);
+		progressBox.setVisible(false);
+		progressBox.managedProperty().bind(progressBox.visibleProperty());
 
 		BorderPane mainPane = new BorderPane();
 		mainPane.setTop(menuBar);
 		mainPane.setCenter(vbox1);
+		mainPane.setBottom(progressBox);
 		// Clase contenedora para todo el contenido en la Scene gráfica. El background de la escena está cubierta con la propiedad fill
 		Scene scene = new Scene(mainPane);
 		//primaryStage ya definidos durante todo el proyecto
@@ -295,6 +539,141 @@ public class MainView extends Application {
 		primaryStage.resizableProperty().setValue(Boolean.FALSE);
 		primaryStage.setScene(scene);
 		primaryStage.show();
+		// Si la ultima vez se cerro con cambios sin guardar, ofrecemos recuperarlos
+		recoverLastDocument();
+	}
+
+	/**
+	 * Indice en products de una fila de la tabla, que esta filtrada y ordenada
+	 * 
+	 * @param row int
+	 * @return int
+	 */
+	private int sourceIndexOf(int row) {
+		return filteredProducts.getSourceIndex(sortedProducts.getSourceIndex(row));
+	}
+
+	/**
+	 * Fila de la tabla de un indice en products, o -1 si el filtro lo oculta
+	 * 
+	 * @param index int
+	 * @return int
+	 */
+	private int rowOf(int index) {
+		int filteredRow = filteredProducts.getViewIndex(index);
+		return filteredRow < 0 ? -1 : sortedProducts.getViewIndex(filteredRow);
+	}
+
+	/**
+	 * Clave de ordenacion de una columna
+	 * 
+	 * @param column TableColumn<Product, ?>
+	 * @return SortKey
+	 */
+	private SortKey sortKeyOf(TableColumn<Product, ?> column) {
+		if (column == productNombreColumn) {
+			return SortKey.NAME;
+		} else if (column == productCantidadColumn) {
+			return SortKey.CANTIDAD;
+		} else if (column == productPrecioColumn) {
+			return SortKey.PRECIO;
+		}
+		return SortKey.NONE;
+	}
+
+	/**
+	 * Filtra la tabla con el texto de busqueda. El indice da el conjunto de productos que cumplen
+	 * la busqueda y la lista filtrada solo quita y añade las filas que cambian.
+	 */
+	private void applySearch() {
+		searchRefreshPending = false;
+		Set<Product> matches;
+		try {
+			matches = searchIndex.search(searchTextField.getText());
+		} catch (NumberFormatException e) {
+			// Rango a medio escribir: dejamos el filtro como estaba
+			return;
+		}
+		filteredProducts.setMatches(matches);
+	}
+
+	/**
+	 * Cuando cambian los productos y hay una busqueda activa, se vuelve a aplicar una sola vez
+	 * al final del pulso, aunque hayan cambiado muchos productos
+	 */
+	private void scheduleSearchRefresh() {
+		if (searchRefreshPending || filteredProducts.getMatches() == null) {
+			return;
+		}
+		searchRefreshPending = true;
+		Platform.runLater(this::applySearch);
+	}
+
+	/**
+	 * Enseña los totales en el pie
+	 */
+	private void refreshTotals() {
+		totalsRefreshPending = false;
+		InvoiceSummary summary = invoiceTotals.getSummary();
+		StringBuilder builder = new StringBuilder();
+		builder.append("Lineas: ").append(summary.getLines());
+		builder.append("  Articulos: ").append(summary.getItems());
+		builder.append("  Subtotal: ").append(summary.getSubtotal());
+		builder.append("  IVA: ").append(summary.getTax());
+		builder.append("  Total: ").append(summary.getTotal());
+		if (summary.getLines() > 0) {
+			builder.append("  Precio min/max: ").append(summary.getMinPrice()).append(" / ").append(summary.getMaxPrice());
+		}
+		totalsLabel.setText(builder.toString());
+	}
+
+	/**
+	 * Tipo de IVA guardado en las preferencias, o el general si no hay ninguno valido
+	 * 
+	 * @return BigDecimal
+	 */
+	private BigDecimal readTaxRate() {
+		try {
+			BigDecimal taxRate = new BigDecimal(
+					preferences.get(TAX_RATE_KEY, InvoiceSummary.DEFAULT_TAX_RATE.toPlainString()));
+			return taxRate.signum() < 0 ? InvoiceSummary.DEFAULT_TAX_RATE : taxRate;
+		} catch (NumberFormatException e) {
+			return InvoiceSummary.DEFAULT_TAX_RATE;
+		}
+	}
+
+	/**
+	 * Pide el tipo de IVA en tanto por ciento y lo guarda en las preferencias
+	 */
+	private void changeTaxRate() {
+		BigDecimal current = invoiceTotals.getSummary().getTaxRate().movePointRight(2).stripTrailingZeros();
+		Optional<String> input = DialogBuilder.showTextInputDialog("Tipo de IVA",
+				"Ahora: " + current.toPlainString() + "%", "IVA (%):");
+		if (!input.isPresent()) {
+			return;
+		}
+		BigDecimal percent;
+		try {
+			percent = new BigDecimal(input.get().trim().replace(',', '.'));
+		} catch (NumberFormatException e) {
+			DialogBuilder.showErrorgDialog("Tipo de IVA", null, "El IVA no es un número: " + input.get());
+			return;
+		}
+		if (percent.signum() < 0) {
+			DialogBuilder.showErrorgDialog("Tipo de IVA", null, "El IVA no puede ser negativo");
+			return;
+		}
+		BigDecimal taxRate = percent.movePointLeft(2);
+		preferences.put(TAX_RATE_KEY, taxRate.toPlainString());
+		invoiceTotals.setTaxRate(taxRate);
+	}
+
+	private void scheduleTotalsRefresh() {
+		if (totalsRefreshPending) {
+			return;
+		}
+		totalsRefreshPending = true;
+		Platform.runLater(this::refreshTotals);
 	}
 
 	/**
@@ -324,6 +703,8 @@ public class MainView extends Application {
 		}
 		if (precioTextField.getText().length() == 0) {
 			builder.append("\nEl precio no puede estar vacío");
+		} else if (!isNumber(precioTextField.getText())) {
+			builder.append("\nEl precio no es un número");
 		}
 
 		return builder.toString();
@@ -339,6 +720,20 @@ public class MainView extends Application {
 		return products.isEmpty() ? true : false;
 	}
 
+	/**
+	 * Comprueba que un texto es un precio que se puede sumar en los totales (ni NaN ni infinito)
+	 * 
+	 * @param text String
+	 * @return boolean
+	 */
+	private static boolean isNumber(String text) {
+		try {
+			return ProductValidator.isNumber(Double.parseDouble(text));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Maneja el evento cuando clickamos el boton de añadir. Este método captura los valores desde el input
 	 * y añade los productos al ObservableList. 
@@ -357,13 +752,282 @@ public class MainView extends Application {
 		Integer cantidad = Integer.valueOf(cantidadTextField.getText().toString());
 		// Obligacion del Double
 		Double precio = Double.valueOf(precioTextField.getText().toString());
-		String filePath = (!imageLabel.getText().equals("No se ha seleccionado imagen")) ? imageLabel.getText() : null;
+		String filePath = (!imageLabel.getText().equals(NO_IMAGE_TEXT)) ? imageLabel.getText() : null;
 		// Se añaden los productos
-		products.add(new Product(nombre, cantidad, precio, filePath));
+		Product product = new Product(nombre, cantidad, precio, filePath);
+		products.add(product);
+		int index = products.size() - 1;
+		recordEdit(UndoHistory.addition(index, Collections.singletonList(product)));
+		logChange(journal -> journal.logAdd(index, product));
 		// se borran todos los campos
 		clearInputFields();
 	}
 	
+	/**
+	 * Añade productos al final de la factura
+	 * 
+	 * @param added List<Product>
+	 */
+	private void addProducts(List<Product> added) {
+		UndoHistory.Edit edit = UndoHistory.addition(products.size(), added);
+		products.addAll(added);
+		recordEdit(edit);
+		logChange(edit::logRedo);
+	}
+
+	/**
+	 * Abre un catalogo xml o binario en modo solo lectura. Primero se indexa el archivo en segundo plano
+	 * y despues se enseña en su propia ventana, desde donde se pueden añadir productos a la factura.
+	 * 
+	 * @param stage Stage
+	 */
+	private void openCatalog(Stage stage) {
+		FileChooser fileChooser = new FileChooser();
+		configureFileChooser(fileChooser, "Abrir catálogo", Arrays.asList(new FileChooser.ExtensionFilter("XML", "*.xml"),
+				new FileChooser.ExtensionFilter("Binario", "*" + ProductBinaryFile.EXTENSION)));
+		File file = fileChooser.showOpenDialog(stage);
+		if (file == null) {
+			return;
+		}
+		Task<ProductXmlIndex> task = new Task<ProductXmlIndex>() {
+			@Override
+			protected ProductXmlIndex call() throws Exception {
+				updateMessage("Indexando " + file.getName() + "...");
+				return ProductXmlIndex.build(file, CATALOG_PAGE_SIZE);
+			}
+		};
+		task.setOnSucceeded(event -> new CatalogView(task.getValue(), this::addProducts).show(stage));
+		task.setOnFailed(event -> DialogBuilder.showErrorgDialog("Abrir catálogo", null,
+				"Error al leer el catálogo: " + task.getException().getMessage()));
+		runInBackground(task);
+	}
+
+	/**
+	 * Borra productos por su posicion, con pocos cambios de la lista y un solo registro en el diario
+	 * 
+	 * @param indexes int[] posiciones en products, no en la tabla
+	 */
+	private void removeProducts(int[] indexes) {
+		if (indexes.length == 0) {
+			return;
+		}
+		UndoHistory.Edit edit = UndoHistory.removal(products, indexes);
+		edit.redo(products);
+		recordEdit(edit);
+		logChange(edit::logRedo);
+	}
+
+	/**
+	 * Borra las filas seleccionadas de la tabla
+	 */
+	private void removeSelectedProducts() {
+		int[] indexes = selectedSourceIndexes();
+		productsTableView.getSelectionModel().clearSelection();
+		removeProducts(indexes);
+	}
+
+	/**
+	 * Posiciones en products de las filas seleccionadas de la tabla
+	 * 
+	 * @return int[]
+	 */
+	private int[] selectedSourceIndexes() {
+		List<Integer> rows = productsTableView.getSelectionModel().getSelectedIndices();
+		int[] indexes = new int[rows.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = sourceIndexOf(rows.get(i));
+		}
+		return indexes;
+	}
+
+	/**
+	 * Sube o baja un porcentaje el precio de las filas seleccionadas
+	 */
+	private void changeSelectedPrices() {
+		int[] indexes = selectedSourceIndexes();
+		if (indexes.length == 0) {
+			DialogBuilder.showInformationDialog("Cambiar precio", null, "Selecciona al menos un producto");
+			return;
+		}
+		Optional<String> input = DialogBuilder.showTextInputDialog("Cambiar precio",
+				indexes.length + " productos seleccionados", "Porcentaje (por ejemplo 10 o -5):");
+		if (!input.isPresent()) {
+			return;
+		}
+		BigDecimal percent;
+		try {
+			percent = new BigDecimal(input.get().trim().replace(',', '.'));
+		} catch (NumberFormatException e) {
+			DialogBuilder.showErrorgDialog("Cambiar precio", null, "El porcentaje no es un número: " + input.get());
+			return;
+		}
+		if (percent.compareTo(BigDecimal.valueOf(-100)) < 0) {
+			DialogBuilder.showErrorgDialog("Cambiar precio", null, "El precio no puede bajar más de un 100%");
+			return;
+		}
+		double[] precios = ProductListOps.changedPrices(products, indexes, percent);
+		for (double precio : precios) {
+			if (!ProductValidator.isNumber(precio)) {
+				DialogBuilder.showErrorgDialog("Cambiar precio", null, "El precio resultante es demasiado grande");
+				return;
+			}
+		}
+		applyEdit(UndoHistory.precioChange(products, indexes, precios));
+	}
+
+	/**
+	 * Pone la misma cantidad a las filas seleccionadas
+	 */
+	private void setSelectedCantidad() {
+		int[] indexes = selectedSourceIndexes();
+		if (indexes.length == 0) {
+			DialogBuilder.showInformationDialog("Poner cantidad", null, "Selecciona al menos un producto");
+			return;
+		}
+		Optional<String> input = DialogBuilder.showTextInputDialog("Poner cantidad",
+				indexes.length + " productos seleccionados", "Cantidad:");
+		if (!input.isPresent()) {
+			return;
+		}
+		int cantidad;
+		try {
+			cantidad = Integer.parseInt(input.get().trim());
+		} catch (NumberFormatException e) {
+			cantidad = -1;
+		}
+		if (cantidad < 0) {
+			DialogBuilder.showErrorgDialog("Poner cantidad", null, "La cantidad tiene que ser un entero positivo: " + input.get());
+			return;
+		}
+		applyEdit(UndoHistory.cantidadChange(products, indexes, cantidad));
+	}
+
+	/**
+	 * Hace un cambio de muchos productos como un solo cambio: se guarda en el historial, se apunta
+	 * en el diario de una vez, y los totales y el buscador avisan una sola vez al final
+	 * 
+	 * @param edit UndoHistory.Edit
+	 */
+	private void applyEdit(UndoHistory.Edit edit) {
+		runBatch(() -> edit.redo(products));
+		sortChanged(edit);
+		recordEdit(edit);
+		logChange(edit::logRedo);
+	}
+
+	/**
+	 * Guarda un cambio en el historial. Si el cambio es demasiado grande para el limite de memoria
+	 * no se guarda, y se avisa de que ese paso no se va a poder deshacer.
+	 * 
+	 * @param edit UndoHistory.Edit
+	 */
+	private void recordEdit(UndoHistory.Edit edit) {
+		if (!history.record(edit)) {
+			// Puede venir de dentro de una animacion, donde no se puede esperar a un dialogo
+			Platform.runLater(() -> DialogBuilder.showWarningDialog("Deshacer", null,
+					"El cambio es demasiado grande para el historial y no se podra deshacer"));
+		}
+	}
+
+	/**
+	 * Deshace el ultimo cambio de la factura
+	 */
+	private void undo() {
+		// Mientras se edita una celda, hay una tarea de archivo o la carga sigue llenando la tabla no se toca la lista
+		if (productsTableView.getEditingCell() != null || editMenu.isDisable() || loadingList) {
+			return;
+		}
+		UndoHistory.Edit[] edit = new UndoHistory.Edit[1];
+		runBatch(() -> edit[0] = history.undo(products));
+		sortChanged(edit[0]);
+		if (edit[0] != null) {
+			logChange(edit[0]::logUndo);
+		}
+	}
+
+	/**
+	 * Rehace el ultimo cambio deshecho
+	 */
+	private void redo() {
+		// Mientras se edita una celda, hay una tarea de archivo o la carga sigue llenando la tabla no se toca la lista
+		if (productsTableView.getEditingCell() != null || editMenu.isDisable() || loadingList) {
+			return;
+		}
+		UndoHistory.Edit[] edit = new UndoHistory.Edit[1];
+		runBatch(() -> edit[0] = history.redo(products));
+		sortChanged(edit[0]);
+		if (edit[0] != null) {
+			logChange(edit[0]::logRedo);
+		}
+	}
+
+	/**
+	 * Cambia muchos productos a la vez: los totales y el buscador avisan una vez al final
+	 * 
+	 * @param change Runnable
+	 */
+	private void runBatch(Runnable change) {
+		invoiceTotals.beginBatch();
+		searchIndex.beginBatch();
+		try {
+			change.run();
+		} finally {
+			searchIndex.endBatch();
+			invoiceTotals.endBatch();
+		}
+	}
+
+	/**
+	 * Recoloca en la tabla las filas a las que ha cambiado algun valor. Sin columna de orden no se
+	 * mueve nada; con pocas filas se mueve cada una a su sitio y con muchas se ordena todo otra vez.
+	 * Las filas añadidas o quitadas ya las coloca la lista ordenada al enterarse del cambio.
+	 * 
+	 * @param edit UndoHistory.Edit puede ser null si no habia nada que deshacer o rehacer
+	 */
+	private void sortChanged(UndoHistory.Edit edit) {
+		if (edit == null || sortedProducts.getSortKey() == SortKey.NONE) {
+			return;
+		}
+		int[] changed = edit.getChangedIndexes();
+		if (changed.length > RESORT_LIMIT) {
+			sortedProducts.resort();
+			return;
+		}
+		int[] rows = new int[changed.length];
+		int count = 0;
+		for (int index : changed) {
+			int row = rowOf(index);
+			if (row >= 0) {
+				rows[count++] = row;
+			}
+		}
+		sortedProducts.rowsChanged(Arrays.copyOf(rows, count));
+	}
+
+	/**
+	 * Abre la imagen de un producto con el programa del sistema
+	 * 
+	 * @param product Product
+	 */
+	private void previewImage(Product product) {
+		Desktop desktop = Desktop.getDesktop();
+		// Si la imagen esta en el almacen la buscamos por su digest
+		Path stored = imageStore != null ? imageStore.resolve(product.getImageDigest()) : null;
+		if (stored == null && product.getFilePath() == null) {
+			DialogBuilder.showInformationDialog("Previsualización imagen", null, "El producto no tiene imagen");
+			return;
+		}
+		File file = stored != null ? stored.toFile() : new File(product.getFilePath());
+		// lanzamos error. UBUNTU 18.04 tiene problemas para abrir, no así en mi Windows. ¡OJO!
+		try {
+			desktop.open(file);
+		} catch (IOException e) {
+			// sino, dialogo de error 
+			DialogBuilder.showErrorgDialog("Previsualización imagen", null, "Errror al abrir el archivo: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Manejamos la acción para clickar el boton "Añadir image"
 	 * Cuando clickamos en este botón, se abre ventana
@@ -396,7 +1060,7 @@ public class MainView extends Application {
 		productNombreTextField.clear();
 		cantidadTextField.clear();
 		precioTextField.clear();
-		imageLabel.setText("No existe imagen...");
+		imageLabel.setText(NO_IMAGE_TEXT);
 	}
 
 	/**
@@ -411,8 +1075,10 @@ public class MainView extends Application {
 	// Documentación aquí: https://docs.oracle.com/javase/8/javafx/api/javafx/stage/Stage.html
 	private void showFileChooser(FileOption option, Stage stage) {
 		FileChooser fileChooser = new FileChooser();
-		// Lista que me da a elegir con el File Chooser con su respectiva extension. En este caso solo guardamos XML.
-		List<FileChooser.ExtensionFilter> filters = Arrays.asList(new FileChooser.ExtensionFilter("XML", "*.xml"));
+		// Lista que me da a elegir con el File Chooser con su respectiva extension. XML o el binario para facturas grandes.
+		List<FileChooser.ExtensionFilter> filters = Arrays.asList(new FileChooser.ExtensionFilter("XML", "*.xml"),
+				new FileChooser.ExtensionFilter("XML comprimido (gzip)", "*.xml" + StreamCodecs.GZIP.getExtension()),
+				new FileChooser.ExtensionFilter("Binario", "*" + ProductBinaryFile.EXTENSION));
 		// Filtro queda configurado en nuestra carpeta util > XmlFilter
 		configureFileChooser(fileChooser, "Guardar archivo", filters);
 		// Lanzamos opciones con el switch 
@@ -450,26 +1116,75 @@ public class MainView extends Application {
 	}
 
 	/**
-	 * Carga la lista desde nuestra ventana
+	 * Carga la lista desde nuestra ventana. La lectura se hace en segundo plano
+	 * y los productos se van añadiendo a la tabla por lotes.
 	 * 
 	 * @param stage       Stage
 	 * @param fileChooser FileChooser
 	 */
 	private void loadFile(Stage stage, FileChooser fileChooser) {
-		File file = fileChooser.showOpenDialog(stage);
-		// posible error, por lo tanto lanzo un try y un catch:
-		// si no existe archivo, entonces
-		if (file != null) {
-			try {
-				// Importado
-				List<Product> list = XmlFileManager.loadFromXmlFile(file);
-				products.clear();
-				products.addAll(list);
-			} catch (JAXBException e) {
-				// muestrame el error con una ventana emergente
-				DialogBuilder.showErrorgDialog("Cargando archivo", null, "Error al cargar el archivo: " + e.getMessage());
+		List<File> files = fileChooser.showOpenMultipleDialog(stage);
+		// si no existe archivo, entonces no hacemos nada
+		if (files == null || files.isEmpty()) {
+			return;
+		}
+		// Varios archivos: se leen a la vez y se juntan
+		if (files.size() > 1) {
+			importFiles(files);
+			return;
+		}
+		File file = files.get(0);
+		// Los cambios del documento anterior se pierden, como avisa el dialogo
+		discardJournal();
+		// Importado por lotes: nunca tenemos el documento entero en memoria.
+		// Los lotes se juntan y se aplican a la tabla una vez por pulso de pantalla
+		ListUpdateBuffer<Product> buffer = new ListUpdateBuffer<>(products, LOAD_BATCH_SIZE);
+		LoadProductsTask task = new LoadProductsTask(file, LOAD_BATCH_SIZE, buffer::add);
+		task.stateProperty().addListener((observable, oldState, state) -> {
+			if (state == Worker.State.SUCCEEDED || state == Worker.State.FAILED || state == Worker.State.CANCELLED) {
+				buffer.finish();
 			}
+		});
+		// La tarea termina antes de que el buffer haya puesto todas las filas: hasta entonces no hay deshacer
+		loadingList = true;
+		buffer.setOnDrained(() -> {
+			loadingList = false;
+			// El documento nuevo empieza sin historial; lo editado durante la carga ya es parte de el
+			history.clear();
+		});
+		buffer.start(true);
+		task.setOnSucceeded(event -> startJournal(file));
+		task.setOnFailed(event -> {
+			// muestrame el error con una ventana emergente
+			DialogBuilder.showErrorgDialog("Cargando archivo", null,
+					"Error al cargar el archivo: " + task.getException().getMessage());
+		});
+		runInBackground(task);
+	}
+
+	/**
+	 * Importa varios archivos en paralelo y los junta en la tabla. El resultado no es ningun archivo,
+	 * asi que no hay diario hasta que se guarde.
+	 * 
+	 * @param files List<File>
+	 */
+	private void importFiles(List<File> files) {
+		Optional<MergeKey> mergeKey = DialogBuilder.showChoiceDialog("Importar " + files.size() + " archivos", null,
+				"Duplicados:", MergeKey.NAME, Arrays.asList(MergeKey.values()));
+		if (!mergeKey.isPresent()) {
+			return;
 		}
+		discardJournal();
+		ImportProductsTask task = new ImportProductsTask(files, mergeKey.get());
+		task.setOnSucceeded(event -> {
+			// La lista importada empieza sin historial
+			history.clear();
+			products.setAll(task.getValue());
+			DialogBuilder.showInformationDialog("Importar archivos", null, task.getSummary());
+		});
+		task.setOnFailed(event -> DialogBuilder.showErrorgDialog("Importar archivos", null,
+				"Error al importar: " + task.getException().getMessage()));
+		runInBackground(task);
 	}
 
 	/**
@@ -479,52 +1194,302 @@ public class MainView extends Application {
 	 * @param fileChooser FileChooser
 	 */
 
-	// Este evento se hace en dos etapas
-	// Una vez guardamos el archivo, posteriormente nos indica el sitio donde queremos guardar las imagenes. 
-	// Esto se puede mejorar, pero no supe hacerlo de otra manera que seguro existe
-	// En nuevas actualizaciones se intentará optimizar dichas funciones 
+	// Este evento se hace en dos etapas, las dos en segundo plano:
+	// primero se guardan las imagenes en el almacen pictures/ junto al archivo y despues se escribe el xml.
 	private void saveFile(Stage stage, FileChooser fileChooser) {
 		// https://www.programcreek.com/java-api-examples/?class=javafx.stage.FileChooser&method=showSaveDialog
-		// Método que utilice para llamar a la imagen
 		File file = fileChooser.showSaveDialog(stage);
 		if (file != null) {
-			//Primero, guardamos las imagenes de manera interna
-			// Para cada producto
-			products.forEach(product -> {
-				// Origen
-				File source = new File(product.getFilePath());
-				// Destino
-				// Pictures es como tengo yo definidio mi path en Ubuntu para que fuese correctamente. En Windows imagenes o images
-				File destination = new File("pictures/", source.getNombre());
-				if(!destination.exists()) {
-					// https://docs.oracle.com/javase/8/javafx/api/javafx/stage/DirectoryChooser.html desde Java FX
-					DirectoryChooser dirChooser = new DirectoryChooser();
-					dirChooser.setTitle("Selecciona un directorio para guardar las imagenes...");
-					dirChooser.setInitialDirectory(new File(System.getProperty("user.home")));
-					destination = dirChooser.showDialog(stage);
-					destination = new File(destination.getPath(), source.getNombre());
+			saveFile(file);
+		}
+	}
+
+	/**
+	 * Guarda la lista en el archivo. Si el diario del documento se esta compactando, el guardado
+	 * empieza cuando termine la compactacion.
+	 * 
+	 * @param file File
+	 */
+	private void saveFile(File file) {
+		// Sobre el mismo documento es una compactacion. Si es otro archivo, el diario actual sigue hasta que
+		// el archivo nuevo este guardado, y mientras tanto lo que se edite va a los dos diarios
+		boolean saveAs = journal == null || !file.getAbsoluteFile().equals(currentFile.getAbsoluteFile());
+		if (!saveAs && journal.isCompacting()) {
+			afterCompaction = () -> saveFile(file);
+			return;
+		}
+		ChangeJournal compacted = saveAs ? ChangeJournal.prepare(file) : journal;
+		SaveProductsTask task = saveDocument(compacted, file, SAVE_BACKUPS);
+		if (task == null) {
+			return;
+		}
+		if (saveAs) {
+			saveAsJournal = compacted;
+		}
+		task.setOnSucceeded(event -> {
+			finishSave(task, compacted, true);
+			ImageExporter exporter = task.getImageExporter();
+			if (!exporter.getErrors().isEmpty()) {
+				DialogBuilder.showErrorgDialog("Guardando las imagenes", null,
+						"Error mientras guardamos las imagenes:\n" + String.join("\n", exporter.getErrors()));
+			}
+			DialogBuilder.showInformationDialog("Guarda los archivos", null,
+					"Archivo guardado\n" + exporter.getSummary());
+		});
+		task.setOnFailed(event -> {
+			finishSave(task, compacted, false);
+			// lanza error
+			DialogBuilder.showErrorgDialog("Guarda el archivo", null,
+					"Error al guardar: " + task.getException().getMessage());
+		});
+		task.setOnCancelled(event -> finishSave(task, compacted, false));
+		runInBackground(task);
+	}
+
+	/**
+	 * Prepara el guardado entero de la lista: la copia y empieza la compactacion del diario.
+	 * El que la llama pone los manejadores y lanza la tarea, que siempre debe terminar con finishSave().
+	 * 
+	 * @param compacted ChangeJournal diario del archivo que se guarda
+	 * @param file      File
+	 * @param backups   int copias de la version anterior que se guardan
+	 * @return SaveProductsTask o null si no se ha podido preparar
+	 */
+	private SaveProductsTask saveDocument(ChangeJournal compacted, File file, int backups) {
+		long generation;
+		try {
+			generation = compacted.beginCompaction();
+		} catch (IOException e) {
+			DialogBuilder.showErrorgDialog("Guarda el archivo", null, "Error en el diario de cambios: " + e.getMessage());
+			if (compacted == journal) {
+				closeJournal();
+			}
+			return null;
+		}
+		// La tarea trabaja sobre una copia de la lista, la tabla se puede seguir usando
+		return new SaveProductsTask(products, file, backups, generation,
+				invoiceTotals.getSummary().getTaxRate());
+	}
+
+	/**
+	 * Termina un guardado: aplica los digests de las imagenes y cierra la compactacion del diario.
+	 * Al terminar bien un guardar como, el diario del archivo nuevo sustituye al del documento anterior.
+	 * 
+	 * @param task      SaveProductsTask
+	 * @param compacted ChangeJournal el diario del archivo que se ha guardado
+	 * @param succeeded boolean
+	 */
+	private void finishSave(SaveProductsTask task, ChangeJournal compacted, boolean succeeded) {
+		if (succeeded) {
+			// Los digests nuevos se aplican desde el hilo de JavaFX
+			imageStore = task.getImageStore();
+			task.getValue().forEach((product, digest) -> {
+				product.setImageDigest(digest);
+				product.setFilePath(imageStore.resolve(digest).toString());
+			});
+		}
+		boolean saveAs = compacted == saveAsJournal;
+		if (saveAs) {
+			saveAsJournal = null;
+			if (succeeded) {
+				discardJournal();
+				journal = compacted;
+				currentFile = task.getFile();
+				preferences.put(LAST_DOCUMENT_KEY, currentFile.getAbsolutePath());
+			}
+		}
+		// Si mientras tanto se ha abierto otro documento, este diario ya no se usa
+		if (saveAs || compacted == journal) {
+			try {
+				compacted.endCompaction(succeeded);
+			} catch (IOException e) {
+				DialogBuilder.showErrorgDialog("Autoguardado", null, "Error en el diario de cambios: " + e.getMessage());
+				if (compacted == journal) {
+					closeJournal();
 				}
-				// try y catch para checkear que todo está correcto
+			}
+		}
+		// Un guardado que esperaba a la compactacion
+		if (afterCompaction != null && (journal == null || !journal.isCompacting())) {
+			Runnable next = afterCompaction;
+			afterCompaction = null;
+			next.run();
+		}
+	}
+
+	/**
+	 * Reescribe el documento en segundo plano y sin avisar, para vaciar el diario
+	 */
+	private void compactJournal() {
+		ChangeJournal compacted = journal;
+		// Sin copias: la compactacion no es un guardado del usuario
+		SaveProductsTask task = saveDocument(compacted, currentFile, 0);
+		if (task == null) {
+			return;
+		}
+		task.setOnSucceeded(event -> finishSave(task, compacted, true));
+		task.setOnFailed(event -> {
+			finishSave(task, compacted, false);
+			DialogBuilder.showErrorgDialog("Autoguardado", null,
+					"Error al compactar el diario de cambios: " + task.getException().getMessage());
+		});
+		task.setOnCancelled(event -> finishSave(task, compacted, false));
+		ioExecutor.execute(task);
+	}
+
+	/**
+	 * Escritura de un cambio en el diario
+	 */
+	private interface JournalWrite {
+		void write(ChangeJournal journal) throws IOException;
+	}
+
+	/**
+	 * Apunta un cambio en el diario del documento, si hay documento, y en el del archivo que se esta
+	 * guardando como. Cuando el diario crece demasiado se compacta.
+	 * 
+	 * @param write JournalWrite
+	 */
+	private void logChange(JournalWrite write) {
+		if (saveAsJournal != null) {
+			try {
+				write.write(saveAsJournal);
+			} catch (IOException e) {
+				// El archivo se guarda igualmente, pero sin diario no pasa a ser el documento
+				DialogBuilder.showErrorgDialog("Autoguardado", null, "Error al escribir el diario de cambios: " + e.getMessage());
 				try {
-					Files.copy(source.toPath(), destination.toPath());
-					product.setFilePath(destination.getAbsolutePath());
-				} catch (IOException e) {
-					DialogBuilder.showErrorgDialog("Guardando las imagenes", null, "Error mientras guardamos la imagen: " + e.getMessage());
-					e.printStackTrace();
+					saveAsJournal.endCompaction(false);
+				} catch (IOException ignored) {
+					// Sus diarios se quedan en disco, el documento no cambia
 				}
-			});
-			// Disponible en nuestra carpeta wrapper > ProductListWrapper.java. Nuevo Objeto ProductListWrapper
-			ProductListWrapper wrapper = new ProductListWrapper();
-			// coge los prodcutos
-			wrapper.setProducts(products);
+				saveAsJournal = null;
+			}
+		}
+		if (journal == null) {
+			return;
+		}
+		try {
+			write.write(journal);
+		} catch (IOException e) {
+			// Sin diario no hay autoguardado, pero la aplicacion sigue funcionando
+			DialogBuilder.showErrorgDialog("Autoguardado", null, "Error al escribir el diario de cambios: " + e.getMessage());
+			closeJournal();
+			return;
+		}
+		if (!journal.isCompacting() && journal.getRecordCount() >= JOURNAL_COMPACT_AFTER) {
+			compactJournal();
+		}
+	}
+
+	/**
+	 * Empieza un diario vacio para el documento y lo recuerda como ultimo documento
+	 * 
+	 * @param file File
+	 */
+	private void startJournal(File file) {
+		discardJournal();
+		try {
+			journal = ChangeJournal.create(file);
+			currentFile = file;
+			preferences.put(LAST_DOCUMENT_KEY, file.getAbsolutePath());
+		} catch (IOException e) {
+			DialogBuilder.showErrorgDialog("Autoguardado", null, "No se puede crear el diario de cambios: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Cierra el diario dejandolo en disco
+	 */
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				DialogBuilder.showErrorgDialog("Autoguardado", null, "Error al cerrar el diario de cambios: " + e.getMessage());
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Cierra el diario y lo borra: sus cambios ya no se van a recuperar
+	 */
+	private void discardJournal() {
+		closeJournal();
+		if (currentFile != null) {
 			try {
-				//XmlFileMager disponible en nuestra carpeta util > XmlFileManager
-				XmlFileManager.saveToXmlFile(wrapper, file);
-				DialogBuilder.showInformationDialog("Guarda los archivos", null, "Archivo guardado");
-			} catch (JAXBException e) {
-				// lanza error
-				DialogBuilder.showErrorgDialog("Guarda el archivo", null, "Error al guardar: " + e.getMessage());
+				ChangeJournal.discard(currentFile);
+			} catch (IOException e) {
+				DialogBuilder.showErrorgDialog("Autoguardado", null, "Error al borrar el diario de cambios: " + e.getMessage());
 			}
+			currentFile = null;
 		}
 	}
+
+	/**
+	 * Al arrancar, si el ultimo documento tiene cambios en el diario, lo carga y los vuelve a aplicar
+	 */
+	private void recoverLastDocument() {
+		String path = preferences.get(LAST_DOCUMENT_KEY, null);
+		if (path == null) {
+			return;
+		}
+		File document = new File(path);
+		if (!document.exists() || !ChangeJournal.hasPendingChanges(document)) {
+			return;
+		}
+		ButtonType option = DialogBuilder.showSimpleConfirmDialog("Recuperar cambios", null,
+				"Hay cambios sin guardar en " + document.getName() + ". ¿Quieres recuperarlos?");
+		if (option != ButtonType.OK) {
+			try {
+				ChangeJournal.discard(document);
+			} catch (IOException e) {
+				DialogBuilder.showErrorgDialog("Recuperar cambios", null, "Error al borrar el diario de cambios: " + e.getMessage());
+			}
+			return;
+		}
+		List<Product> recovered = new ArrayList<>();
+		LoadProductsTask task = new LoadProductsTask(document, LOAD_BATCH_SIZE, recovered::addAll);
+		task.setOnSucceeded(event -> {
+			try {
+				ChangeJournal.replay(document, recovered);
+				// Lo que hubiera en el historial es de otra lista
+				history.clear();
+				products.setAll(recovered);
+				currentFile = document;
+				// El diario sigue: sus cambios aun no estan en el archivo
+				journal = ChangeJournal.resume(document);
+			} catch (IOException | RuntimeException e) {
+				DialogBuilder.showErrorgDialog("Recuperar cambios", null, "Error al recuperar los cambios: " + e.getMessage());
+			}
+		});
+		task.setOnFailed(event -> DialogBuilder.showErrorgDialog("Recuperar cambios", null,
+				"Error al cargar el archivo: " + task.getException().getMessage()));
+		runInBackground(task);
+	}
+
+	/**
+	 * Lanza una tarea de archivo en el executor de entrada/salida. Mientras dura se enseña
+	 * la barra de progreso con el boton de cancelar y se desactivan los menus de archivo y de editar.
+	 * 
+	 * @param task Task<?>
+	 */
+	private void runInBackground(Task<?> task) {
+		progressBar.progressProperty().bind(task.progressProperty());
+		progressLabel.textProperty().bind(task.messageProperty());
+		cancelTaskButton.setOnAction(event -> task.cancel());
+		progressBox.setVisible(true);
+		fileMenu.setDisable(true);
+		editMenu.setDisable(true);
+		task.stateProperty().addListener((observable, oldState, state) -> {
+			if (state == Worker.State.SUCCEEDED || state == Worker.State.FAILED || state == Worker.State.CANCELLED) {
+				progressBar.progressProperty().unbind();
+				progressLabel.textProperty().unbind();
+				progressBox.setVisible(false);
+				fileMenu.setDisable(false);
+				editMenu.setDisable(false);
+			}
+		});
+		ioExecutor.execute(task);
+	}
 }
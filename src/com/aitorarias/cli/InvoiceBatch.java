@@ -0,0 +1,309 @@
+package com.aitorarias.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductColumnStore;
+import com.aitorarias.util.InvoiceSummary;
+import com.aitorarias.util.ProductBinaryFile;
+import com.aitorarias.util.ProductCsvWriter;
+import com.aitorarias.util.ProductValidator;
+import com.aitorarias.util.ProductWriter;
+import com.aitorarias.util.ProductXmlReader;
+import com.aitorarias.util.ProductXmlWriter;
+import com.aitorarias.util.StreamCodec;
+import com.aitorarias.util.StreamCodecs;
+import com.aitorarias.util.XmlFileManager;
+
+/**
+ * Modo por lotes sin pantalla: valida, calcula los totales y convierte todas las facturas de una carpeta.
+ * No arranca JavaFX, asi que se puede usar en un servidor.
+ * 
+ * Uso: InvoiceBatch carpeta [--out carpeta] [--format xml|xbin|csv] [--compress gzip|deflate] [--threads n] [--tax %]
+ * 
+ * Sin --out solo se valida y se calculan los totales. Cada factura se lee en streaming
+ * y se escribe segun se lee; si tiene productos invalidos no se toca el archivo de salida.
+ * --tax es el IVA en tanto por ciento para los totales (21 si no se pone).
+ * Termina con 0 si todas las facturas son validas, 1 si alguna no y 2 si los argumentos estan mal.
+ * 
+ * @author AitorArias
+ *
+ */
+public class InvoiceBatch {
+
+	// Errores que se enseñan como mucho de cada factura
+	private static final int MAX_REPORTED_ERRORS = 10;
+
+	private enum Format {
+		XML(".xml"), XBIN(ProductBinaryFile.EXTENSION), CSV(ProductCsvWriter.EXTENSION);
+
+		private String extension;
+
+		private Format(String extension) {
+			this.extension = extension;
+		}
+
+		ProductWriter openWriter(File file, BigDecimal taxRate) throws Exception {
+			switch (this) {
+			case XBIN:
+				return ProductBinaryFile.openWriter(file);
+			case CSV:
+				return new ProductCsvWriter(file);
+			default:
+				ProductXmlWriter writer = XmlFileManager.openWriter(file, true);
+				writer.setTaxRate(taxRate);
+				return writer;
+			}
+		}
+	}
+
+	private final File outputDir;
+	private final Format format;
+	private final String extension;
+	private final BigDecimal taxRate;
+
+	private InvoiceBatch(File outputDir, Format format, String extension, BigDecimal taxRate) {
+		this.outputDir = outputDir;
+		this.format = format;
+		this.extension = extension;
+		this.taxRate = taxRate;
+	}
+
+	/**
+	 * Empieza el modo por lotes
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		File inputDir = null;
+		File outputDir = null;
+		Format format = Format.XML;
+		StreamCodec codec = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		BigDecimal taxRate = InvoiceSummary.DEFAULT_TAX_RATE;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--out":
+					outputDir = new File(args[++i]);
+					break;
+				case "--format":
+					format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+					break;
+				case "--compress":
+					codec = StreamCodecs.forName(args[++i]);
+					if (codec == null) {
+						throw new IllegalArgumentException("Compresion desconocida: " + args[i]);
+					}
+					break;
+				case "--threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "--tax":
+					taxRate = new BigDecimal(args[++i]).movePointLeft(2);
+					if (taxRate.signum() < 0) {
+						throw new IllegalArgumentException("--tax no puede ser negativo");
+					}
+					break;
+				default:
+					if (args[i].startsWith("--") || inputDir != null) {
+						throw new IllegalArgumentException("Argumento desconocido: " + args[i]);
+					}
+					inputDir = new File(args[i]);
+					break;
+				}
+			}
+			if (inputDir == null || !inputDir.isDirectory()) {
+				throw new IllegalArgumentException("Falta la carpeta de facturas");
+			}
+			if (codec != null && format == Format.XBIN) {
+				throw new IllegalArgumentException("El formato binario no se puede comprimir");
+			}
+			if (threads < 1) {
+				throw new IllegalArgumentException("--threads debe ser al menos 1");
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println(e.getMessage() == null ? "Faltan argumentos" : e.getMessage());
+			System.err.println(
+					"Uso: InvoiceBatch carpeta [--out carpeta] [--format xml|xbin|csv] [--compress gzip|deflate] [--threads n] [--tax %]");
+			System.exit(2);
+			return;
+		}
+		if (outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("No se puede crear la carpeta " + outputDir);
+			System.exit(2);
+			return;
+		}
+		String extension = format.extension + (codec == null ? "" : codec.getExtension());
+		System.exit(new InvoiceBatch(outputDir, format, extension, taxRate).run(inputDir, threads) ? 0 : 1);
+	}
+
+	/**
+	 * Procesa todas las facturas de la carpeta, una por hilo, y escribe el resultado de cada una en el orden de la carpeta
+	 * 
+	 * @param inputDir File
+	 * @param threads  int
+	 * @return true si todas son validas
+	 */
+	private boolean run(File inputDir, int threads) {
+		File[] files = inputDir.listFiles(file -> file.isFile() && isInvoiceFile(file));
+		if (files == null || files.length == 0) {
+			System.err.println("No hay facturas en " + inputDir);
+			return true;
+		}
+		Arrays.sort(files);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> results = new ArrayList<>(files.length);
+		for (File file : files) {
+			results.add(executor.submit(() -> process(file)));
+		}
+		executor.shutdown();
+		boolean allValid = true;
+		for (int i = 0; i < files.length; i++) {
+			try {
+				Result result = results.get(i).get();
+				System.out.println(result.totals);
+				if (result.errors != null) {
+					allValid = false;
+					System.err.println(result.errors);
+				}
+			} catch (ExecutionException e) {
+				allValid = false;
+				System.err.println(files[i].getName() + ": error, " + e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				return false;
+			}
+		}
+		System.out.println(files.length + " facturas procesadas");
+		return allValid;
+	}
+
+	private static boolean isInvoiceFile(File file) {
+		// factura.xml.gz tambien es una factura
+		String name = StreamCodecs.stripExtension(file.getName()).toLowerCase(Locale.ROOT);
+		return name.endsWith(".xml") || name.endsWith(ProductBinaryFile.EXTENSION);
+	}
+
+	/**
+	 * Lo que se enseña de cada factura
+	 */
+	private static class Result {
+
+		private final String totals;
+		// null si la factura es valida
+		private final String errors;
+
+		Result(String totals, String errors) {
+			this.totals = totals;
+			this.errors = errors;
+		}
+	}
+
+	/**
+	 * Valida, suma y convierte una factura
+	 * 
+	 * @param file File
+	 * @return Result
+	 * @throws Exception
+	 */
+	private Result process(File file) throws Exception {
+		File output = outputDir == null ? null : new File(outputDir, baseName(file) + extension);
+		if (output != null && output.getCanonicalFile().equals(file.getCanonicalFile())) {
+			throw new IOException("la salida seria el mismo archivo");
+		}
+		InvoiceSummary summary = new InvoiceSummary(taxRate);
+		StringBuilder errors = new StringBuilder();
+		int invalid = 0;
+		boolean completed = false;
+		ProductWriter writer = output == null ? null : format.openWriter(output, taxRate);
+		try (ProductSource source = ProductSource.open(file)) {
+			Product product;
+			while ((product = source.next()) != null) {
+				String error = ProductValidator.validate(product);
+				if (error != null) {
+					if (invalid++ < MAX_REPORTED_ERRORS) {
+						errors.append("\n  producto ").append(summary.getLines() + invalid).append(": ").append(error);
+					}
+					continue;
+				}
+				summary.addLine(product.getCantidad(), product.getUnitPrice());
+				if (writer != null) {
+					writer.write(product);
+				}
+			}
+			completed = true;
+		} finally {
+			if (writer != null) {
+				// Una factura invalida o a medias no se convierte
+				if (completed && invalid == 0) {
+					writer.close();
+				} else {
+					writer.abort();
+				}
+			}
+		}
+		String totals = file.getName() + ": " + summary.getLines() + " productos, " + summary.getItems()
+				+ " unidades, subtotal " + summary.getSubtotal().toPlainString() + ", total "
+				+ summary.getTotal().toPlainString();
+		return new Result(totals, invalid == 0 ? null : file.getName() + ": " + invalid + " productos invalidos" + errors);
+	}
+
+	private static String baseName(File file) {
+		String name = StreamCodecs.stripExtension(file.getName());
+		int dot = name.lastIndexOf('.');
+		return dot < 0 ? name : name.substring(0, dot);
+	}
+
+	/**
+	 * Lee los productos de una factura de uno en uno, sea xml o binaria
+	 */
+	private static abstract class ProductSource implements AutoCloseable {
+
+		abstract Product next() throws Exception;
+
+		@Override
+		public abstract void close() throws IOException;
+
+		static ProductSource open(File file) throws Exception {
+			if (ProductBinaryFile.isBinaryFile(file)) {
+				ProductColumnStore store = ProductBinaryFile.read(file);
+				return new ProductSource() {
+					private int index;
+
+					@Override
+					Product next() {
+						return index < store.size() ? store.get(index++) : null;
+					}
+
+					@Override
+					public void close() {
+					}
+				};
+			}
+			ProductXmlReader reader = XmlFileManager.openReader(file);
+			return new ProductSource() {
+				@Override
+				Product next() throws Exception {
+					return reader.readNext();
+				}
+
+				@Override
+				public void close() throws IOException {
+					reader.close();
+				}
+			};
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package com.aitorarias.entity;
 
+import java.util.Arrays;
+import java.util.Objects;
+
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleDoubleProperty;
@@ -10,6 +13,12 @@ import javafx.beans.property.StringProperty;
 /**
  * Clase para almacenar datos desde un producto. 
  * 
+ * Los valores se guardan en campos normales y las propiedades de JavaFX solo se crean
+ * la primera vez que alguien las pide (por ejemplo la tabla para las filas visibles),
+ * asi un producto que nunca se enseña no paga el coste de cinco propiedades.
+ * Quien solo necesita enterarse de los cambios (totales, buscador) usa un ProductListener,
+ * que no crea ninguna propiedad.
+ * 
  * @author AitorArias
  *
  */
@@ -17,10 +26,19 @@ import javafx.beans.property.StringProperty;
  // Clase principal
 public class Product {
 
-	private final StringProperty nombre; // nombre del producto
-	private final IntegerProperty cantidad; // cantidad
-	private final DoubleProperty precio; // precio
-	private final StringProperty filePath; // path del archivo
+	private String nombre; // nombre del producto
+	private int cantidad; // cantidad
+	private double precio; // precio
+	private String filePath; // path del archivo
+	private String imageDigest; // digest de la imagen en el ImageStore
+	// Propiedades de JavaFX, null hasta que se piden
+	private StringProperty nombreProperty;
+	private IntegerProperty cantidadProperty;
+	private DoubleProperty precioProperty;
+	private StringProperty filePathProperty;
+	private StringProperty imageDigestProperty;
+	// Listeners de cambios de valor, null si no hay ninguno
+	private ProductListener[] listeners;
 
 	/**
 	 * Constructor por defecto
@@ -38,67 +56,171 @@ public class Product {
 	 * @param filePath  String
 	 */
 	public Product(String nombre, int cantidad, double precio, String filePath) {
-		this.nombre = new SimpleStringProperty(nombre);
-		this.cantidad = new SimpleIntegerProperty(cantidad);
-		this.precio = new SimpleDoubleProperty(precio);
-		this.filePath = new SimpleStringProperty(filePath);
+		this.nombre = nombre;
+		this.cantidad = cantidad;
+		this.precio = precio;
+		this.filePath = filePath;
 	}
 
-	// Getters & Setters
+	// Getters & Setters. Si la propiedad ya existe, el valor vive en ella
 
 	public String getName() {
-		return nombre.get();
+		return nombreProperty != null ? nombreProperty.get() : nombre;
 	}
 
 	public void setName(String nombre) {
-		this.nombre.set(nombre);
+		String oldName = getName();
+		if (nombreProperty != null) {
+			nombreProperty.set(nombre);
+		} else {
+			this.nombre = nombre;
+		}
+		if (listeners != null && !Objects.equals(oldName, nombre)) {
+			for (ProductListener listener : listeners) {
+				listener.nameChanged(this, oldName);
+			}
+		}
 	}
 
 	public StringProperty getNameProperty() {
-		return nombre;
+		if (nombreProperty == null) {
+			nombreProperty = new SimpleStringProperty(this, "nombre", nombre);
+		}
+		return nombreProperty;
 	}
 
 	public int getCantidad() {
-		return cantidad.get();
+		return cantidadProperty != null ? cantidadProperty.get() : cantidad;
 	}
 
 	public void setCantidad(int cantidad) {
-		this.cantidad.set(cantidad);
+		int oldCantidad = getCantidad();
+		if (cantidadProperty != null) {
+			cantidadProperty.set(cantidad);
+		} else {
+			this.cantidad = cantidad;
+		}
+		if (listeners != null && oldCantidad != cantidad) {
+			for (ProductListener listener : listeners) {
+				listener.cantidadChanged(this, oldCantidad);
+			}
+		}
 	}
 
 	public IntegerProperty getCantidadProperty() {
-		return cantidad;
+		if (cantidadProperty == null) {
+			cantidadProperty = new SimpleIntegerProperty(this, "cantidad", cantidad);
+		}
+		return cantidadProperty;
 	}
 
 	public double getUnitPrice() {
-		return precio.get();
+		return precioProperty != null ? precioProperty.get() : precio;
 	}
 
 	public void setUnitPrice(double precio) {
-		this.precio.set(precio);
+		double oldPrecio = getUnitPrice();
+		if (precioProperty != null) {
+			precioProperty.set(precio);
+		} else {
+			this.precio = precio;
+		}
+		if (listeners != null && Double.compare(oldPrecio, precio) != 0) {
+			for (ProductListener listener : listeners) {
+				listener.precioChanged(this, oldPrecio);
+			}
+		}
 	}
 
 	public DoubleProperty getUnitPriceProperty() {
-		return precio;
+		if (precioProperty == null) {
+			precioProperty = new SimpleDoubleProperty(this, "precio", precio);
+		}
+		return precioProperty;
 	}
 
 	public String getFilePath() {
-		return filePath.get();
+		return filePathProperty != null ? filePathProperty.get() : filePath;
 	}
 
 	public void setFilePath(String filePath) {
-		this.filePath.set(filePath);
+		if (filePathProperty != null) {
+			filePathProperty.set(filePath);
+		} else {
+			this.filePath = filePath;
+		}
 	}
 
 	public StringProperty getFilePathProperty() {
-		return filePath;
+		if (filePathProperty == null) {
+			filePathProperty = new SimpleStringProperty(this, "filePath", filePath);
+		}
+		return filePathProperty;
+	}
+
+	public String getImageDigest() {
+		return imageDigestProperty != null ? imageDigestProperty.get() : imageDigest;
+	}
+
+	public void setImageDigest(String imageDigest) {
+		if (imageDigestProperty != null) {
+			imageDigestProperty.set(imageDigest);
+		} else {
+			this.imageDigest = imageDigest;
+		}
+	}
+
+	public StringProperty getImageDigestProperty() {
+		if (imageDigestProperty == null) {
+			imageDigestProperty = new SimpleStringProperty(this, "imageDigest", imageDigest);
+		}
+		return imageDigestProperty;
+	}
+	/**
+	 * Añade un listener de cambios de valor. Los cambios se avisan desde los setters, asi que
+	 * el valor hay que cambiarlo con ellos y no con las propiedades.
+	 * 
+	 * @param listener ProductListener
+	 */
+	public void addListener(ProductListener listener) {
+		if (listeners == null) {
+			listeners = new ProductListener[] { listener };
+		} else {
+			listeners = Arrays.copyOf(listeners, listeners.length + 1);
+			listeners[listeners.length - 1] = listener;
+		}
 	}
+
+	/**
+	 * Quita un listener de cambios de valor
+	 * 
+	 * @param listener ProductListener
+	 */
+	public void removeListener(ProductListener listener) {
+		if (listeners == null) {
+			return;
+		}
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				if (listeners.length == 1) {
+					listeners = null;
+				} else {
+					ProductListener[] kept = new ProductListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, kept, 0, i);
+					System.arraycopy(listeners, i + 1, kept, i, kept.length - i);
+					listeners = kept;
+				}
+				return;
+			}
+		}
+	}
+
 	// Sobreescribo
 	@Override
 	// parseado a String
 	public String toString() {
 		// devuelve todo
-		return "Producto [nombre=" + nombre.get() + ", cantidad=" + cantidad.get() + ", precio=" + precio.get()
-				+ ", filePath=" + filePath.get() + "]";
+		return "Producto [nombre=" + getName() + ", cantidad=" + getCantidad() + ", precio=" + getUnitPrice()
+				+ ", filePath=" + getFilePath() + ", imageDigest=" + getImageDigest() + "]";
 	}
 }
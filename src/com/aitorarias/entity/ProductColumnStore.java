@@ -0,0 +1,170 @@
+package com.aitorarias.entity;
+
+import java.util.Arrays;
+
+import com.aitorarias.util.StringPool;
+
+/**
+ * Almacen de productos por columnas para catalogos muy grandes. Los numeros van en arrays
+ * de primitivos y las cadenas en un StringPool, sin ningun objeto por fila.
+ * Los Product se crean solo cuando se piden con get(), como vistas de una fila.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductColumnStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final StringPool strings;
+	private int size;
+	private int[] names = new int[INITIAL_CAPACITY];
+	private int[] cantidades = new int[INITIAL_CAPACITY];
+	private double[] precios = new double[INITIAL_CAPACITY];
+	private int[] filePaths = new int[INITIAL_CAPACITY];
+	private int[] imageDigests = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Constructor por defecto
+	 */
+	public ProductColumnStore() {
+		this(new StringPool());
+	}
+
+	/**
+	 * Constructor con una tabla de cadenas ya existente (por ejemplo la de un archivo binario)
+	 * 
+	 * @param strings StringPool
+	 */
+	public ProductColumnStore(StringPool strings) {
+		this.strings = strings;
+	}
+
+	/**
+	 * Numero de productos
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Añade los valores de un producto al final
+	 * 
+	 * @param product Product
+	 */
+	public void add(Product product) {
+		add(product.getName(), product.getCantidad(), product.getUnitPrice(), product.getFilePath(),
+				product.getImageDigest());
+	}
+
+	/**
+	 * Añade un producto al final
+	 * 
+	 * @param nombre      String
+	 * @param cantidad    int
+	 * @param precio      double
+	 * @param filePath    String
+	 * @param imageDigest String
+	 */
+	public void add(String nombre, int cantidad, double precio, String filePath, String imageDigest) {
+		addIndexes(strings.intern(nombre), cantidad, precio, strings.intern(filePath), strings.intern(imageDigest));
+	}
+
+	/**
+	 * Añade un producto cuyas cadenas ya estan en la tabla de cadenas
+	 * 
+	 * @param nombreIndex      int
+	 * @param cantidad         int
+	 * @param precio           double
+	 * @param filePathIndex    int
+	 * @param imageDigestIndex int
+	 */
+	public void addIndexes(int nombreIndex, int cantidad, double precio, int filePathIndex, int imageDigestIndex) {
+		ensureCapacity(size + 1);
+		names[size] = nombreIndex;
+		cantidades[size] = cantidad;
+		precios[size] = precio;
+		filePaths[size] = filePathIndex;
+		imageDigests[size] = imageDigestIndex;
+		size++;
+	}
+
+	/**
+	 * Sobreescribe la fila con los valores del producto
+	 * 
+	 * @param index   int
+	 * @param product Product
+	 */
+	public void set(int index, Product product) {
+		checkIndex(index);
+		names[index] = strings.intern(product.getName());
+		cantidades[index] = product.getCantidad();
+		precios[index] = product.getUnitPrice();
+		filePaths[index] = strings.intern(product.getFilePath());
+		imageDigests[index] = strings.intern(product.getImageDigest());
+	}
+
+	/**
+	 * Crea un Product con los valores de la fila. Es una copia: cambiarlo no cambia el almacen,
+	 * para eso esta set().
+	 * 
+	 * @param index int
+	 * @return Product
+	 */
+	public Product get(int index) {
+		checkIndex(index);
+		Product product = new Product(strings.get(names[index]), cantidades[index], precios[index],
+				strings.get(filePaths[index]));
+		product.setImageDigest(strings.get(imageDigests[index]));
+		return product;
+	}
+
+	public String getName(int index) {
+		checkIndex(index);
+		return strings.get(names[index]);
+	}
+
+	public int getCantidad(int index) {
+		checkIndex(index);
+		return cantidades[index];
+	}
+
+	public double getUnitPrice(int index) {
+		checkIndex(index);
+		return precios[index];
+	}
+
+	public String getFilePath(int index) {
+		checkIndex(index);
+		return strings.get(filePaths[index]);
+	}
+
+	public String getImageDigest(int index) {
+		checkIndex(index);
+		return strings.get(imageDigests[index]);
+	}
+
+	public StringPool getStrings() {
+		return strings;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Indice: " + index + ", tamaño: " + size);
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= names.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, names.length + (names.length >> 1));
+		names = Arrays.copyOf(names, newCapacity);
+		cantidades = Arrays.copyOf(cantidades, newCapacity);
+		precios = Arrays.copyOf(precios, newCapacity);
+		filePaths = Arrays.copyOf(filePaths, newCapacity);
+		imageDigests = Arrays.copyOf(imageDigests, newCapacity);
+	}
+}
@@ -0,0 +1,35 @@
+package com.aitorarias.entity;
+
+/**
+ * Escucha los cambios de valor de un producto sin pedirle sus propiedades de JavaFX,
+ * que el producto solo crea cuando alguien las enseña.
+ *
+ * @author AitorArias
+ *
+ */
+public interface ProductListener {
+
+	/**
+	 * Ha cambiado el nombre
+	 *
+	 * @param product Product
+	 * @param oldName String
+	 */
+	void nameChanged(Product product, String oldName);
+
+	/**
+	 * Ha cambiado la cantidad
+	 *
+	 * @param product     Product
+	 * @param oldCantidad int
+	 */
+	void cantidadChanged(Product product, int oldCantidad);
+
+	/**
+	 * Ha cambiado el precio
+	 *
+	 * @param product   Product
+	 * @param oldPrecio double
+	 */
+	void precioChanged(Product product, double oldPrecio);
+}
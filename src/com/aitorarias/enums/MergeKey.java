@@ -0,0 +1,45 @@
+// Clave para quitar duplicados al juntar varios archivos
+package com.aitorarias.enums;
+
+import java.util.Arrays;
+
+import com.aitorarias.entity.Product;
+
+public enum MergeKey {
+	// 1. NO QUITAR DUPLICADOS
+	// 2. MISMO NOMBRE
+	// 3. MISMO NOMBRE Y PRECIO
+	NONE("Sin quitar duplicados"),
+	NAME("Mismo nombre"),
+	NAME_AND_PRICE("Mismo nombre y precio");
+
+	private String description;
+
+	private MergeKey(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * Clave del producto para esta opcion. Dos productos con la misma clave son duplicados.
+	 * Con NONE devuelve null: ningun producto se considera duplicado.
+	 * 
+	 * @param product Product
+	 * @return Object
+	 */
+	public Object keyOf(Product product) {
+		switch (this) {
+		case NAME:
+			return product.getName();
+		case NAME_AND_PRICE:
+			return Arrays.asList(product.getName(), product.getUnitPrice());
+		default:
+			return null;
+		}
+	}
+
+	// Lo que se enseña en el dialogo de elegir
+	@Override
+	public String toString() {
+		return description;
+	}
+}
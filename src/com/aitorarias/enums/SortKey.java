@@ -0,0 +1,69 @@
+// Columna por la que se ordena la tabla de productos
+package com.aitorarias.enums;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+
+import com.aitorarias.entity.Product;
+
+public enum SortKey {
+	// 1. SIN ORDENAR (orden de la factura)
+	// 2. NOMBRE
+	// 3. CANTIDAD
+	// 4. PRECIO
+	NONE,
+	NAME,
+	CANTIDAD,
+	PRECIO;
+
+	// Orden alfabetico en español, como el resto de la aplicacion: la "ñ" es una letra despues de la "n"
+	// y "Árbol" va junto a "arbol", no detras de la "z". Con la descomposicion canonica una "é" escrita
+	// como "e" mas tilde es la misma letra.
+	private static final Collator NAME_COLLATOR = Collator.getInstance(new Locale("es", "ES"));
+
+	static {
+		NAME_COLLATOR.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+	}
+
+	/**
+	 * Compara dos productos por esta columna, con los valores primitivos del producto (sin Integer ni Double)
+	 * 
+	 * @param a Product
+	 * @param b Product
+	 * @return int como Comparator.compare
+	 */
+	public int compare(Product a, Product b) {
+		switch (this) {
+		case NAME:
+			return NAME_COLLATOR.compare(nameOf(a), nameOf(b));
+		case CANTIDAD:
+			return Integer.compare(a.getCantidad(), b.getCantidad());
+		case PRECIO:
+			return Double.compare(a.getUnitPrice(), b.getUnitPrice());
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Nombre para ordenar: los productos sin nombre van primero
+	 * 
+	 * @param product Product
+	 * @return String
+	 */
+	public static String nameOf(Product product) {
+		return product.getName() == null ? "" : product.getName();
+	}
+
+	/**
+	 * Clave del nombre para ordenar muchos productos: se calcula una vez por producto y comparar
+	 * dos claves da lo mismo que compare() por NAME pero es mucho mas rapido
+	 * 
+	 * @param product Product
+	 * @return CollationKey
+	 */
+	public static CollationKey nameKeyOf(Product product) {
+		return NAME_COLLATOR.getCollationKey(nameOf(product));
+	}
+}
@@ -0,0 +1,101 @@
+package com.aitorarias.task;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.enums.MergeKey;
+import com.aitorarias.util.CatalogMerger;
+import com.aitorarias.util.CatalogMerger.FileResult;
+
+import javafx.concurrent.Task;
+
+/**
+ * Tarea en segundo plano que importa varios archivos a la vez y los junta en una sola lista.
+ * Los archivos se leen en paralelo, uno por nucleo, y se guarda lo que ha tardado cada uno.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ImportProductsTask extends Task<List<Product>> {
+
+	private final List<File> files;
+	private final MergeKey mergeKey;
+	private List<FileResult> results = Collections.emptyList();
+	private long elapsedNanos;
+	private int duplicates;
+
+	/**
+	 * Constructor usando los campos
+	 * 
+	 * @param files    List<File>
+	 * @param mergeKey MergeKey
+	 */
+	public ImportProductsTask(List<File> files, MergeKey mergeKey) {
+		this.files = files;
+		this.mergeKey = mergeKey;
+	}
+
+	/**
+	 * Devuelve la lista ya junta y sin duplicados
+	 */
+	@Override
+	protected List<Product> call() throws Exception {
+		updateMessage("Importando " + files.size() + " archivos...");
+		long start = System.nanoTime();
+		AtomicInteger parsed = new AtomicInteger();
+		ForkJoinPool pool = new ForkJoinPool(Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			results = CatalogMerger.parseAll(files, pool, result -> {
+				int done = parsed.incrementAndGet();
+				updateProgress(done, files.size());
+				updateMessage("Importados " + done + " de " + files.size() + " archivos");
+			});
+		} finally {
+			pool.shutdownNow();
+		}
+		if (isCancelled()) {
+			return Collections.emptyList();
+		}
+		List<Product> merged = CatalogMerger.merge(results, mergeKey);
+		int total = 0;
+		for (FileResult result : results) {
+			total += result.getProducts().size();
+		}
+		duplicates = total - merged.size();
+		elapsedNanos = System.nanoTime() - start;
+		return merged;
+	}
+
+	public List<FileResult> getResults() {
+		return results;
+	}
+
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Resumen para enseñar al usuario: tiempo de cada archivo, tiempo total y duplicados quitados.
+	 * La suma de los tiempos entre el tiempo total da cuanto se ha ganado leyendo en paralelo.
+	 * 
+	 * @return String
+	 */
+	public String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		long parseMillis = 0;
+		for (FileResult result : results) {
+			summary.append(result).append('\n');
+			parseMillis += result.getMillis();
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		summary.append("Total: ").append(elapsedMillis).append(" ms (suma de archivos: ").append(parseMillis)
+				.append(" ms)\n");
+		summary.append("Duplicados quitados: ").append(duplicates);
+		return summary.toString();
+	}
+}
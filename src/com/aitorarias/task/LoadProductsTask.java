@@ -0,0 +1,132 @@
+package com.aitorarias.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductColumnStore;
+import com.aitorarias.util.ProductBinaryFile;
+import com.aitorarias.util.ProductXmlReader;
+import com.aitorarias.util.ProductXmlShards;
+import com.aitorarias.util.StreamCodecs;
+import com.aitorarias.util.XmlFileManager;
+
+import javafx.concurrent.Task;
+
+/**
+ * Tarea en segundo plano que importa un archivo de productos (.xml o binario). Lee el archivo por lotes
+ * y entrega cada lote al publisher, informando del progreso por bytes leidos.
+ * Se puede cancelar entre lote y lote.
+ * 
+ * @author AitorArias
+ *
+ */
+public class LoadProductsTask extends Task<Integer> {
+
+	// A partir de este tamaño un .xml se parsea por trozos en varios hilos
+	private static final long PARALLEL_THRESHOLD = 64L * 1024 * 1024;
+	// Trozos por hilo: con trozos mas pequeños los hilos acaban a la vez aunque unos trozos cuesten mas
+	private static final int SHARDS_PER_THREAD = 4;
+
+	private final File file;
+	private final int batchSize;
+	private final Consumer<List<Product>> publisher;
+
+	/**
+	 * Constructor usando los campos
+	 * 
+	 * @param file      File
+	 * @param batchSize int
+	 * @param publisher Consumer<List<Product>> se llama desde el hilo de la tarea, NO desde el de JavaFX
+	 */
+	public LoadProductsTask(File file, int batchSize, Consumer<List<Product>> publisher) {
+		this.file = file;
+		this.batchSize = batchSize;
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Devuelve el numero de productos cargados
+	 */
+	@Override
+	protected Integer call() throws Exception {
+		updateMessage("Cargando " + file.getName() + "...");
+		if (ProductBinaryFile.isBinaryFile(file)) {
+			return loadBinary();
+		}
+		long totalBytes = file.length();
+		int threads = Runtime.getRuntime().availableProcessors();
+		// Un archivo comprimido no se puede partir: hay que descomprimirlo desde el principio
+		if (totalBytes >= PARALLEL_THRESHOLD && threads > 1 && StreamCodecs.detect(file) == null) {
+			return loadParallel(threads);
+		}
+		int count = 0;
+		try (ProductXmlReader reader = XmlFileManager.openReader(file)) {
+			List<Product> batch;
+			while (!isCancelled() && !(batch = reader.readBatch(batchSize)).isEmpty()) {
+				count += batch.size();
+				publisher.accept(batch);
+				updateProgress(reader.getBytesRead(), totalBytes);
+				updateMessage("Cargados " + count + " productos");
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Carga un .xml grande por trozos en varios hilos. Los trozos se publican en el orden del documento
+	 * segun van estando listos, asi la tabla se va llenando igual que al leerlo con un solo hilo.
+	 * 
+	 * @param threads int
+	 * @return Integer
+	 * @throws Exception
+	 */
+	private Integer loadParallel(int threads) throws Exception {
+		long[] boundaries = ProductXmlShards.findBoundaries(file, threads * SHARDS_PER_THREAD);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		int count = 0;
+		try {
+			List<Future<List<Product>>> shards = ProductXmlShards.submit(file, boundaries, pool);
+			for (int i = 0; i < shards.size() && !isCancelled(); i++) {
+				List<Product> shard = XmlFileManager.getShard(shards.get(i));
+				for (int start = 0; start < shard.size(); start += batchSize) {
+					publisher.accept(new ArrayList<>(shard.subList(start, Math.min(shard.size(), start + batchSize))));
+				}
+				count += shard.size();
+				updateProgress(i + 1, shards.size());
+				updateMessage("Cargados " + count + " productos");
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return count;
+	}
+
+	/**
+	 * Carga un archivo binario: se lee entero de golpe (es muy rapido) y luego se publica por lotes
+	 * 
+	 * @return Integer
+	 * @throws IOException
+	 */
+	private Integer loadBinary() throws IOException {
+		ProductColumnStore store = ProductBinaryFile.read(file);
+		int count = 0;
+		while (!isCancelled() && count < store.size()) {
+			int end = Math.min(store.size(), count + batchSize);
+			List<Product> batch = new ArrayList<>(end - count);
+			for (int i = count; i < end; i++) {
+				batch.add(store.get(i));
+			}
+			publisher.accept(batch);
+			count = end;
+			updateProgress(count, store.size());
+			updateMessage("Cargados " + count + " productos");
+		}
+		return count;
+	}
+}
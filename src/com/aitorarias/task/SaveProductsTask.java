@@ -0,0 +1,192 @@
+package com.aitorarias.task;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.util.ImageExporter;
+import com.aitorarias.util.ImageStore;
+import com.aitorarias.util.InvoiceSummary;
+import com.aitorarias.util.ProductBinaryFile;
+import com.aitorarias.util.ProductWriter;
+import com.aitorarias.util.ProductXmlWriter;
+import com.aitorarias.util.XmlFileManager;
+
+import javafx.concurrent.Task;
+
+/**
+ * Tarea en segundo plano que guarda los productos: mete sus imagenes en el ImageStore
+ * (directorio pictures/ junto al archivo) y escribe el .xml, o el binario si el archivo es .xbin.
+ * Un .xml.gz se guarda comprimido. El archivo solo se cambia al terminar bien: si se cancela o falla queda como estaba.
+ * Devuelve el digest de la imagen de cada producto que lo ha cambiado para que se aplique
+ * a los productos desde el hilo de JavaFX.
+ * 
+ * Los valores de los productos se copian al crear la tarea, en el hilo de JavaFX: la tabla los puede
+ * seguir cambiando mientras se guarda y el hilo de la tarea nunca lee un producto de la lista.
+ * 
+ * @author AitorArias
+ *
+ */
+public class SaveProductsTask extends Task<Map<Product, String>> {
+
+	// Pictures es como tengo yo definidio mi path en Ubuntu para que fuese correctamente. En Windows imagenes o images
+	private static final String PICTURES_DIRECTORY = "pictures";
+
+	// Los productos solo para devolver sus digests; lo que se escribe es la copia de sus valores
+	private final Product[] products;
+	private final String[] names;
+	private final int[] cantidades;
+	private final double[] precios;
+	private final String[] filePaths;
+	private final String[] imageDigests;
+	private final File file;
+	private final int backups;
+	private final long generation;
+	private final BigDecimal taxRate;
+	private ImageStore imageStore;
+	private ImageExporter imageExporter;
+
+	/**
+	 * Constructor usando los campos
+	 * 
+	 * @param products List<Product> se copian sus valores, la tarea se crea en el hilo de JavaFX
+	 * @param file     File
+	 */
+	public SaveProductsTask(List<Product> products, File file) {
+		this(products, file, 0);
+	}
+
+	/**
+	 * Constructor guardando copias de las versiones anteriores del archivo
+	 * 
+	 * @param products List<Product> se copian sus valores, la tarea se crea en el hilo de JavaFX
+	 * @param file     File
+	 * @param backups  int copias que se guardan (archivo.bak1, archivo.bak2...)
+	 */
+	public SaveProductsTask(List<Product> products, File file, int backups) {
+		this(products, file, backups, 0, InvoiceSummary.DEFAULT_TAX_RATE);
+	}
+
+	/**
+	 * Constructor para guardar un documento con diario de cambios
+	 * 
+	 * @param products   List<Product> se copian sus valores, la tarea se crea en el hilo de JavaFX
+	 * @param file       File
+	 * @param backups    int copias que se guardan (archivo.bak1, archivo.bak2...)
+	 * @param generation long generacion que se escribe en el documento (ver ChangeJournal)
+	 * @param taxRate    BigDecimal tipo de IVA de los totales del xml
+	 */
+	public SaveProductsTask(List<Product> products, File file, int backups, long generation, BigDecimal taxRate) {
+		int size = products.size();
+		this.products = products.toArray(new Product[size]);
+		this.names = new String[size];
+		this.cantidades = new int[size];
+		this.precios = new double[size];
+		this.filePaths = new String[size];
+		this.imageDigests = new String[size];
+		for (int i = 0; i < size; i++) {
+			Product product = this.products[i];
+			names[i] = product.getName();
+			cantidades[i] = product.getCantidad();
+			precios[i] = product.getUnitPrice();
+			filePaths[i] = product.getFilePath();
+			imageDigests[i] = product.getImageDigest();
+		}
+		this.file = file;
+		this.backups = backups;
+		this.generation = generation;
+		this.taxRate = taxRate;
+	}
+
+	@Override
+	protected Map<Product, String> call() throws Exception {
+		imageStore = ImageStore.open(file.getAbsoluteFile().toPath().resolveSibling(PICTURES_DIRECTORY));
+		imageExporter = new ImageExporter(imageStore);
+		// Primero las imagenes, cada ruta una sola vez. Las que ya tienen digest y estan en el almacen no hace falta tocarlas
+		Set<String> sourcePaths = new LinkedHashSet<>();
+		for (int i = 0; i < products.length; i++) {
+			if (filePaths[i] != null && imageStore.resolve(imageDigests[i]) == null) {
+				sourcePaths.add(filePaths[i]);
+			}
+		}
+		int total = sourcePaths.size() + products.length;
+		updateMessage("Guardando " + sourcePaths.size() + " imagenes...");
+		Map<String, String> digests = imageExporter.export(sourcePaths, done -> updateProgress(done, total));
+
+		// Despues el xml
+		Map<Product, String> newDigests = new IdentityHashMap<>();
+		int done = sourcePaths.size();
+		ProductWriter writer = openWriter();
+		try {
+			for (int i = 0; i < products.length; i++) {
+				if (isCancelled()) {
+					// No dejamos un archivo a medias
+					writer.abort();
+					return newDigests;
+				}
+				String filePath = filePaths[i];
+				String digest = imageDigests[i];
+				String newDigest = filePath != null ? digests.get(filePath) : null;
+				if (newDigest != null) {
+					digest = newDigest;
+					filePath = imageStore.resolve(digest).toString();
+					newDigests.put(products[i], digest);
+				}
+				writer.write(new Product(names[i], cantidades[i], precios[i], filePaths[i]), filePath, digest);
+				updateProgress(++done, total);
+				updateMessage("Guardados " + (done - sourcePaths.size()) + " de " + products.length + " productos");
+			}
+		} catch (Exception e) {
+			writer.abort();
+			throw e;
+		}
+		if (isCancelled()) {
+			writer.abort();
+			return newDigests;
+		}
+		writer.close();
+		return newDigests;
+	}
+
+	/**
+	 * Escritor segun la extension del archivo: binario para .xbin y xml para todo lo demas
+	 * 
+	 * @return ProductWriter
+	 * @throws Exception
+	 */
+	private ProductWriter openWriter() throws Exception {
+		if (file.getName().endsWith(ProductBinaryFile.EXTENSION)) {
+			return ProductBinaryFile.openWriter(file, backups, generation);
+		}
+		ProductXmlWriter writer = XmlFileManager.openWriter(file, true, backups, generation);
+		writer.setTaxRate(taxRate);
+		return writer;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Almacen donde han quedado las imagenes. Solo se debe leer cuando la tarea ha terminado.
+	 * 
+	 * @return ImageStore
+	 */
+	public ImageStore getImageStore() {
+		return imageStore;
+	}
+
+	/**
+	 * Resultado de la copia de imagenes. Solo se debe leer cuando la tarea ha terminado.
+	 * 
+	 * @return ImageExporter
+	 */
+	public ImageExporter getImageExporter() {
+		return imageExporter;
+	}
+}
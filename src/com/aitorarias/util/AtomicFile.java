@@ -0,0 +1,147 @@
+package com.aitorarias.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Escritura segura de un archivo: se escribe en un temporal en la misma carpeta y solo al terminar
+ * se fuerza a disco y se mueve encima del archivo de verdad. Si el programa se cae a mitad,
+ * el archivo sigue siendo el de antes, nunca uno a medias.
+ * 
+ * Opcionalmente guarda copias de las versiones anteriores: archivo.bak1 (la ultima), archivo.bak2...
+ * 
+ * @author AitorArias
+ *
+ */
+public class AtomicFile {
+
+	private static final String BACKUP_SUFFIX = ".bak";
+
+	private final Path target;
+	private final int backups;
+	private Path temp;
+	private FileChannel channel;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param target  File archivo que se quiere escribir
+	 * @param backups int copias de las versiones anteriores que se guardan, 0 para ninguna
+	 */
+	public AtomicFile(File target, int backups) {
+		this.target = target.getAbsoluteFile().toPath();
+		this.backups = backups;
+	}
+
+	/**
+	 * Crea el temporal y lo abre para escribir
+	 * 
+	 * @return FileChannel
+	 * @throws IOException
+	 */
+	public FileChannel open() throws IOException {
+		// En la misma carpeta: un move entre discos distintos no puede ser atomico.
+		// No usamos Files.createTempFile porque crea el archivo con permisos solo para el usuario
+		temp = target.resolveSibling(
+				"." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+		channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+		return channel;
+	}
+
+	/**
+	 * Termina la escritura: fuerza el temporal a disco, guarda la copia de la version anterior
+	 * y cambia el archivo por el temporal. Quien escribe tiene que haber vaciado ya sus buffers;
+	 * puede haber cerrado ya el canal (al cerrar un stream sobre el canal se cierra tambien).
+	 * 
+	 * @throws IOException si falla el archivo de verdad no se ha tocado
+	 */
+	public void commit() throws IOException {
+		try {
+			if (channel.isOpen()) {
+				channel.force(true);
+				channel.close();
+			} else {
+				// fsync es del archivo, no del descriptor: vale con abrirlo otra vez
+				try (FileChannel reopened = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+					reopened.force(true);
+				}
+			}
+			rotateBackups();
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+		forceDirectory();
+	}
+
+	/**
+	 * Descarta lo escrito: se borra el temporal y el archivo de verdad se queda como estaba
+	 */
+	public void abort() {
+		// Puede que ni se llegara a abrir
+		if (temp == null) {
+			return;
+		}
+		try {
+			channel.close();
+			Files.deleteIfExists(temp);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Mueve cada copia a la siguiente (bak1 a bak2...) y deja la version actual como bak1.
+	 * La version actual se enlaza en vez de moverse, asi el archivo nunca deja de existir.
+	 * 
+	 * @throws IOException
+	 */
+	private void rotateBackups() throws IOException {
+		if (backups <= 0 || !Files.exists(target)) {
+			return;
+		}
+		for (int i = backups - 1; i >= 1; i--) {
+			Path backup = backupOf(target, i);
+			if (Files.exists(backup)) {
+				Files.move(backup, backupOf(target, i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		Path first = backupOf(target, 1);
+		Files.deleteIfExists(first);
+		try {
+			Files.createLink(first, target);
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			// Sin enlaces duros (FAT, algunas carpetas de red) hay que copiar
+			Files.copy(target, first, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static Path backupOf(Path target, int number) {
+		return target.resolveSibling(target.getFileName() + BACKUP_SUFFIX + number);
+	}
+
+	/**
+	 * Fuerza a disco la carpeta, para que el cambio de nombre tambien sobreviva a un corte de luz.
+	 * En Windows no se puede abrir una carpeta, ahi no se hace.
+	 */
+	private void forceDirectory() {
+		try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException e) {
+			// No es un error: el archivo ya esta en su sitio
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.aitorarias.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductColumnStore;
+import com.aitorarias.enums.MergeKey;
+
+/**
+ * Junta varios archivos de productos en una sola lista. Los archivos se leen en paralelo
+ * en un ForkJoinPool (un archivo por tarea) y despues se juntan en el orden en el que se eligieron,
+ * quitando los duplicados segun la MergeKey.
+ * 
+ * @author AitorArias
+ *
+ */
+public class CatalogMerger {
+
+	// Productos por lote al leer cada xml
+	private static final int BATCH_SIZE = 5000;
+
+	/**
+	 * Resultado de leer un archivo: sus productos, lo que ha tardado y el error si lo hubo
+	 * 
+	 * @author AitorArias
+	 *
+	 */
+	public static class FileResult {
+
+		private final File file;
+		private final List<Product> products;
+		private final long nanos;
+		private final Exception error;
+
+		private FileResult(File file, List<Product> products, long nanos, Exception error) {
+			this.file = file;
+			this.products = products;
+			this.nanos = nanos;
+			this.error = error;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public List<Product> getProducts() {
+			return products;
+		}
+
+		public long getMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(nanos);
+		}
+
+		public Exception getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			if (error != null) {
+				return file.getName() + ": error, " + error.getMessage();
+			}
+			return file.getName() + ": " + products.size() + " productos en " + getMillis() + " ms";
+		}
+	}
+
+	/**
+	 * Reparte la lista de archivos en dos mitades hasta que queda uno solo, que se lee en el hilo del pool
+	 */
+	private static class ParseTask extends RecursiveTask<List<FileResult>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> files;
+		private final Consumer<FileResult> onFileParsed;
+
+		ParseTask(List<File> files, Consumer<FileResult> onFileParsed) {
+			this.files = files;
+			this.onFileParsed = onFileParsed;
+		}
+
+		@Override
+		protected List<FileResult> compute() {
+			if (files.size() == 1) {
+				FileResult result = parse(files.get(0));
+				onFileParsed.accept(result);
+				return Collections.singletonList(result);
+			}
+			int half = files.size() / 2;
+			ParseTask left = new ParseTask(files.subList(0, half), onFileParsed);
+			ParseTask right = new ParseTask(files.subList(half, files.size()), onFileParsed);
+			left.fork();
+			List<FileResult> results = new ArrayList<>(right.compute());
+			results.addAll(0, left.join());
+			return results;
+		}
+	}
+
+	/**
+	 * Lee todos los archivos en paralelo. Un archivo que falla no para a los demas: su error queda en el FileResult.
+	 * 
+	 * @param files        List<File>
+	 * @param pool         ForkJoinPool
+	 * @param onFileParsed Consumer<FileResult> se llama desde los hilos del pool al terminar cada archivo
+	 * @return List<FileResult> en el mismo orden que files
+	 * @throws InterruptedException
+	 */
+	public static List<FileResult> parseAll(List<File> files, ForkJoinPool pool, Consumer<FileResult> onFileParsed)
+			throws InterruptedException {
+		if (files.isEmpty()) {
+			return Collections.emptyList();
+		}
+		ForkJoinTask<List<FileResult>> task = pool.submit(new ParseTask(new ArrayList<>(files), onFileParsed));
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			// parse() ya recoge los errores de cada archivo, esto solo pasa con errores graves
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			task.cancel(true);
+		}
+	}
+
+	/**
+	 * Lee un archivo entero, .xml por lotes o binario
+	 * 
+	 * @param file File
+	 * @return FileResult
+	 */
+	private static FileResult parse(File file) {
+		long start = System.nanoTime();
+		List<Product> products = new ArrayList<>();
+		try {
+			if (ProductBinaryFile.isBinaryFile(file)) {
+				ProductColumnStore store = ProductBinaryFile.read(file);
+				for (int i = 0; i < store.size(); i++) {
+					products.add(store.get(i));
+				}
+			} else {
+				// El unmarshaller es uno por hilo, asi que cada hilo del pool usa el suyo
+				XmlFileManager.loadFromXmlFile(file, BATCH_SIZE, products::addAll);
+			}
+			return new FileResult(file, products, System.nanoTime() - start, null);
+		} catch (Exception e) {
+			return new FileResult(file, Collections.<Product>emptyList(), System.nanoTime() - start, e);
+		}
+	}
+
+	/**
+	 * Junta los productos de todos los archivos en orden. De cada grupo de duplicados se queda el primero.
+	 * 
+	 * @param results List<FileResult>
+	 * @param key     MergeKey
+	 * @return List<Product>
+	 */
+	public static List<Product> merge(List<FileResult> results, MergeKey key) {
+		int total = 0;
+		for (FileResult result : results) {
+			total += result.getProducts().size();
+		}
+		List<Product> merged = new ArrayList<>(total);
+		Set<Object> seen = new HashSet<>();
+		for (FileResult result : results) {
+			for (Product product : result.getProducts()) {
+				Object productKey = key.keyOf(product);
+				if (productKey == null || seen.add(productKey)) {
+					merged.add(product);
+				}
+			}
+		}
+		return merged;
+	}
+}
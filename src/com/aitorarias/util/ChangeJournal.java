@@ -0,0 +1,579 @@
+package com.aitorarias.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Diario de cambios de un documento. Cada alta, edicion o borrado de la tabla se añade
+ * al final de un archivo (documento.journal), asi guardar un cambio cuesta lo mismo
+ * tenga la factura 10 lineas o 500.000. De vez en cuando el diario se compacta: se escribe
+ * el documento entero y se vacia el diario.
+ * 
+ * Mientras se compacta, los cambios nuevos van a un segundo archivo (documento.journal.next)
+ * que pasa a ser el diario cuando termina. Si la aplicacion se cierra sin guardar, al volver
+ * a abrirla se puede recuperar el documento aplicando los dos diarios en orden.
+ * 
+ * Las filas se identifican por su posicion en la lista de productos.
+ * 
+ * Cada diario empieza con la generacion del documento sobre el que se aplican sus registros, y cada
+ * guardado escribe en el documento una generacion mayor que la anterior. Si la aplicacion se cierra
+ * justo despues de guardar el documento pero antes de cambiar de diario, el primer diario es de una
+ * generacion anterior al documento: sus cambios ya estan dentro y al recuperar se salta.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ChangeJournal implements Closeable {
+
+	private static final byte ADD = 1;
+	private static final byte SET_NAME = 2;
+	private static final byte SET_CANTIDAD = 3;
+	private static final byte SET_PRECIO = 4;
+	private static final byte REMOVE = 5;
+	private static final int MAGIC = 0x584A464A; // "XJFJ"
+	// Cabecera de cada diario: MAGIC y la generacion del documento sobre el que se aplica
+	private static final int HEADER_SIZE = 12;
+
+	private final File journalFile;
+	private final File nextJournalFile;
+	private DataOutputStream output;
+	private int recordCount;
+	private boolean compacting;
+	// Generacion del documento al que se aplica el diario y la del documento que se esta guardando
+	private long generation;
+	private long nextGeneration;
+	// false mientras el primer diario del archivo no es de este documento (guardar como)
+	private boolean owned;
+
+	private ChangeJournal(File document, long generation) {
+		this.journalFile = journalFileOf(document);
+		this.nextJournalFile = nextJournalFileOf(document);
+		this.generation = generation;
+	}
+
+	/**
+	 * Empieza un diario vacio para el documento, borrando cualquier diario anterior
+	 * 
+	 * @param document File
+	 * @return ChangeJournal
+	 * @throws IOException
+	 */
+	public static ChangeJournal create(File document) throws IOException {
+		discard(document);
+		ChangeJournal journal = new ChangeJournal(document, readGeneration(document));
+		journal.output = openNew(journal.journalFile, journal.generation);
+		journal.owned = true;
+		return journal;
+	}
+
+	/**
+	 * Diario para guardar el documento en otro archivo. No se escribe nada hasta beginCompaction(), y los
+	 * diarios que ya tuviera el archivo no se tocan hasta que el guardado termine bien con endCompaction().
+	 * Si el guardado falla el diario no sirve y hay que dejar de usarlo.
+	 * 
+	 * @param document File
+	 * @return ChangeJournal
+	 */
+	public static ChangeJournal prepare(File document) {
+		long generation;
+		try {
+			generation = readGeneration(document);
+		} catch (IOException e) {
+			// Lo que hubiera en el archivo se va a sobreescribir
+			generation = 0;
+		}
+		return new ChangeJournal(document, generation);
+	}
+
+	/**
+	 * Continua el diario que ya tiene el documento (despues de recuperarlo)
+	 * 
+	 * @param document File
+	 * @return ChangeJournal
+	 * @throws IOException
+	 */
+	public static ChangeJournal resume(File document) throws IOException {
+		long documentGeneration = readGeneration(document);
+		File journalFile = journalFileOf(document);
+		File next = nextJournalFileOf(document);
+		// Los diarios de generaciones anteriores ya estan dentro del documento
+		if (readBase(journalFile) < documentGeneration) {
+			Files.deleteIfExists(journalFile.toPath());
+		}
+		if (readBase(next) < documentGeneration) {
+			Files.deleteIfExists(next.toPath());
+		}
+		if (next.exists()) {
+			if (journalFile.exists()) {
+				// Una compactacion que no termino: juntamos los dos diarios en uno
+				appendRecords(next, journalFile);
+				Files.delete(next.toPath());
+			} else {
+				Files.move(next.toPath(), journalFile.toPath());
+			}
+		}
+		ChangeJournal journal;
+		if (journalFile.exists()) {
+			journal = new ChangeJournal(document, readBase(journalFile));
+			journal.output = openAppend(journalFile);
+		} else {
+			journal = new ChangeJournal(document, documentGeneration);
+			journal.output = openNew(journalFile, documentGeneration);
+		}
+		journal.owned = true;
+		return journal;
+	}
+
+	private static File journalFileOf(File document) {
+		return new File(document.getPath() + ".journal");
+	}
+
+	private static File nextJournalFileOf(File document) {
+		return new File(document.getPath() + ".journal.next");
+	}
+
+	private static DataOutputStream openAppend(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	/**
+	 * Crea (o vacia) un diario y escribe su cabecera
+	 * 
+	 * @param file       File
+	 * @param generation long generacion del documento sobre el que se aplica
+	 * @return DataOutputStream
+	 * @throws IOException
+	 */
+	private static DataOutputStream openNew(File file, long generation) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeLong(generation);
+			output.flush();
+		} catch (IOException e) {
+			output.close();
+			throw e;
+		}
+		return output;
+	}
+
+	/**
+	 * Generacion sobre la que se aplica un diario
+	 * 
+	 * @param file File
+	 * @return long o -1 si el diario no existe o no llego a tener cabecera
+	 * @throws IOException si no es un diario
+	 */
+	private static long readBase(File file) throws IOException {
+		if (file.length() < HEADER_SIZE) {
+			return -1;
+		}
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException("No es un diario de cambios: " + file);
+			}
+			return input.readLong();
+		}
+	}
+
+	/**
+	 * Generacion que tiene guardada el documento, 0 si no existe o no la tiene
+	 * 
+	 * @param document File
+	 * @return long
+	 * @throws IOException
+	 */
+	private static long readGeneration(File document) throws IOException {
+		if (!document.exists()) {
+			return 0;
+		}
+		if (ProductBinaryFile.isBinaryFile(document)) {
+			return ProductBinaryFile.readGeneration(document);
+		}
+		return ProductXmlReader.readGeneration(document);
+	}
+
+	/**
+	 * Generacion para el siguiente guardado: siempre mayor que la anterior, y por la hora tambien
+	 * mayor que la de los diarios que pudiera tener de antes el archivo
+	 * 
+	 * @param previous long
+	 * @return long
+	 */
+	private static long nextGeneration(long previous) {
+		return Math.max(previous + 1, System.currentTimeMillis());
+	}
+
+	/**
+	 * Añade al final de un diario los registros de otro, sin su cabecera
+	 * 
+	 * @param from File
+	 * @param to   File
+	 * @throws IOException
+	 */
+	private static void appendRecords(File from, File to) throws IOException {
+		try (FileChannel source = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+				FileChannel target = FileChannel.open(to.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			long position = Math.min(HEADER_SIZE, source.size());
+			while (position < source.size()) {
+				position += source.transferTo(position, source.size() - position, target);
+			}
+		}
+	}
+
+	/**
+	 * Indica si el documento tiene cambios en el diario que no estan en el archivo
+	 * 
+	 * @param document File
+	 * @return boolean
+	 */
+	public static boolean hasPendingChanges(File document) {
+		try {
+			long documentGeneration = readGeneration(document);
+			return hasRecords(journalFileOf(document), documentGeneration)
+					|| hasRecords(nextJournalFileOf(document), documentGeneration);
+		} catch (IOException e) {
+			// Que lo cuente la recuperacion
+			return true;
+		}
+	}
+
+	private static boolean hasRecords(File file, long documentGeneration) throws IOException {
+		return file.length() > HEADER_SIZE && readBase(file) >= documentGeneration;
+	}
+
+	/**
+	 * Borra los diarios del documento
+	 * 
+	 * @param document File
+	 * @throws IOException
+	 */
+	public static void discard(File document) throws IOException {
+		Files.deleteIfExists(journalFileOf(document).toPath());
+		Files.deleteIfExists(nextJournalFileOf(document).toPath());
+	}
+
+	/**
+	 * Aplica los diarios del documento sobre la lista de productos cargada desde el archivo.
+	 * Si el ultimo registro quedo a medias (la aplicacion se cerro mientras se escribia) se ignora.
+	 * 
+	 * @param document File
+	 * @param products List<Product>
+	 * @return int registros aplicados
+	 * @throws IOException
+	 */
+	public static int replay(File document, List<Product> products) throws IOException {
+		long documentGeneration = readGeneration(document);
+		return replayFile(journalFileOf(document), documentGeneration, products)
+				+ replayFile(nextJournalFileOf(document), documentGeneration, products);
+	}
+
+	private static int replayFile(File file, long documentGeneration, List<Product> products) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		int applied = 0;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException("No es un diario de cambios: " + file);
+			}
+			// De una generacion anterior: el documento se guardo con estos cambios justo antes de cerrarse
+			if (input.readLong() < documentGeneration) {
+				return 0;
+			}
+			while (true) {
+				int op = input.read();
+				if (op < 0) {
+					break;
+				}
+				int index = input.readInt();
+				switch (op) {
+				case ADD:
+					Product product = new Product(readString(input), input.readInt(), readPrecio(input),
+							readString(input));
+					product.setImageDigest(readString(input));
+					products.add(index, product);
+					break;
+				case SET_NAME:
+					products.get(index).setName(readString(input));
+					break;
+				case SET_CANTIDAD:
+					products.get(index).setCantidad(input.readInt());
+					break;
+				case SET_PRECIO:
+					products.get(index).setUnitPrice(readPrecio(input));
+					break;
+				case REMOVE:
+					products.remove(index);
+					break;
+				default:
+					throw new IOException("Registro desconocido en el diario: " + op);
+				}
+				applied++;
+			}
+		} catch (EOFException e) {
+			// Ultimo registro incompleto
+		}
+		return applied;
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+	private static double readPrecio(DataInputStream input) throws IOException {
+		double precio = input.readDouble();
+		if (!ProductValidator.isNumber(precio)) {
+			throw new IOException("Precio no valido en el diario: " + precio);
+		}
+		return precio;
+	}
+
+	private void writeString(String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			output.writeUTF(value);
+		}
+	}
+
+	/**
+	 * Cada registro se vuelca al sistema operativo en cuanto se escribe
+	 * 
+	 * @throws IOException
+	 */
+	private void endRecord() throws IOException {
+		output.flush();
+		recordCount++;
+	}
+
+	/**
+	 * Producto nuevo en la posicion index
+	 * 
+	 * @param index   int
+	 * @param product Product
+	 * @throws IOException
+	 */
+	public void logAdd(int index, Product product) throws IOException {
+		writeAdd(index, product);
+		endRecord();
+	}
+
+	/**
+	 * Varios productos nuevos. Se vuelca al sistema operativo una sola vez al final.
+	 * 
+	 * @param indexes int[] posiciones en la lista final, de menor a mayor
+	 * @param added   Product[] el producto de cada posicion de indexes
+	 * @throws IOException
+	 */
+	public void logAddAll(int[] indexes, Product[] added) throws IOException {
+		for (int i = 0; i < indexes.length; i++) {
+			writeAdd(indexes[i], added[i]);
+			recordCount++;
+		}
+		output.flush();
+	}
+
+	private void writeAdd(int index, Product product) throws IOException {
+		output.writeByte(ADD);
+		output.writeInt(index);
+		writeString(product.getName());
+		output.writeInt(product.getCantidad());
+		output.writeDouble(product.getUnitPrice());
+		writeString(product.getFilePath());
+		writeString(product.getImageDigest());
+	}
+
+	public void logName(int index, String nombre) throws IOException {
+		output.writeByte(SET_NAME);
+		output.writeInt(index);
+		writeString(nombre);
+		endRecord();
+	}
+
+	public void logCantidad(int index, int cantidad) throws IOException {
+		output.writeByte(SET_CANTIDAD);
+		output.writeInt(index);
+		output.writeInt(cantidad);
+		endRecord();
+	}
+
+	public void logPrecio(int index, double precio) throws IOException {
+		output.writeByte(SET_PRECIO);
+		output.writeInt(index);
+		output.writeDouble(precio);
+		endRecord();
+	}
+
+	public void logRemove(int index) throws IOException {
+		output.writeByte(REMOVE);
+		output.writeInt(index);
+		endRecord();
+	}
+
+	/**
+	 * La misma cantidad para varios productos. Se vuelca al sistema operativo una sola vez al final.
+	 * 
+	 * @param indexes  int[]
+	 * @param cantidad int
+	 * @throws IOException
+	 */
+	public void logCantidadAll(int[] indexes, int cantidad) throws IOException {
+		for (int index : indexes) {
+			output.writeByte(SET_CANTIDAD);
+			output.writeInt(index);
+			output.writeInt(cantidad);
+			recordCount++;
+		}
+		output.flush();
+	}
+
+	/**
+	 * Cantidades nuevas de varios productos. Se vuelca al sistema operativo una sola vez al final.
+	 * 
+	 * @param indexes    int[]
+	 * @param cantidades int[] la cantidad de cada posicion de indexes
+	 * @throws IOException
+	 */
+	public void logCantidadAll(int[] indexes, int[] cantidades) throws IOException {
+		for (int i = 0; i < indexes.length; i++) {
+			output.writeByte(SET_CANTIDAD);
+			output.writeInt(indexes[i]);
+			output.writeInt(cantidades[i]);
+			recordCount++;
+		}
+		output.flush();
+	}
+
+	/**
+	 * Precios nuevos de varios productos. Se vuelca al sistema operativo una sola vez al final.
+	 * 
+	 * @param indexes int[]
+	 * @param precios double[] el precio de cada posicion de indexes
+	 * @throws IOException
+	 */
+	public void logPrecioAll(int[] indexes, double[] precios) throws IOException {
+		for (int i = 0; i < indexes.length; i++) {
+			output.writeByte(SET_PRECIO);
+			output.writeInt(indexes[i]);
+			output.writeDouble(precios[i]);
+			recordCount++;
+		}
+		output.flush();
+	}
+
+	/**
+	 * Varios productos borrados a la vez. Se vuelca al sistema operativo una sola vez al final.
+	 * 
+	 * @param indexes int[] posiciones en el orden en que se quitan (de mayor a menor)
+	 * @throws IOException
+	 */
+	public void logRemoveAll(int[] indexes) throws IOException {
+		for (int index : indexes) {
+			output.writeByte(REMOVE);
+			output.writeInt(index);
+			recordCount++;
+		}
+		output.flush();
+	}
+
+	/**
+	 * Registros escritos desde que se creo el diario o desde la ultima compactacion
+	 * 
+	 * @return int
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	public boolean isCompacting() {
+		return compacting;
+	}
+
+	/**
+	 * Generacion del documento sobre el que se aplica el diario
+	 * 
+	 * @return long
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Empieza una compactacion: a partir de ahora los cambios van al segundo diario.
+	 * Hay que llamarlo justo al hacer la copia de la lista que se va a guardar.
+	 * 
+	 * @return long la generacion que hay que escribir en el documento guardado
+	 * @throws IOException
+	 * @throws IllegalStateException si ya hay una compactacion en marcha
+	 */
+	public long beginCompaction() throws IOException {
+		if (compacting) {
+			throw new IllegalStateException("Ya hay una compactacion en marcha");
+		}
+		if (output != null) {
+			output.close();
+		}
+		nextGeneration = nextGeneration(generation);
+		output = openNew(nextJournalFile, nextGeneration);
+		recordCount = 0;
+		compacting = true;
+		return nextGeneration;
+	}
+
+	/**
+	 * Termina la compactacion. Si el documento se guardo bien el primer diario ya no hace falta
+	 * y el segundo pasa a ser el diario. Si no, se juntan los dos; en un diario de prepare() se borra
+	 * el segundo y el diario ya no se puede usar.
+	 * 
+	 * @param succeeded boolean
+	 * @throws IOException
+	 */
+	public void endCompaction(boolean succeeded) throws IOException {
+		output.close();
+		compacting = false;
+		if (!succeeded && !owned) {
+			// Guardar como que no ha terminado: los diarios que ya tuviera el archivo siguen valiendo
+			Files.delete(nextJournalFile.toPath());
+			output = null;
+			return;
+		}
+		if (succeeded) {
+			// De un paso: nunca hay un momento en que el primer diario ya no esta y el segundo aun no ha ocupado su sitio
+			try {
+				Files.move(nextJournalFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(nextJournalFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			generation = nextGeneration;
+			owned = true;
+		} else {
+			appendRecords(nextJournalFile, journalFile);
+			Files.delete(nextJournalFile.toPath());
+		}
+		output = openAppend(journalFile);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (output != null) {
+			output.close();
+		}
+	}
+}
@@ -1,9 +1,11 @@
 package com.aitorarias.util;
 
+import java.util.List;
 import java.util.Optional;
 
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.Alert.AlertType;
 
@@ -109,4 +111,24 @@ public class DialogBuilder {
 		// retorna resultado final 
 		return result;
 	}
+
+	/**
+	 * Enseña un dialogo para elegir una opcion de una lista
+	 * 
+	 * @param title        String
+	 * @param header       String
+	 * @param content      String
+	 * @param defaultValue T
+	 * @param choices      List<T>
+	 * @return Optional<T>
+	 */
+	public static <T> Optional<T> showChoiceDialog(String title, String header, String content, T defaultValue,
+			List<T> choices) {
+		ChoiceDialog<T> choiceDialog = new ChoiceDialog<>(defaultValue, choices);
+		choiceDialog.setTitle(title);
+		choiceDialog.setHeaderText(header);
+		choiceDialog.setContentText(content);
+
+		return choiceDialog.showAndWait();
+	}
 }
@@ -0,0 +1,285 @@
+package com.aitorarias.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.aitorarias.entity.Product;
+
+import javafx.collections.ListChangeListener.Change;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.TransformationList;
+
+/**
+ * Vista filtrada de una lista de productos con el resultado de una busqueda. Hace lo mismo que un
+ * FilteredList con el predicado matches::contains, pero al cambiar la busqueda no vuelve a mirar
+ * todos los productos:
+ *
+ * - Primero se miran solo las filas que se ven. Si todos los productos de la busqueda nueva ya se
+ *   veian (al seguir escribiendo la busqueda se estrecha) no hace falta mirar mas.
+ * - Solo si la busqueda nueva tiene productos que no se veian se recorre la lista original.
+ * - La vista recibe solo las filas quitadas y añadidas; con muchas, que ha cambiado toda la lista.
+ *
+ * Las filas van en el mismo orden que en la lista original.
+ *
+ * @author AitorArias
+ *
+ */
+public class FilteredProductList extends TransformationList<Product, Product> {
+
+	// Con mas filas quitadas o añadidas de una vez, se avisa a la vista de que ha cambiado toda la lista
+	private static final int INCREMENTAL_LIMIT = 64;
+
+	// Productos que se ven, o null si se ven todos
+	private Set<Product> matches;
+	private int size;
+	// Fila -> indice en la lista original, de menor a mayor
+	private int[] filtered;
+
+	/**
+	 * Constructor. Al principio se ven todos los productos.
+	 *
+	 * @param source ObservableList<Product>
+	 */
+	public FilteredProductList(ObservableList<Product> source) {
+		super(source);
+		size = source.size();
+		filtered = new int[Math.max(16, size)];
+		for (int i = 0; i < size; i++) {
+			filtered[i] = i;
+		}
+	}
+
+	public Set<Product> getMatches() {
+		return matches;
+	}
+
+	/**
+	 * Cambia los productos que se ven
+	 *
+	 * @param matches Set<Product> o null para ver todos
+	 */
+	public void setMatches(Set<Product> matches) {
+		if (matches == null && this.matches == null) {
+			return;
+		}
+		this.matches = matches;
+		int[] newFiltered;
+		int newSize;
+		if (matches == null) {
+			newSize = getSource().size();
+			newFiltered = new int[Math.max(16, newSize)];
+			for (int i = 0; i < newSize; i++) {
+				newFiltered[i] = i;
+			}
+		} else {
+			newFiltered = new int[Math.max(16, size)];
+			newSize = 0;
+			for (int v = 0; v < size; v++) {
+				if (matches.contains(getSource().get(filtered[v]))) {
+					newFiltered[newSize++] = filtered[v];
+				}
+			}
+			if (newSize < matches.size()) {
+				// Hay productos que no se veian: hay que buscar su sitio en la lista original
+				newFiltered = new int[Math.max(16, getSource().size())];
+				newSize = 0;
+				for (int i = 0; i < getSource().size(); i++) {
+					if (matches.contains(getSource().get(i))) {
+						newFiltered[newSize++] = i;
+					}
+				}
+			}
+		}
+		replace(newFiltered, newSize);
+	}
+
+	/**
+	 * Cambia las filas y avisa a la vista de las diferencias
+	 */
+	private void replace(int[] newFiltered, int newSize) {
+		// Filas que se quitan (de la vista antigua) y que se añaden (de la nueva), mezclando las dos listas ordenadas
+		int[] removedRows = new int[INCREMENTAL_LIMIT];
+		int[] addedRows = new int[INCREMENTAL_LIMIT];
+		int removed = 0;
+		int added = 0;
+		boolean incremental = true;
+		int i = 0;
+		int j = 0;
+		while (incremental && (i < size || j < newSize)) {
+			if (j == newSize || (i < size && filtered[i] < newFiltered[j])) {
+				incremental = removed < INCREMENTAL_LIMIT;
+				if (incremental) {
+					removedRows[removed++] = i;
+				}
+				i++;
+			} else if (i == size || newFiltered[j] < filtered[i]) {
+				incremental = added < INCREMENTAL_LIMIT;
+				if (incremental) {
+					addedRows[added++] = j;
+				}
+				j++;
+			} else {
+				i++;
+				j++;
+			}
+		}
+		if (incremental && removed == 0 && added == 0) {
+			return;
+		}
+		beginChange();
+		if (incremental) {
+			// De abajo arriba, asi quitar una fila no mueve las que quedan por quitar
+			for (int k = removed - 1; k >= 0; k--) {
+				nextRemove(removedRows[k], get(removedRows[k]));
+			}
+			filtered = newFiltered;
+			size = newSize;
+			// De arriba abajo, cada fila entra ya en su sitio final
+			for (int k = 0; k < added; k++) {
+				nextAdd(addedRows[k], addedRows[k] + 1);
+			}
+		} else {
+			nextRemove(0, new ArrayList<>(this));
+			filtered = newFiltered;
+			size = newSize;
+			nextAdd(0, size);
+		}
+		endChange();
+	}
+
+	@Override
+	public Product get(int index) {
+		return getSource().get(getSourceIndex(index));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int getSourceIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Indice: " + index + ", tamaño: " + size);
+		}
+		return filtered[index];
+	}
+
+	/**
+	 * Fila de un indice de la lista original, por busqueda binaria
+	 *
+	 * @param index int
+	 * @return int la fila, o -1 si el producto no se ve
+	 */
+	public int getViewIndex(int index) {
+		int row = Arrays.binarySearch(filtered, 0, size, index);
+		return row < 0 ? -1 : row;
+	}
+
+	@Override
+	protected void sourceChanged(Change<? extends Product> c) {
+		beginChange();
+		while (c.next()) {
+			if (c.wasPermutated()) {
+				permute(c);
+			} else if (c.wasUpdated()) {
+				for (int i = c.getFrom(); i < c.getTo(); i++) {
+					int row = getViewIndex(i);
+					if (row >= 0) {
+						nextUpdate(row);
+					}
+				}
+			} else {
+				if (c.wasRemoved()) {
+					removeSource(c.getFrom(), c.getRemoved());
+				}
+				if (c.wasAdded()) {
+					addSource(c.getFrom(), c.getAddedSize());
+				}
+			}
+		}
+		endChange();
+	}
+
+	/**
+	 * Los productos se ven en el orden de la lista original, asi que al permutarla se vuelven a ordenar las filas
+	 */
+	private void permute(Change<? extends Product> c) {
+		List<Product> old = new ArrayList<>(size);
+		for (int v = 0; v < size; v++) {
+			int s = c.getPermutation(filtered[v]);
+			old.add(getSource().get(s));
+			filtered[v] = s;
+		}
+		Arrays.sort(filtered, 0, size);
+		nextRemove(0, old);
+		nextAdd(0, size);
+	}
+
+	/**
+	 * Quita las filas de los productos que estaban en [from, from + removed.size()) de la lista original
+	 */
+	private void removeSource(int from, List<? extends Product> removed) {
+		int count = removed.size();
+		int first = insertionPoint(from);
+		int last = insertionPoint(from + count);
+		if (last > first) {
+			List<Product> removedRows = new ArrayList<>(last - first);
+			for (int v = first; v < last; v++) {
+				removedRows.add(removed.get(filtered[v] - from));
+			}
+			nextRemove(first, removedRows);
+			System.arraycopy(filtered, last, filtered, first, size - last);
+			size -= last - first;
+		}
+		for (int v = first; v < size; v++) {
+			filtered[v] -= count;
+		}
+	}
+
+	/**
+	 * Mete las filas de los productos añadidos en [from, from + count) de la lista original que se ven
+	 */
+	private void addSource(int from, int count) {
+		int row = insertionPoint(from);
+		for (int v = row; v < size; v++) {
+			filtered[v] += count;
+		}
+		int[] visible = new int[count];
+		int shown = 0;
+		for (int s = from; s < from + count; s++) {
+			if (matches == null || matches.contains(getSource().get(s))) {
+				visible[shown++] = s;
+			}
+		}
+		if (shown == 0) {
+			return;
+		}
+		if (size + shown > filtered.length) {
+			filtered = Arrays.copyOf(filtered, Math.max(size + shown, filtered.length + (filtered.length >> 1)));
+		}
+		System.arraycopy(filtered, row, filtered, row + shown, size - row);
+		System.arraycopy(visible, 0, filtered, row, shown);
+		size += shown;
+		nextAdd(row, row + shown);
+	}
+
+	/**
+	 * Primera fila cuyo indice en la lista original es index o mayor
+	 */
+	private int insertionPoint(int index) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (filtered[mid] < index) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,117 @@
+package com.aitorarias.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Guarda las imagenes de los productos en el ImageStore usando varios hilos.
+ * Cada ruta de origen se procesa una sola vez aunque la usen muchos productos, y el almacen
+ * no vuelve a leer ni copiar una imagen que ya tiene.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ImageExporter {
+
+	// Mas hilos no ayudan: el limite es el disco
+	private static final int MAX_THREADS = 4;
+
+	private final ImageStore imageStore;
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+	private int exportedFiles;
+	private long exportedBytes;
+	private long elapsedNanos;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param imageStore ImageStore donde se guardan las imagenes
+	 */
+	public ImageExporter(ImageStore imageStore) {
+		this.imageStore = imageStore;
+	}
+
+	/**
+	 * Guarda todas las imagenes y devuelve el digest de cada una.
+	 * Si una imagen no se puede guardar no aparece en el resultado y el error se guarda en getErrors().
+	 * 
+	 * @param sourcePaths Collection<String> rutas de origen sin repetir
+	 * @param progress    IntConsumer recibe cuantas imagenes van terminadas, desde cualquier hilo
+	 * @return Map<String, String> ruta de origen -> digest
+	 * @throws InterruptedException si se cancela mientras se copia
+	 * @throws IOException          si no se puede escribir el indice del almacen
+	 */
+	public Map<String, String> export(Collection<String> sourcePaths, IntConsumer progress)
+			throws InterruptedException, IOException {
+		long start = System.nanoTime();
+		int storedBefore = imageStore.getStoredFiles();
+		long bytesBefore = imageStore.getStoredBytes();
+		Map<String, String> digests = new ConcurrentHashMap<>();
+		AtomicInteger done = new AtomicInteger();
+		List<Callable<Void>> jobs = new ArrayList<>(sourcePaths.size());
+		for (String sourcePath : sourcePaths) {
+			jobs.add(() -> {
+				try {
+					digests.put(sourcePath, imageStore.put(new File(sourcePath).toPath()));
+				} catch (IOException e) {
+					errors.add(new File(sourcePath).getName() + ": " + e.getMessage());
+				}
+				progress.accept(done.incrementAndGet());
+				return null;
+			});
+		}
+		int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "image-export");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			executor.invokeAll(jobs);
+		} finally {
+			executor.shutdownNow();
+			elapsedNanos = System.nanoTime() - start;
+		}
+		exportedFiles = imageStore.getStoredFiles() - storedBefore;
+		exportedBytes = imageStore.getStoredBytes() - bytesBefore;
+		imageStore.saveIndex();
+		return digests;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Velocidad media de la ultima exportacion contando solo las imagenes nuevas
+	 * 
+	 * @return double MB/s
+	 */
+	public double getThroughput() {
+		if (elapsedNanos == 0) {
+			return 0;
+		}
+		return (exportedBytes / (1024.0 * 1024.0)) / (elapsedNanos / 1e9);
+	}
+
+	/**
+	 * Resumen para enseñar al usuario
+	 * 
+	 * @return String
+	 */
+	public String getSummary() {
+		return String.format("Imagenes: %d nuevas en %s (%.1f MB a %.1f MB/s)", exportedFiles,
+				imageStore.getDirectory(), exportedBytes / (1024.0 * 1024.0), getThroughput());
+	}
+}
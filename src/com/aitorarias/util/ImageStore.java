@@ -0,0 +1,226 @@
+package com.aitorarias.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Almacen de imagenes direccionado por contenido. Cada imagen se guarda una sola vez con
+ * el SHA-256 de su contenido como nombre, y los productos la referencian por ese digest.
+ * 
+ * Ademas guarda un indice (index.properties) con el tamaño, la fecha y el digest de cada
+ * archivo de origen ya guardado, para no tener que volver a leerlo si no ha cambiado.
+ * 
+ * Es thread-safe: varios hilos pueden guardar imagenes a la vez.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ImageStore {
+
+	private static final String INDEX_FILE = "index.properties";
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Path directory;
+	// digest -> archivo del almacen
+	private final Map<String, Path> files = new ConcurrentHashMap<>();
+	// ruta de origen -> "tamaño:fecha:digest"
+	private final Map<String, String> sources = new ConcurrentHashMap<>();
+	private final AtomicInteger storedFiles = new AtomicInteger();
+	private final AtomicLong storedBytes = new AtomicLong();
+
+	private ImageStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Abre (o crea) el almacen en un directorio y carga su indice
+	 * 
+	 * @param directory Path
+	 * @return ImageStore
+	 * @throws IOException
+	 */
+	public static ImageStore open(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		ImageStore store = new ImageStore(directory);
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				String digest = digestOf(file.getFileName().toString());
+				if (digest != null) {
+					store.files.put(digest, file);
+				}
+			}
+		}
+		Path index = directory.resolve(INDEX_FILE);
+		if (Files.exists(index)) {
+			Properties properties = new Properties();
+			try (Reader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+				properties.load(reader);
+			}
+			for (String source : properties.stringPropertyNames()) {
+				store.sources.put(source, properties.getProperty(source));
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Saca el digest del nombre de un archivo del almacen
+	 * 
+	 * @param fileName String
+	 * @return String o null si no es un archivo del almacen
+	 */
+	private static String digestOf(String fileName) {
+		int dot = fileName.indexOf('.');
+		String digest = dot < 0 ? fileName : fileName.substring(0, dot);
+		return digest.matches("[0-9a-f]{64}") ? digest : null;
+	}
+
+	/**
+	 * Guarda una imagen en el almacen si no estaba ya
+	 * 
+	 * @param source Path
+	 * @return String el digest de la imagen
+	 * @throws IOException
+	 */
+	public String put(Path source) throws IOException {
+		source = source.toAbsolutePath();
+		BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+		String stamp = attributes.size() + ":" + attributes.lastModifiedTime().toMillis() + ":";
+		// Si el origen no ha cambiado desde la ultima vez ni siquiera lo leemos
+		String known = sources.get(source.toString());
+		if (known != null && known.startsWith(stamp)) {
+			String digest = known.substring(stamp.length());
+			if (files.containsKey(digest)) {
+				return digest;
+			}
+		}
+		// Leemos el origen una sola vez: calculamos el digest mientras lo copiamos a un temporal
+		MessageDigest messageDigest = newMessageDigest();
+		Path temp = Files.createTempFile(directory, "image", ".tmp");
+		try {
+			try (InputStream input = Files.newInputStream(source); OutputStream output = Files.newOutputStream(temp)) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = input.read(buffer)) > 0) {
+					messageDigest.update(buffer, 0, read);
+					output.write(buffer, 0, read);
+				}
+			}
+			String digest = toHex(messageDigest.digest());
+			if (!files.containsKey(digest)) {
+				Path target = directory.resolve(digest + extensionOf(source));
+				moveAtomically(temp, target);
+				if (files.putIfAbsent(digest, target) == null) {
+					storedFiles.incrementAndGet();
+					storedBytes.addAndGet(attributes.size());
+				}
+			}
+			sources.put(source.toString(), stamp + digest);
+			return digest;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void moveAtomically(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * La extension se conserva para que el sistema sepa con que programa abrir la imagen
+	 * 
+	 * @param source Path
+	 * @return String ".png", ".jpg"... o "" si no tiene
+	 */
+	private static String extensionOf(Path source) {
+		String name = source.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		return dot <= 0 ? "" : name.substring(dot).toLowerCase();
+	}
+
+	private static MessageDigest newMessageDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Toda JVM tiene SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Archivo del almacen para un digest
+	 * 
+	 * @param digest String
+	 * @return Path o null si la imagen no esta en el almacen
+	 */
+	public Path resolve(String digest) {
+		return digest == null ? null : files.get(digest);
+	}
+
+	/**
+	 * Escribe el indice de origenes a disco
+	 * 
+	 * @throws IOException
+	 */
+	public void saveIndex() throws IOException {
+		Properties properties = new Properties();
+		properties.putAll(sources);
+		try (Writer writer = Files.newBufferedWriter(directory.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+			properties.store(writer, "Imagenes guardadas: ruta de origen = tamaño:fecha:digest");
+		}
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Imagenes nuevas que se han guardado desde que se abrio el almacen
+	 * 
+	 * @return int
+	 */
+	public int getStoredFiles() {
+		return storedFiles.get();
+	}
+
+	/**
+	 * Bytes de las imagenes nuevas que se han guardado desde que se abrio el almacen
+	 * 
+	 * @return long
+	 */
+	public long getStoredBytes() {
+		return storedBytes.get();
+	}
+}
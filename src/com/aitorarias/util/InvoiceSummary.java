@@ -0,0 +1,182 @@
+package com.aitorarias.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Totales de una factura que se pueden mantener linea a linea: se suma o se resta cada
+ * linea cuando cambia, sin volver a recorrer todas. El importe se calcula con BigDecimal,
+ * asi que el subtotal es exacto aunque se sumen y resten millones de lineas.
+ * 
+ * @author AitorArias
+ *
+ */
+public class InvoiceSummary {
+
+	// IVA general, el que se usa si no se elige otro
+	public static final BigDecimal DEFAULT_TAX_RATE = new BigDecimal("0.21");
+	private static final int SCALE = 2;
+
+	private BigDecimal taxRate;
+	private BigDecimal subtotal = BigDecimal.ZERO;
+	private long items;
+	private int lines;
+	// Cuantas lineas tienen cada precio, para saber el minimo y el maximo aunque se borren lineas
+	private final TreeMap<Double, Integer> prices = new TreeMap<>();
+
+	/**
+	 * Constructor por defecto, con el IVA general
+	 */
+	public InvoiceSummary() {
+		this(DEFAULT_TAX_RATE);
+	}
+
+	/**
+	 * Constructor con otro tipo de IVA
+	 * 
+	 * @param taxRate BigDecimal tanto por uno, por ejemplo 0.21
+	 */
+	public InvoiceSummary(BigDecimal taxRate) {
+		setTaxRate(taxRate);
+	}
+
+	/**
+	 * Importe exacto de una linea
+	 * 
+	 * @param cantidad int
+	 * @param precio   double
+	 * @return BigDecimal
+	 */
+	public static BigDecimal lineAmount(int cantidad, double precio) {
+		// valueOf usa la representacion decimal del double (0.1 y no 0.1000000000000000055...)
+		return BigDecimal.valueOf(precio).multiply(BigDecimal.valueOf(cantidad));
+	}
+
+	/**
+	 * Suma una linea
+	 * 
+	 * @param cantidad int
+	 * @param precio   double
+	 */
+	public void addLine(int cantidad, double precio) {
+		subtotal = subtotal.add(lineAmount(cantidad, precio));
+		items += cantidad;
+		lines++;
+		prices.merge(precio, 1, Integer::sum);
+	}
+
+	/**
+	 * Resta una linea que se habia sumado antes con los mismos valores
+	 * 
+	 * @param cantidad int
+	 * @param precio   double
+	 */
+	public void removeLine(int cantidad, double precio) {
+		subtotal = subtotal.subtract(lineAmount(cantidad, precio));
+		items -= cantidad;
+		lines--;
+		prices.computeIfPresent(precio, (price, count) -> count == 1 ? null : count - 1);
+	}
+
+	/**
+	 * Cambia la cantidad de una linea
+	 * 
+	 * @param oldCantidad int
+	 * @param newCantidad int
+	 * @param precio      double
+	 */
+	public void changeCantidad(int oldCantidad, int newCantidad, double precio) {
+		subtotal = subtotal.add(lineAmount(newCantidad - oldCantidad, precio));
+		items += newCantidad - oldCantidad;
+	}
+
+	/**
+	 * Cambia el precio de una linea
+	 * 
+	 * @param cantidad  int
+	 * @param oldPrecio double
+	 * @param newPrecio double
+	 */
+	public void changePrecio(int cantidad, double oldPrecio, double newPrecio) {
+		removeLine(cantidad, oldPrecio);
+		addLine(cantidad, newPrecio);
+	}
+
+	/**
+	 * Vuelve a cero
+	 */
+	public void clear() {
+		subtotal = BigDecimal.ZERO;
+		items = 0;
+		lines = 0;
+		prices.clear();
+	}
+
+	public BigDecimal getSubtotal() {
+		return subtotal.setScale(SCALE, RoundingMode.HALF_UP);
+	}
+
+	public BigDecimal getTax() {
+		return subtotal.multiply(taxRate).setScale(SCALE, RoundingMode.HALF_UP);
+	}
+
+	public BigDecimal getTaxRate() {
+		return taxRate;
+	}
+
+	/**
+	 * Cambia el tipo de IVA
+	 * 
+	 * @param taxRate BigDecimal tanto por uno, no negativo
+	 */
+	public void setTaxRate(BigDecimal taxRate) {
+		if (taxRate == null || taxRate.signum() < 0) {
+			throw new IllegalArgumentException("Tipo de IVA no valido: " + taxRate);
+		}
+		this.taxRate = taxRate;
+	}
+
+	public BigDecimal getTotal() {
+		return getSubtotal().add(getTax());
+	}
+
+	/**
+	 * Suma de las cantidades de todas las lineas
+	 * 
+	 * @return long
+	 */
+	public long getItems() {
+		return items;
+	}
+
+	/**
+	 * Numero de lineas (productos)
+	 * 
+	 * @return int
+	 */
+	public int getLines() {
+		return lines;
+	}
+
+	/**
+	 * Precio unitario mas bajo
+	 * 
+	 * @return Double o null si no hay lineas
+	 */
+	public Double getMinPrice() {
+		Map.Entry<Double, Integer> entry = prices.firstEntry();
+		return entry == null ? null : entry.getKey();
+	}
+
+	/**
+	 * Precio unitario mas alto
+	 * 
+	 * @return Double o null si no hay lineas
+	 */
+	public Double getMaxPrice() {
+		Map.Entry<Double, Integer> entry = prices.lastEntry();
+		return entry == null ? null : entry.getKey();
+	}
+}
@@ -0,0 +1,138 @@
+package com.aitorarias.util;
+
+import java.math.BigDecimal;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductListener;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Mantiene los totales de la factura al dia con la lista de productos. Cada cambio
+ * (alta, baja, cantidad o precio) suma o resta solo la linea afectada en un InvoiceSummary.
+ * 
+ * Solo se usa desde el hilo de JavaFX.
+ * 
+ * @author AitorArias
+ *
+ */
+public class InvoiceTotals {
+
+	private final InvoiceSummary summary = new InvoiceSummary();
+	private Runnable onChange;
+	// Lotes de cambios abiertos y si ha habido algun cambio dentro
+	private int batchDepth;
+	private boolean changedInBatch;
+
+	// Un solo listener para todos los productos. No usa sus propiedades, asi no se crean para todas las filas.
+	private final ProductListener productListener = new ProductListener() {
+		@Override
+		public void nameChanged(Product product, String oldName) {
+			// El nombre no cuenta para los totales
+		}
+
+		@Override
+		public void cantidadChanged(Product product, int oldCantidad) {
+			summary.changeCantidad(oldCantidad, product.getCantidad(), product.getUnitPrice());
+			changed();
+		}
+
+		@Override
+		public void precioChanged(Product product, double oldPrecio) {
+			summary.changePrecio(product.getCantidad(), oldPrecio, product.getUnitPrice());
+			changed();
+		}
+	};
+
+	/**
+	 * Suma la lista y se queda escuchando sus cambios
+	 * 
+	 * @param products ObservableList<Product>
+	 */
+	public InvoiceTotals(ObservableList<Product> products) {
+		for (Product product : products) {
+			add(product);
+		}
+		products.addListener((ListChangeListener<Product>) change -> {
+			while (change.next()) {
+				// Ordenar no cambia los totales
+				if (change.wasPermutated()) {
+					continue;
+				}
+				for (Product product : change.getRemoved()) {
+					remove(product);
+				}
+				for (Product product : change.getAddedSubList()) {
+					add(product);
+				}
+			}
+			changed();
+		});
+	}
+
+	/**
+	 * Se ejecuta cada vez que cambian los totales
+	 * 
+	 * @param onChange Runnable
+	 */
+	public void setOnChange(Runnable onChange) {
+		this.onChange = onChange;
+	}
+
+	/**
+	 * Empieza un lote de cambios: hasta endBatch() no se avisa con onChange, y al final se avisa una sola vez
+	 */
+	public void beginBatch() {
+		batchDepth++;
+	}
+
+	/**
+	 * Termina el lote de cambios y avisa si ha cambiado algo
+	 */
+	public void endBatch() {
+		if (--batchDepth == 0 && changedInBatch) {
+			changedInBatch = false;
+			changed();
+		}
+	}
+
+	private void changed() {
+		if (batchDepth > 0) {
+			changedInBatch = true;
+			return;
+		}
+		if (onChange != null) {
+			onChange.run();
+		}
+	}
+
+	private void add(Product product) {
+		summary.addLine(product.getCantidad(), product.getUnitPrice());
+		product.addListener(productListener);
+	}
+
+	private void remove(Product product) {
+		product.removeListener(productListener);
+		summary.removeLine(product.getCantidad(), product.getUnitPrice());
+	}
+
+	/**
+	 * Cambia el tipo de IVA y avisa con onChange
+	 * 
+	 * @param taxRate BigDecimal tanto por uno, no negativo
+	 */
+	public void setTaxRate(BigDecimal taxRate) {
+		summary.setTaxRate(taxRate);
+		changed();
+	}
+
+	/**
+	 * Totales actuales. No hay que modificarlos desde fuera.
+	 * 
+	 * @return InvoiceSummary
+	 */
+	public InvoiceSummary getSummary() {
+		return summary;
+	}
+}
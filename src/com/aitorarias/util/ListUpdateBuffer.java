@@ -0,0 +1,124 @@
+package com.aitorarias.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javafx.animation.AnimationTimer;
+import javafx.collections.ObservableList;
+
+/**
+ * Acumula elementos que llegan desde cualquier hilo y los aplica a una ObservableList
+ * una sola vez por pulso de JavaFX (unos 16 ms), como mucho maxPerPulse elementos cada vez.
+ * Asi la tabla recibe un evento por trozo y no uno por fila, y se puede usar desde el primer trozo.
+ * 
+ * Se crea y se arranca desde el hilo de JavaFX.
+ * 
+ * @author AitorArias
+ *
+ * @param <T> tipo de los elementos de la lista
+ */
+public class ListUpdateBuffer<T> {
+
+	private final ObservableList<T> target;
+	private final int maxPerPulse;
+	private final ConcurrentLinkedQueue<List<? extends T>> pending = new ConcurrentLinkedQueue<>();
+	private final AnimationTimer timer;
+	// Posicion dentro del primer lote de la cola cuando no cabe entero en un pulso
+	private int headOffset;
+	// Solo los tocan el hilo de JavaFX
+	private boolean replace;
+	private volatile boolean finished;
+	private Runnable onDrained;
+
+	/**
+	 * Constructor usando los campos
+	 * 
+	 * @param target      ObservableList<T>
+	 * @param maxPerPulse int
+	 */
+	public ListUpdateBuffer(ObservableList<T> target, int maxPerPulse) {
+		this.target = target;
+		this.maxPerPulse = maxPerPulse;
+		this.timer = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				applyPending();
+			}
+		};
+	}
+
+	/**
+	 * Lo que hay que hacer cuando, despues de finish(), ya se ha aplicado todo a la lista.
+	 * Se ejecuta en el hilo de JavaFX.
+	 * 
+	 * @param onDrained Runnable
+	 */
+	public void setOnDrained(Runnable onDrained) {
+		this.onDrained = onDrained;
+	}
+
+	/**
+	 * Empieza a aplicar lo que llegue. Si replace es true el primer trozo sustituye el contenido
+	 * de la lista con un setAll, en vez de vaciarla antes y dejar la tabla en blanco.
+	 * 
+	 * @param replace boolean
+	 */
+	public void start(boolean replace) {
+		this.replace = replace;
+		this.finished = false;
+		timer.start();
+	}
+
+	/**
+	 * Encola un lote. Se puede llamar desde cualquier hilo.
+	 * 
+	 * @param batch List<? extends T>
+	 */
+	public void add(List<? extends T> batch) {
+		if (!batch.isEmpty()) {
+			pending.add(batch);
+		}
+	}
+
+	/**
+	 * Indica que no van a llegar mas lotes. El buffer se para solo cuando lo ha aplicado todo.
+	 * Se puede llamar desde cualquier hilo.
+	 */
+	public void finish() {
+		finished = true;
+	}
+
+	/**
+	 * Aplica como mucho maxPerPulse elementos con una sola llamada a la lista
+	 */
+	private void applyPending() {
+		List<T> chunk = new ArrayList<>(maxPerPulse);
+		List<? extends T> head;
+		while (chunk.size() < maxPerPulse && (head = pending.peek()) != null) {
+			int end = Math.min(head.size(), headOffset + maxPerPulse - chunk.size());
+			chunk.addAll(head.subList(headOffset, end));
+			if (end == head.size()) {
+				pending.poll();
+				headOffset = 0;
+			} else {
+				headOffset = end;
+			}
+		}
+		if (replace) {
+			// Solo sustituimos cuando ya hay algo o cuando la carga termina vacia
+			if (!chunk.isEmpty() || finished) {
+				target.setAll(chunk);
+				replace = false;
+			}
+		} else if (!chunk.isEmpty()) {
+			target.addAll(chunk);
+		}
+		if (finished && pending.isEmpty() && !replace) {
+			timer.stop();
+			if (onDrained != null) {
+				onDrained.run();
+			}
+		}
+	}
+}
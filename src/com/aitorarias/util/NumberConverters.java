@@ -0,0 +1,44 @@
+package com.aitorarias.util;
+
+import javafx.util.StringConverter;
+
+/**
+ * Conversores para editar en la tabla las columnas numericas, que son de tipo Number para poder
+ * usar directamente las IntegerProperty y DoubleProperty de Product.
+ * Sin separador de miles ni formato de idioma: lo mismo que IntegerStringConverter y DoubleStringConverter.
+ * 
+ * @author AitorArias
+ *
+ */
+public class NumberConverters {
+
+	public static final StringConverter<Number> INTEGER = new StringConverter<Number>() {
+		@Override
+		public String toString(Number value) {
+			return value == null ? "" : Integer.toString(value.intValue());
+		}
+
+		@Override
+		public Number fromString(String text) {
+			if (text == null || text.trim().isEmpty()) {
+				return null;
+			}
+			return Integer.valueOf(text.trim());
+		}
+	};
+
+	public static final StringConverter<Number> DOUBLE = new StringConverter<Number>() {
+		@Override
+		public String toString(Number value) {
+			return value == null ? "" : Double.toString(value.doubleValue());
+		}
+
+		@Override
+		public Number fromString(String text) {
+			if (text == null || text.trim().isEmpty()) {
+				return null;
+			}
+			return Double.valueOf(text.trim());
+		}
+	};
+}
@@ -0,0 +1,222 @@
+package com.aitorarias.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+
+import com.aitorarias.entity.Product;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+
+/**
+ * Lista de solo lectura sobre un archivo de productos en disco. Solo tiene en memoria unas
+ * pocas paginas (las ultimas usadas); cuando la tabla pide una fila de otra pagina la pagina se lee
+ * del archivo en otro hilo usando el ProductXmlIndex, y mientras tanto la fila es un producto de relleno
+ * (ver isPlaceholder()). La memoria usada no depende del tamaño del catalogo y el hilo de JavaFX
+ * nunca espera al disco.
+ *
+ * Si no se puede leer una pagina sus filas pasan a ser otro relleno, getError() devuelve el error
+ * y no se vuelve a intentar hasta retry().
+ *
+ * Solo se usa desde el hilo de JavaFX.
+ *
+ * @author AitorArias
+ *
+ */
+public class PagedProductList extends ObservableListBase<Product> {
+
+	private final ProductXmlIndex index;
+	private final int maxPages;
+	private final Map<Integer, List<Product>> pages;
+	// Paginas que esta leyendo el hilo de carga y paginas que no se han podido leer
+	private final Set<Integer> loading = new HashSet<>();
+	private final Set<Integer> failed = new HashSet<>();
+	// Filas de las paginas que aun no estan en memoria o que no se han podido leer
+	private final Product loadingRow = new Product("Cargando...", 0, 0, null);
+	private final Product errorRow = new Product("No se ha podido leer", 0, 0, null);
+	// Un solo hilo para leer el archivo
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "catalog-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Paginas pedidas hasta ahora; lo lee el hilo de carga para saltarse las que ya no hacen falta
+	private volatile int requests;
+	private Exception error;
+	private Runnable onChange;
+
+	/**
+	 * Constructor
+	 *
+	 * @param index    ProductXmlIndex
+	 * @param maxPages int paginas como mucho en memoria
+	 */
+	public PagedProductList(ProductXmlIndex index, int maxPages) {
+		this.index = index;
+		this.maxPages = maxPages;
+		// LinkedHashMap en orden de acceso: la primera es siempre la menos usada
+		this.pages = new LinkedHashMap<Integer, List<Product>>(maxPages, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, List<Product>> eldest) {
+				return size() > maxPages;
+			}
+		};
+	}
+
+	/**
+	 * Se ejecuta cada vez que llega una pagina o falla una lectura, por ejemplo para refrescar la tabla
+	 *
+	 * @param onChange Runnable
+	 */
+	public void setOnChange(Runnable onChange) {
+		this.onChange = onChange;
+	}
+
+	@Override
+	public Product get(int i) {
+		if (i < 0 || i >= index.size()) {
+			throw new IndexOutOfBoundsException("Indice: " + i + ", tamaño: " + index.size());
+		}
+		int page = i / index.getPageSize();
+		List<Product> products = pages.get(page);
+		if (products != null) {
+			return products.get(i % index.getPageSize());
+		}
+		if (failed.contains(page)) {
+			return errorRow;
+		}
+		requestPage(page);
+		return loadingRow;
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Indica si el producto es un relleno de una fila que no esta en memoria
+	 *
+	 * @param product Product
+	 * @return boolean
+	 */
+	public boolean isPlaceholder(Product product) {
+		return product == loadingRow || product == errorRow;
+	}
+
+	/**
+	 * Ultimo error al leer el archivo
+	 *
+	 * @return Exception o null si no ha habido ninguno desde retry()
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	/**
+	 * Olvida los errores: las paginas que fallaron se vuelven a leer cuando se pidan
+	 */
+	public void retry() {
+		failed.clear();
+		error = null;
+		changed();
+	}
+
+	/**
+	 * Lee en el hilo de carga los productos de unas filas, esten o no en memoria
+	 *
+	 * @param rows     int[]
+	 * @param onLoaded Consumer<List<Product>> recibe los productos en el orden de rows, en el hilo de JavaFX.
+	 *                 Si falla la lectura no se llama y el error queda en getError().
+	 */
+	public void readRows(int[] rows, Consumer<List<Product>> onLoaded) {
+		int pageSize = index.getPageSize();
+		// Las paginas que ya estan en memoria no se vuelven a leer
+		Map<Integer, List<Product>> known = new HashMap<>();
+		for (int row : rows) {
+			List<Product> products = pages.get(row / pageSize);
+			if (products != null) {
+				known.put(row / pageSize, products);
+			}
+		}
+		loader.submit(() -> {
+			try {
+				List<Product> result = new ArrayList<>(rows.length);
+				for (int row : rows) {
+					List<Product> products = known.get(row / pageSize);
+					if (products == null) {
+						products = index.readPage(row / pageSize);
+						known.put(row / pageSize, products);
+					}
+					result.add(products.get(row % pageSize));
+				}
+				Platform.runLater(() -> onLoaded.accept(result));
+			} catch (IOException | XMLStreamException | JAXBException | RuntimeException e) {
+				Platform.runLater(() -> failed(e));
+			}
+		});
+	}
+
+	/**
+	 * Para el hilo de carga. Las paginas que falten se quedan como relleno.
+	 */
+	public void shutdown() {
+		loader.shutdownNow();
+	}
+
+	private void requestPage(int page) {
+		if (loader.isShutdown() || !loading.add(page)) {
+			return;
+		}
+		int request = ++requests;
+		loader.submit(() -> {
+			// Despues se han pedido tantas paginas que esta ya no estaria en memoria: la tabla ha pasado de largo
+			if (requests - request >= maxPages) {
+				Platform.runLater(() -> loading.remove(page));
+				return;
+			}
+			try {
+				List<Product> products = index.readPage(page);
+				Platform.runLater(() -> pageLoaded(page, products));
+			} catch (IOException | XMLStreamException | JAXBException | RuntimeException e) {
+				Platform.runLater(() -> {
+					loading.remove(page);
+					failed.add(page);
+					failed(new IOException("Error al leer la pagina " + page + " de " + index.getFile().getName()
+							+ ": " + e.getMessage(), e));
+				});
+			}
+		});
+	}
+
+	private void pageLoaded(int page, List<Product> products) {
+		loading.remove(page);
+		pages.put(page, products);
+		changed();
+	}
+
+	private void failed(Exception e) {
+		error = e;
+		changed();
+	}
+
+	private void changed() {
+		if (onChange != null) {
+			onChange.run();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.aitorarias.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductColumnStore;
+
+/**
+ * Formato binario compacto para volver a abrir rapido facturas muy grandes.
+ * 
+ * Estructura del archivo (big-endian):
+ * - Cabecera de 32 bytes: "XJFB", version, numero de productos, numero de cadenas,
+ *   posicion de la tabla de cadenas y generacion del documento (0 si no tiene, ver ChangeJournal).
+ * - Un registro de 24 bytes por producto: indice del nombre, cantidad, precio,
+ *   indice de la ruta de la imagen e indice del digest (-1 si es null).
+ * - La tabla de cadenas al final: por cada cadena su longitud en bytes y su UTF-8.
+ * 
+ * Como los registros tienen tamaño fijo y la tabla de cadenas va al final, se puede
+ * escribir en streaming y leer mapeando el archivo en memoria.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductBinaryFile {
+
+	public static final String EXTENSION = ".xbin";
+
+	private static final int MAGIC = 0x584A4642; // "XJFB"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int GENERATION_OFFSET = 24;
+	private static final int RECORD_SIZE = 24;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Registros que caben en un solo mapeo (un MappedByteBuffer no puede pasar de 2 GB)
+	private static final int RECORDS_PER_MAPPING = Integer.MAX_VALUE / RECORD_SIZE;
+
+	/**
+	 * Mira los primeros bytes para saber si es un archivo binario de productos
+	 * 
+	 * @param file File
+	 * @return boolean
+	 * @throws IOException
+	 */
+	public static boolean isBinaryFile(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic) > 0) {
+				// seguimos leyendo
+			}
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Abre un escritor en streaming (sobreescribe el archivo si existe)
+	 * 
+	 * @param file File
+	 * @return ProductWriter
+	 * @throws IOException
+	 */
+	public static ProductWriter openWriter(File file) throws IOException {
+		return openWriter(file, 0);
+	}
+
+	/**
+	 * Abre un escritor en streaming guardando copias de las versiones anteriores del archivo
+	 * 
+	 * @param file    File
+	 * @param backups int copias que se guardan (archivo.bak1, archivo.bak2...)
+	 * @return ProductWriter
+	 * @throws IOException
+	 */
+	public static ProductWriter openWriter(File file, int backups) throws IOException {
+		return openWriter(file, backups, 0);
+	}
+
+	/**
+	 * Abre un escritor en streaming que guarda tambien la generacion del documento
+	 * 
+	 * @param file       File
+	 * @param backups    int copias que se guardan (archivo.bak1, archivo.bak2...)
+	 * @param generation long
+	 * @return ProductWriter
+	 * @throws IOException
+	 */
+	public static ProductWriter openWriter(File file, int backups, long generation) throws IOException {
+		return new BinaryWriter(file, backups, generation);
+	}
+
+	/**
+	 * Lee solo la generacion de la cabecera
+	 * 
+	 * @param file File
+	 * @return long
+	 * @throws IOException si el archivo no es valido
+	 */
+	public static long readGeneration(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) > 0) {
+				// seguimos leyendo
+			}
+			if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+				throw new IOException("No es un archivo binario de productos");
+			}
+			return header.getLong(GENERATION_OFFSET);
+		}
+	}
+
+	/**
+	 * Lee el archivo entero a un almacen por columnas, mapeandolo en memoria
+	 * 
+	 * @param file File
+	 * @return ProductColumnStore
+	 * @throws IOException si el archivo no es valido o esta corrupto
+	 */
+	public static ProductColumnStore read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE) {
+				throw new IOException("Archivo binario demasiado corto");
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("No es un archivo binario de productos");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Version no soportada: " + version);
+			}
+			int count = header.getInt();
+			int stringCount = header.getInt();
+			long stringTableOffset = header.getLong();
+			// Los registros tienen que caber antes de la tabla de cadenas, y cada cadena ocupa al menos su longitud
+			if (count < 0 || stringCount < 0 || stringTableOffset != HEADER_SIZE + (long) count * RECORD_SIZE
+					|| stringTableOffset > fileSize || (long) stringCount * 4 > fileSize - stringTableOffset) {
+				throw new IOException("Cabecera del archivo binario corrupta: " + count + " productos, " + stringCount
+						+ " cadenas, tabla de cadenas en " + stringTableOffset + " de " + fileSize + " bytes");
+			}
+			if (fileSize - stringTableOffset > Integer.MAX_VALUE) {
+				throw new IOException("Tabla de cadenas demasiado grande: " + (fileSize - stringTableOffset) + " bytes");
+			}
+
+			// Primero las cadenas, en el mismo orden en que se escribieron
+			StringPool strings = new StringPool();
+			MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, stringTableOffset,
+					fileSize - stringTableOffset);
+			byte[] bytes = new byte[256];
+			for (int i = 0; i < stringCount; i++) {
+				if (table.remaining() < 4) {
+					throw new IOException("Tabla de cadenas cortada en la cadena " + i + " de " + stringCount);
+				}
+				int length = table.getInt();
+				if (length < 0 || length > table.remaining()) {
+					throw new IOException("Longitud no valida en la cadena " + i + ": " + length);
+				}
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				table.get(bytes, 0, length);
+				strings.intern(new String(bytes, 0, length, StandardCharsets.UTF_8));
+			}
+
+			// Despues los registros
+			ProductColumnStore store = new ProductColumnStore(strings);
+			for (int first = 0; first < count; first += RECORDS_PER_MAPPING) {
+				int records = Math.min(RECORDS_PER_MAPPING, count - first);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+						HEADER_SIZE + (long) first * RECORD_SIZE, (long) records * RECORD_SIZE);
+				for (int i = 0; i < records; i++) {
+					int name = buffer.getInt();
+					int cantidad = buffer.getInt();
+					double precio = buffer.getDouble();
+					int filePath = buffer.getInt();
+					int imageDigest = buffer.getInt();
+					if (!ProductValidator.isNumber(precio)) {
+						throw new IOException("Precio no valido en el producto " + (first + i) + ": " + precio);
+					}
+					if (!isStringIndex(name, stringCount) || !isStringIndex(filePath, stringCount)
+							|| !isStringIndex(imageDigest, stringCount)) {
+						throw new IOException("Indice de cadena no valido en el producto " + (first + i));
+					}
+					store.addIndexes(name, cantidad, precio, filePath, imageDigest);
+				}
+			}
+			return store;
+		}
+	}
+
+	private static boolean isStringIndex(int index, int stringCount) {
+		return index == StringPool.NULL_INDEX || (index >= 0 && index < stringCount);
+	}
+
+	/**
+	 * Escritor del formato binario. Las cadenas se van guardando en un StringPool
+	 * y se escriben al cerrar, despues de los registros.
+	 */
+	private static class BinaryWriter implements ProductWriter {
+
+		private final AtomicFile atomicFile;
+		private final FileChannel channel;
+		private final DataOutputStream output;
+		private final StringPool strings = new StringPool();
+		private final long generation;
+		private int count;
+
+		BinaryWriter(File file, int backups, long generation) throws IOException {
+			this.generation = generation;
+			this.atomicFile = new AtomicFile(file, backups);
+			this.channel = atomicFile.open();
+			this.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+			try {
+				// Hueco para la cabecera, se rellena al cerrar
+				output.write(new byte[HEADER_SIZE]);
+			} catch (IOException e) {
+				atomicFile.abort();
+				throw e;
+			}
+		}
+
+		@Override
+		public void write(Product product, String filePath, String imageDigest) throws IOException {
+			output.writeInt(strings.intern(product.getName()));
+			output.writeInt(product.getCantidad());
+			output.writeDouble(product.getUnitPrice());
+			output.writeInt(strings.intern(filePath));
+			output.writeInt(strings.intern(imageDigest));
+			count++;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				long stringTableOffset = HEADER_SIZE + (long) count * RECORD_SIZE;
+				for (int i = 0; i < strings.size(); i++) {
+					byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+					output.writeInt(bytes.length);
+					output.write(bytes);
+				}
+				output.flush();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(strings.size()).putLong(stringTableOffset)
+						.putLong(generation);
+				header.rewind();
+				channel.write(header, 0);
+			} catch (IOException e) {
+				atomicFile.abort();
+				throw e;
+			} finally {
+				output.close();
+			}
+			atomicFile.commit();
+		}
+
+		@Override
+		public void abort() {
+			atomicFile.abort();
+		}
+	}
+}
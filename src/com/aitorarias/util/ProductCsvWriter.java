@@ -0,0 +1,91 @@
+package com.aitorarias.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Escribe productos en un .csv (separado por comas, con comillas cuando hace falta, en UTF-8).
+ * Mismas columnas que el xml. Se comprime si la extension lo pide, por ejemplo .csv.gz
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductCsvWriter implements ProductWriter {
+
+	public static final String EXTENSION = ".csv";
+	private static final String HEADER = "name,cantidad,unitPrice,filePath,imageDigest";
+
+	private final AtomicFile atomicFile;
+	private final Writer writer;
+
+	/**
+	 * Crea el archivo y escribe la cabecera
+	 * 
+	 * @param file File
+	 * @throws IOException
+	 */
+	public ProductCsvWriter(File file) throws IOException {
+		this.atomicFile = new AtomicFile(file, 0);
+		try {
+			this.writer = new BufferedWriter(new OutputStreamWriter(
+					StreamCodecs.encode(file, Channels.newOutputStream(atomicFile.open())), StandardCharsets.UTF_8),
+					64 * 1024);
+			writer.write(HEADER);
+			writer.write("\r\n");
+		} catch (IOException e) {
+			atomicFile.abort();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(Product product, String filePath, String imageDigest) throws IOException {
+		writeField(product.getName());
+		writer.write(',');
+		writer.write(Integer.toString(product.getCantidad()));
+		writer.write(',');
+		writer.write(Double.toString(product.getUnitPrice()));
+		writer.write(',');
+		writeField(filePath);
+		writer.write(',');
+		writeField(imageDigest);
+		writer.write("\r\n");
+	}
+
+	private void writeField(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		// Referencia: https://tools.ietf.org/html/rfc4180
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			writer.write(value);
+			return;
+		}
+		writer.write('"');
+		writer.write(value.replace("\"", "\"\""));
+		writer.write('"');
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writer.close();
+		} catch (IOException e) {
+			atomicFile.abort();
+			throw e;
+		}
+		atomicFile.commit();
+	}
+
+	@Override
+	public void abort() {
+		atomicFile.abort();
+	}
+}
@@ -0,0 +1,136 @@
+package com.aitorarias.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.aitorarias.entity.Product;
+
+import javafx.collections.ObservableList;
+
+/**
+ * Operaciones por posicion sobre la lista de productos. Quitar por posicion no tiene que buscar
+ * el producto con equals() como list.remove(product), y varias filas se quitan con pocos cambios
+ * de la lista en vez de uno por fila. Igual para volver a ponerlas al deshacer.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductListOps {
+
+	// Con mas tramos seguidos que estos sale mas barato rehacer la lista de una vez
+	private static final int MAX_RANGES = 32;
+	// Los precios se redondean a centimos
+	private static final int PRICE_SCALE = 2;
+	private static final BigDecimal ONE_HUNDRED = BigDecimal.valueOf(100);
+
+	/**
+	 * Calcula el precio de varios productos subido o bajado un porcentaje, redondeando a centimos.
+	 * No cambia los productos.
+	 * 
+	 * @param products List<Product>
+	 * @param indexes  int[] posiciones en products
+	 * @param percent  BigDecimal por ejemplo 10 sube un 10% y -5 baja un 5%
+	 * @return double[] el precio nuevo de cada posicion de indexes
+	 */
+	public static double[] changedPrices(List<Product> products, int[] indexes, BigDecimal percent) {
+		BigDecimal factor = BigDecimal.ONE.add(percent.divide(ONE_HUNDRED));
+		double[] precios = new double[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			precios[i] = BigDecimal.valueOf(products.get(indexes[i]).getUnitPrice()).multiply(factor)
+					.setScale(PRICE_SCALE, RoundingMode.HALF_UP).doubleValue();
+		}
+		return precios;
+	}
+
+	/**
+	 * Inserta elementos en sus posiciones de la lista final, con pocos cambios de la lista.
+	 * Es lo contrario de removeAll.
+	 * 
+	 * @param list    ObservableList<T>
+	 * @param indexes int[] posiciones en la lista final, de menor a mayor
+	 * @param items   T[] el elemento de cada posicion de indexes
+	 */
+	public static <T> void insertAll(ObservableList<T> list, int[] indexes, T[] items) {
+		int ranges = 0;
+		for (int i = 0; i < indexes.length; i++) {
+			if (i == 0 || indexes[i] != indexes[i - 1] + 1) {
+				ranges++;
+			}
+		}
+		if (ranges <= MAX_RANGES) {
+			// De delante atras: cada tramo va a su sitio porque los anteriores ya estan puestos
+			int start = 0;
+			while (start < indexes.length) {
+				int end = start + 1;
+				while (end < indexes.length && indexes[end] == indexes[end - 1] + 1) {
+					end++;
+				}
+				list.addAll(indexes[start], Arrays.asList(items).subList(start, end));
+				start = end;
+			}
+		} else {
+			List<T> merged = new ArrayList<>(list.size() + indexes.length);
+			int next = 0;
+			for (T item : list) {
+				while (next < indexes.length && indexes[next] == merged.size()) {
+					merged.add(items[next++]);
+				}
+				merged.add(item);
+			}
+			while (next < indexes.length) {
+				merged.add(items[next++]);
+			}
+			list.setAll(merged);
+		}
+	}
+
+	/**
+	 * Quita los elementos de varias posiciones. Las posiciones seguidas se quitan de una vez con remove(from, to).
+	 * 
+	 * @param list    ObservableList<T>
+	 * @param indexes int[] posiciones en cualquier orden, sin repetir
+	 * @return int[] las posiciones quitadas de mayor a menor: quitandolas una a una en ese orden
+	 *         se llega a la misma lista (asi se apuntan en el diario)
+	 */
+	public static <T> int[] removeAll(ObservableList<T> list, int[] indexes) {
+		int[] sorted = indexes.clone();
+		Arrays.sort(sorted);
+		int ranges = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1] + 1) {
+				ranges++;
+			}
+		}
+		if (ranges <= MAX_RANGES) {
+			// De atras adelante, asi quitar un tramo no mueve los que quedan por quitar
+			int end = sorted.length;
+			while (end > 0) {
+				int start = end - 1;
+				while (start > 0 && sorted[start - 1] == sorted[start] - 1) {
+					start--;
+				}
+				list.remove(sorted[start], sorted[end - 1] + 1);
+				end = start;
+			}
+		} else {
+			List<T> kept = new ArrayList<>(list.size() - sorted.length);
+			int next = 0;
+			for (int i = 0; i < list.size(); i++) {
+				if (next < sorted.length && sorted[next] == i) {
+					next++;
+				} else {
+					kept.add(list.get(i));
+				}
+			}
+			list.setAll(kept);
+		}
+		int[] descending = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			descending[i] = sorted[sorted.length - 1 - i];
+		}
+		return descending;
+	}
+}
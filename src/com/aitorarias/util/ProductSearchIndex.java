@@ -0,0 +1,299 @@
+package com.aitorarias.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductListener;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Indice en memoria para buscar productos sin recorrer toda la lista en cada tecla.
+ * 
+ * - Nombre: indice de trigramas (trozos de 3 letras) para buscar texto en cualquier parte del
+ *   nombre. Las busquedas de 1 o 2 letras no tienen trigramas: se mira si cada nombre distinto
+ *   contiene el texto, asi buscan lo mismo que las largas (en cualquier parte, no solo al principio).
+ * - Precio y cantidad: TreeMap por valor para buscar por rangos.
+ * 
+ * Se mantiene solo: escucha los cambios de la lista y de los valores de cada producto.
+ * Solo se usa desde el hilo de JavaFX.
+ * 
+ * Sintaxis de busqueda: texto libre para el nombre, y precio:min-max o cantidad:min-max
+ * para los rangos (se puede omitir un extremo, por ejemplo precio:10-).
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductSearchIndex {
+
+	private static final int GRAM = 3;
+
+	private final Map<String, Set<Product>> trigrams = new HashMap<>();
+	// Nombre normalizado -> productos con ese nombre
+	private final Map<String, Set<Product>> names = new HashMap<>();
+	private final TreeMap<Double, Set<Product>> precios = new TreeMap<>();
+	private final TreeMap<Integer, Set<Product>> cantidades = new TreeMap<>();
+	private Runnable onChange;
+	// Lotes de cambios abiertos y si ha habido algun cambio dentro
+	private int batchDepth;
+	private boolean changedInBatch;
+
+	// Un solo listener para todos los productos. No usa sus propiedades, asi no se crean para todas las filas.
+	private final ProductListener productListener = new ProductListener() {
+		@Override
+		public void nameChanged(Product product, String oldName) {
+			removeName(product, oldName);
+			addName(product, product.getName());
+			changed();
+		}
+
+		@Override
+		public void cantidadChanged(Product product, int oldCantidad) {
+			removeFrom(cantidades, oldCantidad, product);
+			addTo(cantidades, product.getCantidad(), product);
+			changed();
+		}
+
+		@Override
+		public void precioChanged(Product product, double oldPrecio) {
+			removeFrom(precios, oldPrecio, product);
+			addTo(precios, product.getUnitPrice(), product);
+			changed();
+		}
+	};
+
+	/**
+	 * Indexa la lista y se queda escuchando sus cambios
+	 * 
+	 * @param products ObservableList<Product>
+	 */
+	public ProductSearchIndex(ObservableList<Product> products) {
+		for (Product product : products) {
+			add(product);
+		}
+		products.addListener((ListChangeListener<Product>) change -> {
+			while (change.next()) {
+				// Un cambio de permutacion (ordenar) no cambia el contenido
+				if (change.wasPermutated()) {
+					continue;
+				}
+				for (Product product : change.getRemoved()) {
+					remove(product);
+				}
+				for (Product product : change.getAddedSubList()) {
+					add(product);
+				}
+			}
+			changed();
+		});
+	}
+
+	/**
+	 * Se ejecuta cada vez que cambia el indice, por ejemplo para volver a aplicar la busqueda
+	 * 
+	 * @param onChange Runnable
+	 */
+	public void setOnChange(Runnable onChange) {
+		this.onChange = onChange;
+	}
+
+	/**
+	 * Empieza un lote de cambios: hasta endBatch() no se avisa con onChange, y al final se avisa una sola vez
+	 */
+	public void beginBatch() {
+		batchDepth++;
+	}
+
+	/**
+	 * Termina el lote de cambios y avisa si ha cambiado algo
+	 */
+	public void endBatch() {
+		if (--batchDepth == 0 && changedInBatch) {
+			changedInBatch = false;
+			changed();
+		}
+	}
+
+	private void changed() {
+		if (batchDepth > 0) {
+			changedInBatch = true;
+			return;
+		}
+		if (onChange != null) {
+			onChange.run();
+		}
+	}
+
+	private void add(Product product) {
+		addName(product, product.getName());
+		addTo(precios, product.getUnitPrice(), product);
+		addTo(cantidades, product.getCantidad(), product);
+		product.addListener(productListener);
+	}
+
+	private void remove(Product product) {
+		product.removeListener(productListener);
+		removeName(product, product.getName());
+		removeFrom(precios, product.getUnitPrice(), product);
+		removeFrom(cantidades, product.getCantidad(), product);
+	}
+
+	private void addName(Product product, String name) {
+		String key = normalize(name);
+		addTo(names, key, product);
+		for (int i = 0; i + GRAM <= key.length(); i++) {
+			addTo(trigrams, key.substring(i, i + GRAM), product);
+		}
+	}
+
+	private void removeName(Product product, String name) {
+		String key = normalize(name);
+		removeFrom(names, key, product);
+		for (int i = 0; i + GRAM <= key.length(); i++) {
+			removeFrom(trigrams, key.substring(i, i + GRAM), product);
+		}
+	}
+
+	private static String normalize(String name) {
+		return name == null ? "" : name.toLowerCase(Locale.ROOT);
+	}
+
+	private static <K> void addTo(Map<K, Set<Product>> map, K key, Product product) {
+		map.computeIfAbsent(key, k -> new HashSet<>(2)).add(product);
+	}
+
+	private static <K> void removeFrom(Map<K, Set<Product>> map, K key, Product product) {
+		Set<Product> set = map.get(key);
+		if (set != null && set.remove(product) && set.isEmpty()) {
+			map.remove(key);
+		}
+	}
+
+	/**
+	 * Busca los productos que cumplen la consulta
+	 * 
+	 * @param query String
+	 * @return Set<Product> o null si la consulta esta vacia (todos los productos)
+	 */
+	public Set<Product> search(String query) {
+		String text = "";
+		Double minPrecio = null;
+		Double maxPrecio = null;
+		Integer minCantidad = null;
+		Integer maxCantidad = null;
+		for (String token : query.trim().split("\\s+")) {
+			String lower = token.toLowerCase(Locale.ROOT);
+			if (lower.startsWith("precio:")) {
+				String[] range = parseRange(lower.substring("precio:".length()));
+				minPrecio = range[0].isEmpty() ? null : Double.valueOf(range[0]);
+				maxPrecio = range[1].isEmpty() ? null : Double.valueOf(range[1]);
+			} else if (lower.startsWith("cantidad:")) {
+				String[] range = parseRange(lower.substring("cantidad:".length()));
+				minCantidad = range[0].isEmpty() ? null : Integer.valueOf(range[0]);
+				maxCantidad = range[1].isEmpty() ? null : Integer.valueOf(range[1]);
+			} else if (!lower.isEmpty()) {
+				text = text.isEmpty() ? lower : text + " " + lower;
+			}
+		}
+		boolean byPrecio = minPrecio != null || maxPrecio != null;
+		boolean byCantidad = minCantidad != null || maxCantidad != null;
+		if (text.isEmpty() && !byPrecio && !byCantidad) {
+			return null;
+		}
+
+		// Partimos del conjunto de candidatos que da el indice mas selectivo disponible
+		Collection<Product> candidates;
+		if (!text.isEmpty()) {
+			candidates = searchText(text);
+		} else if (byPrecio) {
+			candidates = union(range(precios, minPrecio, maxPrecio));
+		} else {
+			candidates = union(range(cantidades, minCantidad, maxCantidad));
+		}
+		// y el resto de condiciones se comprueban sobre esos candidatos
+		Set<Product> result = new HashSet<>();
+		for (Product product : candidates) {
+			if (byPrecio && !inRange(product.getUnitPrice(), minPrecio, maxPrecio)) {
+				continue;
+			}
+			if (byCantidad && !inRange(product.getCantidad(), minCantidad, maxCantidad)) {
+				continue;
+			}
+			result.add(product);
+		}
+		return result;
+	}
+
+	/**
+	 * "10-20" -> {"10", "20"}, "10-" -> {"10", ""}, "10" -> {"10", "10"}
+	 */
+	private static String[] parseRange(String range) {
+		int dash = range.indexOf('-', 1);
+		if (dash < 0) {
+			return new String[] { range, range };
+		}
+		return new String[] { range.substring(0, dash), range.substring(dash + 1) };
+	}
+
+	private Collection<Product> searchText(String text) {
+		if (text.length() < GRAM) {
+			// Busqueda corta: cada nombre distinto se mira una sola vez aunque lo tengan muchos productos
+			Set<Product> result = new HashSet<>();
+			for (Map.Entry<String, Set<Product>> entry : names.entrySet()) {
+				if (entry.getKey().contains(text)) {
+					result.addAll(entry.getValue());
+				}
+			}
+			return result;
+		}
+		// El trigrama menos frecuente da los candidatos, y despues se comprueba el texto entero
+		Set<Product> smallest = null;
+		for (int i = 0; i + GRAM <= text.length(); i++) {
+			Set<Product> set = trigrams.get(text.substring(i, i + GRAM));
+			if (set == null) {
+				return new HashSet<>();
+			}
+			if (smallest == null || set.size() < smallest.size()) {
+				smallest = set;
+			}
+		}
+		Set<Product> result = new HashSet<>();
+		for (Product product : smallest) {
+			if (normalize(product.getName()).contains(text)) {
+				result.add(product);
+			}
+		}
+		return result;
+	}
+
+	private static <K extends Comparable<K>> NavigableMap<K, Set<Product>> range(TreeMap<K, Set<Product>> map,
+			K min, K max) {
+		if (min != null && max != null) {
+			return min.compareTo(max) > 0 ? new TreeMap<>() : map.subMap(min, true, max, true);
+		}
+		if (min != null) {
+			return map.tailMap(min, true);
+		}
+		return map.headMap(max, true);
+	}
+
+	private static Collection<Product> union(NavigableMap<?, Set<Product>> map) {
+		Set<Product> result = new HashSet<>();
+		for (Set<Product> set : map.values()) {
+			result.addAll(set);
+		}
+		return result;
+	}
+
+	private static <T extends Comparable<T>> boolean inRange(T value, T min, T max) {
+		return (min == null || value.compareTo(min) >= 0) && (max == null || value.compareTo(max) <= 0);
+	}
+}
@@ -0,0 +1,53 @@
+package com.aitorarias.util;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Reglas que debe cumplir un producto de una factura. Las mismas que pide la pantalla
+ * al añadir un producto, mas las que no se pueden romper desde ella pero si desde un archivo.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductValidator {
+
+	/**
+	 * Comprueba un producto
+	 * 
+	 * @param product Product
+	 * @return String con los errores o null si es valido
+	 */
+	public static String validate(Product product) {
+		StringBuilder builder = new StringBuilder();
+		if (product.getName() == null || product.getName().trim().isEmpty()) {
+			builder.append("El nombre no puede estar vacío");
+		}
+		if (product.getCantidad() < 0) {
+			appendError(builder, "La cantidad no puede ser negativa");
+		}
+		if (!isNumber(product.getUnitPrice())) {
+			appendError(builder, "El precio no es un número");
+		} else if (product.getUnitPrice() < 0) {
+			appendError(builder, "El precio no puede ser negativo");
+		}
+		return builder.length() == 0 ? null : builder.toString();
+	}
+
+	/**
+	 * Comprueba que un precio es un numero. NaN e infinito no se pueden sumar en los totales,
+	 * asi que se rechazan al editar y al leer un archivo.
+	 * 
+	 * @param precio double
+	 * @return boolean
+	 */
+	public static boolean isNumber(double precio) {
+		return !Double.isNaN(precio) && !Double.isInfinite(precio);
+	}
+
+	private static void appendError(StringBuilder builder, String error) {
+		if (builder.length() > 0) {
+			builder.append(", ");
+		}
+		builder.append(error);
+	}
+}
@@ -0,0 +1,41 @@
+package com.aitorarias.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Escritor de productos en streaming, sea cual sea el formato del archivo.
+ * Se escribe en un temporal (ver AtomicFile): al cerrarlo se termina el archivo y sustituye al anterior.
+ * 
+ * @author AitorArias
+ *
+ */
+public interface ProductWriter extends Closeable {
+
+	/**
+	 * Escribe un producto con su propia imagen
+	 * 
+	 * @param product Product
+	 * @throws IOException
+	 */
+	default void write(Product product) throws IOException {
+		write(product, product.getFilePath(), product.getImageDigest());
+	}
+
+	/**
+	 * Escribe un producto pero con otra imagen (por ejemplo la del ImageStore)
+	 * 
+	 * @param product     Product
+	 * @param filePath    String puede ser null
+	 * @param imageDigest String puede ser null
+	 * @throws IOException
+	 */
+	void write(Product product, String filePath, String imageDigest) throws IOException;
+
+	/**
+	 * Descarta todo lo escrito en vez de terminar el archivo. El archivo queda como estaba antes de abrir el escritor.
+	 */
+	void abort();
+}
@@ -0,0 +1,167 @@
+package com.aitorarias.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductColumnStore;
+
+/**
+ * Indice de paginas de un archivo xml de productos: guarda donde empieza cada pagina
+ * (cada pageSize productos), asi se puede leer cualquier pagina sin leer las anteriores.
+ * Ocupa 8 bytes por pagina, no por producto.
+ * 
+ * Cada pagina se lee con el principio del documento delante (la declaracion xml y la raiz, en su encoding),
+ * igual que los trozos de ProductXmlShards. Si el encoding no escribe las etiquetas como ASCII (UTF-16)
+ * no se pueden buscar los productos en los bytes, y el archivo se carga entero en memoria.
+ * 
+ * Los archivos binarios tambien se cargan enteros. Lo cargado va a un ProductColumnStore, sin objetos
+ * por fila, y los Product de una pagina se crean solo al leerla.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductXmlIndex {
+
+	private final File file;
+	private final int pageSize;
+	private final long[] pageOffsets;
+	private final int size;
+	// Principio del documento hasta el primer producto, y cierre de la raiz
+	private final byte[] rootStart;
+	private final byte[] rootEnd;
+	// Solo si el archivo no se ha podido indexar: todos sus productos
+	private final ProductColumnStore loaded;
+
+	private ProductXmlIndex(File file, int pageSize, long[] pageOffsets, int size, byte[] rootStart, byte[] rootEnd,
+			ProductColumnStore loaded) {
+		this.file = file;
+		this.pageSize = pageSize;
+		this.pageOffsets = pageOffsets;
+		this.size = size;
+		this.rootStart = rootStart;
+		this.rootEnd = rootEnd;
+		this.loaded = loaded;
+	}
+
+	/**
+	 * Recorre el archivo una vez apuntando donde empieza cada pagina
+	 * 
+	 * @param file     File
+	 * @param pageSize int productos por pagina
+	 * @return ProductXmlIndex
+	 * @throws IOException tambien si el archivo esta comprimido: no se puede leer una pagina sin descomprimir las anteriores
+	 * @throws XMLStreamException
+	 * @throws JAXBException
+	 */
+	public static ProductXmlIndex build(File file, int pageSize) throws IOException, XMLStreamException, JAXBException {
+		StreamCodec codec = StreamCodecs.detect(file);
+		if (codec != null) {
+			throw new IOException("El archivo esta comprimido (" + codec.getName() + "), no se puede ver por paginas");
+		}
+		if (ProductBinaryFile.isBinaryFile(file)) {
+			return loaded(file, pageSize, ProductBinaryFile.read(file));
+		}
+		if (!ProductXmlShards.isAsciiCompatible(ProductXmlShards.readEncoding(file))) {
+			ProductColumnStore store = new ProductColumnStore();
+			XmlFileManager.loadFromXmlFile(file, pageSize, batch -> batch.forEach(store::add));
+			return loaded(file, pageSize, store);
+		}
+		long[][] offsets = { new long[64] };
+		int[] count = { 0 };
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ProductXmlScanner.scan(channel, 0, Long.MAX_VALUE, offset -> {
+				if (count[0] % pageSize == 0) {
+					int page = count[0] / pageSize;
+					if (page == offsets[0].length) {
+						offsets[0] = Arrays.copyOf(offsets[0], page * 2);
+					}
+					offsets[0][page] = offset;
+				}
+				count[0]++;
+				// Parar si se cancela la tarea
+				return !Thread.currentThread().isInterrupted();
+			});
+		}
+		int pages = (count[0] + pageSize - 1) / pageSize;
+		byte[] rootStart = new byte[0];
+		byte[] rootEnd = new byte[0];
+		if (pages > 0) {
+			rootStart = ProductXmlShards.readStart(file, offsets[0][0]);
+			rootEnd = ProductXmlShards.rootEnd(rootStart);
+		}
+		return new ProductXmlIndex(file, pageSize, Arrays.copyOf(offsets[0], pages), count[0], rootStart, rootEnd, null);
+	}
+
+	/**
+	 * Indice de un archivo que se ha cargado entero
+	 */
+	private static ProductXmlIndex loaded(File file, int pageSize, ProductColumnStore store) {
+		int pages = (store.size() + pageSize - 1) / pageSize;
+		return new ProductXmlIndex(file, pageSize, new long[pages], store.size(), null, null, store);
+	}
+
+	/**
+	 * Lee los productos de una pagina
+	 * 
+	 * @param page int
+	 * @return List<Product>
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 * @throws JAXBException
+	 */
+	public List<Product> readPage(int page) throws IOException, XMLStreamException, JAXBException {
+		if (page < 0 || page >= pageOffsets.length) {
+			throw new IndexOutOfBoundsException("Pagina: " + page + ", paginas: " + pageOffsets.length);
+		}
+		if (loaded != null) {
+			int end = Math.min(size, (page + 1) * pageSize);
+			List<Product> products = new ArrayList<>(end - page * pageSize);
+			for (int i = page * pageSize; i < end; i++) {
+				products.add(loaded.get(i));
+			}
+			return products;
+		}
+		// La pagina va hasta donde empieza la siguiente; la ultima hasta el final del archivo
+		long to = page + 1 < pageOffsets.length ? pageOffsets[page + 1] : -1;
+		return ProductXmlShards.readShard(file, pageOffsets[page], to, rootStart, rootEnd);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Numero de productos del archivo
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getPageCount() {
+		return pageOffsets.length;
+	}
+
+	/**
+	 * Indica si las paginas se leen del archivo o si el archivo se ha cargado entero
+	 * 
+	 * @return boolean
+	 */
+	public boolean isPaged() {
+		return loaded == null;
+	}
+}
@@ -0,0 +1,218 @@
+package com.aitorarias.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Lector en streaming de un archivo de productos. En vez de cargar todo el documento
+ * en un ProductListWrapper, avanza con un cursor StAX y deserializa cada elemento
+ * product por separado, asi que la memoria usada no depende del tamaño del archivo.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductXmlReader implements Closeable {
+
+	private static final String PRODUCT_ELEMENT = "product";
+	// Referencias: https://docs.oracle.com/javase/tutorial/jaxp/stax/api.html
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+	private final CountingInputStream counter;
+	private final InputStream input;
+	private final XMLStreamReader reader;
+	private final Unmarshaller unmarshaller;
+
+	/**
+	 * Abre el archivo y coloca el cursor al principio del documento. Si el archivo esta comprimido
+	 * se descomprime al vuelo; los bytes leidos son siempre los del archivo.
+	 * 
+	 * @param file         File
+	 * @param unmarshaller Unmarshaller
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	ProductXmlReader(File file, Unmarshaller unmarshaller) throws IOException, XMLStreamException {
+		this(new CountingInputStream(new FileInputStream(file)), true, unmarshaller);
+	}
+
+	/**
+	 * Lee de un stream cualquiera, sin comprimir, que se cierra al cerrar el lector
+	 * 
+	 * @param stream       InputStream
+	 * @param unmarshaller Unmarshaller
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	ProductXmlReader(InputStream stream, Unmarshaller unmarshaller) throws IOException, XMLStreamException {
+		this(new CountingInputStream(stream), false, unmarshaller);
+	}
+
+	private ProductXmlReader(CountingInputStream counter, boolean decode, Unmarshaller unmarshaller)
+			throws IOException, XMLStreamException {
+		this.counter = counter;
+		this.unmarshaller = unmarshaller;
+		try {
+			this.input = decode ? StreamCodecs.decode(new BufferedInputStream(counter)) : new BufferedInputStream(counter);
+		} catch (IOException e) {
+			counter.close();
+			throw e;
+		}
+		try {
+			this.reader = INPUT_FACTORY.createXMLStreamReader(input);
+		} catch (XMLStreamException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// Nada de DTDs ni entidades externas en los archivos de productos
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * Lee solo la generacion del documento, el atributo del elemento raiz que escribe ProductXmlWriter
+	 * 
+	 * @param file File comprimido o no
+	 * @return long 0 si el documento no la tiene
+	 * @throws IOException si no se puede leer el elemento raiz
+	 */
+	public static long readGeneration(File file) throws IOException {
+		try (InputStream input = StreamCodecs.decode(new BufferedInputStream(new FileInputStream(file)))) {
+			XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+			try {
+				while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+					// hasta el elemento raiz
+				}
+				String generation = reader.isStartElement()
+						? reader.getAttributeValue(null, ProductXmlWriter.GENERATION_ATTRIBUTE)
+						: null;
+				return generation != null ? Long.parseLong(generation) : 0;
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException | NumberFormatException e) {
+			throw new IOException("No se puede leer la generacion de " + file.getName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Lee el siguiente producto del archivo
+	 * 
+	 * @return Product o null si no quedan mas
+	 * @throws XMLStreamException
+	 * @throws JAXBException
+	 */
+	public Product readNext() throws XMLStreamException, JAXBException {
+		while (true) {
+			if (reader.getEventType() == XMLStreamConstants.START_ELEMENT
+					&& PRODUCT_ELEMENT.equals(reader.getLocalName())) {
+				Location location = reader.getLocation();
+				// Deja el cursor justo despues del </product>
+				Product product = unmarshaller.unmarshal(reader, Product.class).getValue();
+				if (!ProductValidator.isNumber(product.getUnitPrice())) {
+					throw new XMLStreamException("Precio no valido: " + product.getUnitPrice(), location);
+				}
+				return product;
+			}
+			if (!reader.hasNext()) {
+				return null;
+			}
+			reader.next();
+		}
+	}
+
+	/**
+	 * Lee como mucho maxSize productos
+	 * 
+	 * @param maxSize int
+	 * @return List<Product> vacia si no quedan mas
+	 * @throws XMLStreamException
+	 * @throws JAXBException
+	 */
+	public List<Product> readBatch(int maxSize) throws XMLStreamException, JAXBException {
+		List<Product> batch = new ArrayList<>(maxSize);
+		Product product;
+		while (batch.size() < maxSize && (product = readNext()) != null) {
+			batch.add(product);
+		}
+		return batch;
+	}
+
+	/**
+	 * Bytes leidos del archivo hasta ahora, para poder informar del progreso
+	 * 
+	 * @return long
+	 */
+	public long getBytesRead() {
+		return counter.count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Cuenta los bytes que pasan por el stream
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private volatile long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.aitorarias.util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.LongPredicate;
+
+/**
+ * Busca donde empieza cada elemento product en un archivo xml sin parsearlo: recorre los bytes
+ * del archivo mapeado en memoria buscando "<product" seguido de un fin de nombre.
+ * Como el texto de los elementos nunca contiene un '<' sin escapar, no hay falsos positivos
+ * (salvo en comentarios o CDATA, que nuestros archivos no usan).
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductXmlScanner {
+
+	private static final byte[] PATTERN = "<product".getBytes();
+	// Trozo del archivo que se mapea cada vez
+	private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Llama a onStart con la posicion de cada elemento product que empieza entre from y to
+	 * 
+	 * @param channel FileChannel
+	 * @param from    long
+	 * @param to      long
+	 * @param onStart LongPredicate recibe la posicion; si devuelve false se para la busqueda
+	 * @throws IOException
+	 */
+	public static void scan(FileChannel channel, long from, long to, LongPredicate onStart) throws IOException {
+		long fileSize = channel.size();
+		to = Math.min(to, fileSize);
+		for (long chunkStart = from; chunkStart < to; chunkStart += CHUNK_SIZE) {
+			long chunkEnd = Math.min(chunkStart + CHUNK_SIZE, to);
+			// Mapeamos un poco mas para ver el patron entero aunque empiece al final del trozo
+			long mapEnd = Math.min(chunkEnd + PATTERN.length + 1, fileSize);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, mapEnd - chunkStart);
+			int limit = (int) (chunkEnd - chunkStart);
+			int mapped = buffer.limit();
+			for (int i = 0; i < limit; i++) {
+				if (buffer.get(i) == '<' && matches(buffer, i, mapped)) {
+					if (!onStart.test(chunkStart + i)) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Posicion del primer elemento product que empieza en from o despues
+	 * 
+	 * @param channel FileChannel
+	 * @param from    long
+	 * @return long o -1 si no hay ninguno
+	 * @throws IOException
+	 */
+	public static long findNext(FileChannel channel, long from) throws IOException {
+		long[] found = { -1 };
+		scan(channel, from, Long.MAX_VALUE, offset -> {
+			found[0] = offset;
+			return false;
+		});
+		return found[0];
+	}
+
+	private static boolean matches(MappedByteBuffer buffer, int start, int mapped) {
+		int end = start + PATTERN.length;
+		if (end >= mapped) {
+			return false;
+		}
+		for (int j = 1; j < PATTERN.length; j++) {
+			if (buffer.get(start + j) != PATTERN[j]) {
+				return false;
+			}
+		}
+		// <product> o <product ...>, pero no <products>
+		byte next = buffer.get(end);
+		return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\n' || next == '\r';
+	}
+}
@@ -0,0 +1,292 @@
+package com.aitorarias.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Parte un archivo xml de productos en trozos que se pueden parsear a la vez. Los cortes se buscan
+ * con ProductXmlScanner (archivo mapeado en memoria) justo al principio de un elemento product,
+ * asi cada trozo es una lista de productos completos. Para el parser cada trozo es un documento:
+ * se le pone delante el principio del archivo hasta el primer producto (la declaracion xml con su
+ * encoding y el elemento raiz con sus atributos, tal cual estan en el archivo) y detras el cierre de la raiz
+ * en ese mismo encoding.
+ * 
+ * La busqueda de los cortes mira bytes ASCII, asi que solo vale para encodings en los que el ASCII ocupa
+ * un byte (UTF-8, ISO-8859-1...). Un archivo en UTF-16 se lee en un solo trozo.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductXmlShards {
+
+	// Caracteres que busca ProductXmlScanner: tienen que ser los mismos bytes que en ASCII
+	private static final String SCANNED_CHARS = "<product>/ \t\r\n";
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+	// Trozos mas pequeños no compensan lo que cuesta arrancar un parser
+	private static final long MIN_SHARD_SIZE = 4L * 1024 * 1024;
+
+	/**
+	 * Posiciones donde empieza cada trozo. El ultimo trozo llega hasta el final del archivo.
+	 * 
+	 * @param file   File
+	 * @param shards int trozos que se quieren como mucho
+	 * @return long[] vacio si el archivo no tiene productos
+	 * @throws IOException
+	 */
+	public static long[] findBoundaries(File file, int shards) throws IOException {
+		if (!isAsciiCompatible(readEncoding(file))) {
+			// Todo el documento en un trozo, sin nada delante ni detras
+			return new long[] { 0 };
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			shards = (int) Math.max(1, Math.min(shards, size / MIN_SHARD_SIZE));
+			long[] boundaries = new long[shards];
+			int count = 0;
+			long previous = -1;
+			for (int i = 0; i < shards; i++) {
+				long start = ProductXmlScanner.findNext(channel, Math.max(size / shards * i, previous + 1));
+				// Sin mas productos, o un producto tan grande que ocupa varios trozos
+				if (start < 0) {
+					break;
+				}
+				boundaries[count++] = start;
+				previous = start;
+			}
+			long[] result = new long[count];
+			System.arraycopy(boundaries, 0, result, 0, count);
+			return result;
+		}
+	}
+
+	/**
+	 * Parsea todos los trozos en el executor
+	 * 
+	 * @param file       File
+	 * @param boundaries long[] de findBoundaries()
+	 * @param executor   ExecutorService
+	 * @return List<Future<List<Product>>> un Future por trozo, en el orden del documento
+	 * @throws IOException si no se puede leer el principio del documento
+	 */
+	public static List<Future<List<Product>>> submit(File file, long[] boundaries, ExecutorService executor)
+			throws IOException {
+		List<Future<List<Product>>> futures = new ArrayList<>(boundaries.length);
+		if (boundaries.length == 0) {
+			return futures;
+		}
+		byte[] rootStart = readStart(file, boundaries[0]);
+		byte[] rootEnd = rootEnd(rootStart);
+		for (int i = 0; i < boundaries.length; i++) {
+			long from = boundaries[i];
+			long to = i + 1 < boundaries.length ? boundaries[i + 1] : -1;
+			futures.add(executor.submit(() -> readShard(file, from, to, rootStart, rootEnd)));
+		}
+		return futures;
+	}
+
+	/**
+	 * Bytes del archivo desde el principio hasta el primer producto
+	 */
+	static byte[] readStart(File file, long firstProduct) throws IOException {
+		if (firstProduct > Integer.MAX_VALUE) {
+			throw new IOException("Demasiado texto antes del primer producto en " + file.getName());
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) firstProduct);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// hasta llenar el buffer
+			}
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Cierre del elemento raiz, con su nombre y en el encoding del documento
+	 */
+	static byte[] rootEnd(byte[] rootStart) throws IOException {
+		if (rootStart.length == 0) {
+			return rootStart;
+		}
+		try {
+			XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(rootStart));
+			try {
+				while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+					// hasta el elemento raiz
+				}
+				if (!reader.isStartElement()) {
+					throw new IOException("El documento no tiene elemento raiz");
+				}
+				String prefix = reader.getPrefix();
+				String name = prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+				return ("</" + name + ">").getBytes(encodingOf(reader));
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("No se puede leer el elemento raiz: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Encoding del documento: el de la declaracion xml, o el que el parser reconoce por los primeros bytes
+	 */
+	static Charset readEncoding(File file) throws IOException {
+		try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+			XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+			try {
+				return encodingOf(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("No se puede leer el principio de " + file.getName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static Charset encodingOf(XMLStreamReader reader) throws IOException {
+		String encoding = reader.getCharacterEncodingScheme();
+		if (encoding == null) {
+			encoding = reader.getEncoding();
+		}
+		if (encoding == null) {
+			return StandardCharsets.UTF_8;
+		}
+		try {
+			return Charset.forName(encoding);
+		} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+			throw new IOException("Encoding no soportado: " + encoding, e);
+		}
+	}
+
+	static boolean isAsciiCompatible(Charset charset) {
+		return Arrays.equals(SCANNED_CHARS.getBytes(charset), SCANNED_CHARS.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// Igual que ProductXmlReader: nada de DTDs ni entidades externas
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * Lee los productos de un trozo
+	 * 
+	 * @param file      File
+	 * @param from      long 0 para leer desde el principio del documento
+	 * @param to        long o -1 para leer hasta el final del archivo, que ya trae el cierre de la raiz
+	 * @param rootStart byte[] principio del archivo hasta el primer producto, se pone delante del trozo
+	 * @param rootEnd   byte[] cierre de la raiz en el encoding del documento, se pone detras del trozo
+	 * @return List<Product>
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 * @throws JAXBException
+	 */
+	public static List<Product> readShard(File file, long from, long to, byte[] rootStart, byte[] rootEnd)
+			throws IOException, XMLStreamException, JAXBException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		channel.position(from);
+		InputStream body = Channels.newInputStream(channel);
+		Vector<InputStream> parts = new Vector<>();
+		if (from > 0) {
+			parts.add(new ByteArrayInputStream(rootStart));
+		}
+		if (to < 0) {
+			parts.add(body);
+		} else {
+			parts.add(new BoundedInputStream(body, to - from));
+			parts.add(new ByteArrayInputStream(rootEnd));
+		}
+		List<Product> products = new ArrayList<>();
+		try (ProductXmlReader reader = new ProductXmlReader(new SequenceInputStream(parts.elements()),
+				XmlFileManager.getUnmarshaller())) {
+			Product product;
+			while ((product = reader.readNext()) != null) {
+				products.add(product);
+			}
+		} finally {
+			// SequenceInputStream no cierra los streams que aun no ha empezado a leer
+			body.close();
+		}
+		return products.isEmpty() ? Collections.<Product>emptyList() : products;
+	}
+
+	/**
+	 * Deja de leer al llegar al final del trozo
+	 */
+	private static class BoundedInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		BoundedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = super.read();
+			if (b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = super.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+	}
+}
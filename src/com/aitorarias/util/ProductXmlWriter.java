@@ -0,0 +1,177 @@
+package com.aitorarias.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Escritor en streaming de un archivo de productos. Escribe cada elemento product
+ * directamente al archivo, sin construir antes un ProductListWrapper ni el arbol entero.
+ * El formato es el mismo que genera JAXB, asi que se puede leer con XmlFileManager.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ProductXmlWriter implements ProductWriter {
+
+	private static final String ENCODING = "UTF-8";
+	static final String GENERATION_ATTRIBUTE = "generation";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+	private final AtomicFile atomicFile;
+	private final OutputStream output;
+	private final XMLStreamWriter writer;
+	private final boolean indent;
+	// Totales de lo que se va escribiendo, para dejarlos al final del archivo
+	private final InvoiceSummary summary = new InvoiceSummary();
+
+	/**
+	 * Abre el archivo (lo sobreescribe si existe) y escribe la cabecera del documento.
+	 * Si la extension es de un formato de compresion (por ejemplo .xml.gz) se comprime al escribir.
+	 * 
+	 * @param file       File
+	 * @param indent     boolean true para sangrar la salida como JAXB_FORMATTED_OUTPUT
+	 * @param backups    int copias de la version anterior que se guardan
+	 * @param generation long generacion del documento (ver ChangeJournal), 0 para no escribirla
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	ProductXmlWriter(File file, boolean indent, int backups, long generation) throws IOException, XMLStreamException {
+		this.atomicFile = new AtomicFile(file, backups);
+		FileChannel channel = atomicFile.open();
+		this.indent = indent;
+		try {
+			this.output = new BufferedOutputStream(StreamCodecs.encode(file, Channels.newOutputStream(channel)),
+					BUFFER_SIZE);
+			this.writer = OUTPUT_FACTORY.createXMLStreamWriter(output, ENCODING);
+			writer.writeStartDocument(ENCODING, "1.0");
+			newLine(0);
+			writer.writeStartElement("products");
+			if (generation != 0) {
+				// JAXB ignora el atributo al leer
+				writer.writeAttribute(GENERATION_ATTRIBUTE, Long.toString(generation));
+			}
+		} catch (IOException | XMLStreamException e) {
+			atomicFile.abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Tipo de IVA de los totales del final del archivo
+	 * 
+	 * @param taxRate BigDecimal tanto por uno, no negativo
+	 */
+	public void setTaxRate(BigDecimal taxRate) {
+		summary.setTaxRate(taxRate);
+	}
+
+	@Override
+	public void write(Product product, String filePath, String imageDigest) throws IOException {
+		try {
+			newLine(1);
+			writer.writeStartElement("product");
+			// Mismos nombres que los que JAXB saca de los getters/setters de Product
+			writeElement("cantidad", Integer.toString(product.getCantidad()));
+			writeElement("filePath", filePath);
+			writeElement("imageDigest", imageDigest);
+			writeElement("name", product.getName());
+			writeElement("unitPrice", Double.toString(product.getUnitPrice()));
+			newLine(1);
+			writer.writeEndElement();
+			summary.addLine(product.getCantidad(), product.getUnitPrice());
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Escribe el elemento totals con los totales de todos los productos escritos.
+	 * Los lectores de productos lo ignoran.
+	 * 
+	 * @throws XMLStreamException
+	 */
+	private void writeTotals() throws XMLStreamException {
+		newLine(1);
+		writer.writeStartElement("totals");
+		writeElement("lines", Integer.toString(summary.getLines()));
+		writeElement("items", Long.toString(summary.getItems()));
+		writeElement("subtotal", summary.getSubtotal().toPlainString());
+		writeElement("taxRate", summary.getTaxRate().toPlainString());
+		writeElement("tax", summary.getTax().toPlainString());
+		writeElement("total", summary.getTotal().toPlainString());
+		if (summary.getLines() > 0) {
+			writeElement("minPrice", Double.toString(summary.getMinPrice()));
+			writeElement("maxPrice", Double.toString(summary.getMaxPrice()));
+		}
+		newLine(1);
+		writer.writeEndElement();
+	}
+
+	private void writeElement(String name, String value) throws XMLStreamException {
+		// JAXB no escribe los elementos nulos
+		if (value == null) {
+			return;
+		}
+		newLine(2);
+		writer.writeStartElement(name);
+		writer.writeCharacters(value);
+		writer.writeEndElement();
+	}
+
+	private void newLine(int depth) throws XMLStreamException {
+		if (!indent) {
+			return;
+		}
+		writer.writeCharacters("\n");
+		for (int i = 0; i < depth; i++) {
+			writer.writeCharacters("    ");
+		}
+	}
+
+	/**
+	 * Escribe los totales, cierra el elemento raiz y cambia el archivo por el nuevo
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			try {
+				writeTotals();
+				newLine(0);
+				writer.writeEndElement();
+				writer.writeEndDocument();
+				writer.close();
+			} catch (XMLStreamException e) {
+				throw new IOException(e);
+			} finally {
+				output.close();
+			}
+		} catch (IOException e) {
+			atomicFile.abort();
+			throw e;
+		}
+		atomicFile.commit();
+	}
+
+	@Override
+	public void abort() {
+		try {
+			writer.close();
+			output.close();
+		} catch (XMLStreamException | IOException e) {
+			// Lo escrito se descarta igualmente
+		}
+		atomicFile.abort();
+	}
+}
@@ -0,0 +1,531 @@
+package com.aitorarias.util;
+
+import java.text.CollationKey;
+import java.util.Arrays;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.enums.SortKey;
+
+import javafx.collections.ListChangeListener.Change;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.TransformationList;
+
+/**
+ * Vista ordenada de una lista de productos, para la tabla. Hace lo mismo que un SortedList pero:
+ * 
+ * - Ordena con claves primitivas: cada producto se convierte en un long (posicion de su valor
+ *   y su indice) y se ordena el long[] con Arrays.parallelSort, sin comparadores sobre Integer o Double.
+ * - Al editar una fila no se vuelve a ordenar todo: rowChanged() busca el nuevo sitio de la fila
+ *   por busqueda binaria y solo se mueve esa fila.
+ * - Los productos añadidos de golpe (una importacion) se ordenan entre ellos y se mezclan con los que habia.
+ *   Si van todos juntos (sin ordenar, o todos despues de la ultima fila) ni siquiera se mezclan.
+ * - La tabla recibe solo las filas añadidas y quitadas, nunca que ha cambiado toda la lista,
+ *   asi no pierde la seleccion ni el scroll.
+ * 
+ * A igual valor se mantiene el orden de la lista original. Con SortKey.NONE es el orden de la lista original.
+ * 
+ * @author AitorArias
+ *
+ */
+public class SortedProductList extends TransformationList<Product, Product> {
+
+	// Con mas productos añadidos o borrados de una vez, no se busca el sitio de cada uno por separado
+	private static final int INCREMENTAL_LIMIT = 64;
+
+	private SortKey sortKey = SortKey.NONE;
+	private boolean ascending = true;
+	private int size;
+	// Fila de la vista -> indice en la lista original
+	private int[] order;
+	// Fila de la vista -> producto
+	private Product[] items;
+	// Indice en la lista original -> fila de la vista
+	private int[] position;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param source ObservableList<Product>
+	 */
+	public SortedProductList(ObservableList<Product> source) {
+		super(source);
+		size = source.size();
+		order = new int[Math.max(16, size)];
+		items = new Product[order.length];
+		position = new int[order.length];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+			items[i] = source.get(i);
+		}
+		updatePositions(0, size);
+	}
+
+	/**
+	 * Ordena toda la lista por una columna. La tabla recibe una permutacion, asi conserva la seleccion.
+	 * 
+	 * @param key       SortKey
+	 * @param ascending boolean
+	 */
+	public void sort(SortKey key, boolean ascending) {
+		int[] oldPosition = Arrays.copyOf(position, size);
+		this.sortKey = key;
+		this.ascending = ascending;
+		int[] indexes = new int[size];
+		for (int i = 0; i < size; i++) {
+			indexes[i] = i;
+		}
+		sortIndexes(indexes, size);
+		for (int v = 0; v < size; v++) {
+			order[v] = indexes[v];
+			items[v] = getSource().get(indexes[v]);
+		}
+		updatePositions(0, size);
+		if (size == 0) {
+			return;
+		}
+		int[] permutation = new int[size];
+		for (int s = 0; s < size; s++) {
+			permutation[oldPosition[s]] = position[s];
+		}
+		beginChange();
+		nextPermutation(0, size, permutation);
+		endChange();
+	}
+
+	/**
+	 * Vuelve a ordenar todo con la misma columna, despues de cambiar muchos productos a la vez
+	 */
+	public void resort() {
+		sort(sortKey, ascending);
+	}
+
+	/**
+	 * Avisa de que ha cambiado el valor de una fila: se mueve a su nuevo sitio sin ordenar lo demas
+	 * 
+	 * @param row int fila de la vista
+	 */
+	public void rowChanged(int row) {
+		beginChange();
+		reposition(row);
+		endChange();
+	}
+
+	/**
+	 * Avisa de que han cambiado los valores de varias filas. Se sacan todas y se vuelven a meter
+	 * por busqueda binaria entre las que no han cambiado, que siguen ordenadas. La tabla recibe
+	 * una sola permutacion. Con muchas filas sale mas barato ordenar todo otra vez.
+	 *
+	 * @param rows int[] filas de la vista
+	 */
+	public void rowsChanged(int[] rows) {
+		if (sortKey == SortKey.NONE || rows.length == 0) {
+			return;
+		}
+		if (rows.length > INCREMENTAL_LIMIT) {
+			resort();
+			return;
+		}
+		int[] oldOrder = Arrays.copyOf(order, size);
+		int[] sortedRows = rows.clone();
+		Arrays.sort(sortedRows);
+		int[] sources = new int[sortedRows.length];
+		Product[] products = new Product[sortedRows.length];
+		// De abajo arriba, asi quitar una fila no mueve las que quedan por quitar
+		for (int k = sortedRows.length - 1; k >= 0; k--) {
+			int row = sortedRows[k];
+			sources[k] = order[row];
+			products[k] = items[row];
+			System.arraycopy(order, row + 1, order, row, size - row - 1);
+			System.arraycopy(items, row + 1, items, row, size - row - 1);
+			size--;
+		}
+		for (int k = 0; k < sortedRows.length; k++) {
+			int row = insertionPoint(products[k], sources[k]);
+			System.arraycopy(order, row, order, row + 1, size - row);
+			System.arraycopy(items, row, items, row + 1, size - row);
+			order[row] = sources[k];
+			items[row] = products[k];
+			size++;
+		}
+		int from = 0;
+		while (from < size && order[from] == oldOrder[from]) {
+			from++;
+		}
+		if (from == size) {
+			return;
+		}
+		int to = size;
+		while (order[to - 1] == oldOrder[to - 1]) {
+			to--;
+		}
+		updatePositions(from, to);
+		int[] permutation = new int[to - from];
+		for (int i = from; i < to; i++) {
+			permutation[i - from] = position[oldOrder[i]];
+		}
+		beginChange();
+		nextPermutation(from, to, permutation);
+		endChange();
+	}
+
+	public SortKey getSortKey() {
+		return sortKey;
+	}
+
+	@Override
+	public Product get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Indice: " + index + ", tamaño: " + size);
+		}
+		return items[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int getSourceIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Indice: " + index + ", tamaño: " + size);
+		}
+		return order[index];
+	}
+
+	/**
+	 * Fila de la vista de un indice de la lista original
+	 * 
+	 * @param index int
+	 * @return int
+	 */
+	public int getViewIndex(int index) {
+		return position[index];
+	}
+
+	@Override
+	protected void sourceChanged(Change<? extends Product> c) {
+		beginChange();
+		while (c.next()) {
+			if (c.wasPermutated()) {
+				for (int v = 0; v < size; v++) {
+					order[v] = c.getPermutation(order[v]);
+				}
+				updatePositions(0, size);
+			} else if (c.wasUpdated()) {
+				for (int i = c.getFrom(); i < c.getTo(); i++) {
+					reposition(position[i]);
+				}
+			} else {
+				if (c.wasRemoved()) {
+					removeSource(c.getFrom(), c.getRemovedSize());
+				}
+				if (c.wasAdded()) {
+					addSource(c.getFrom(), c.getAddedSize());
+				}
+			}
+		}
+		endChange();
+	}
+
+	/**
+	 * Quita de la vista los productos que estaban en [from, from + count) de la lista original
+	 */
+	private void removeSource(int from, int count) {
+		int end = from + count;
+		if (sortKey == SortKey.NONE) {
+			// En el orden de la lista original los borrados son filas seguidas
+			nextRemove(from, Arrays.asList(Arrays.copyOfRange(items, from, end)));
+			System.arraycopy(order, end, order, from, size - end);
+			System.arraycopy(items, end, items, from, size - end);
+			Arrays.fill(items, size - count, size, null);
+			size -= count;
+			for (int v = from; v < size; v++) {
+				order[v] -= count;
+			}
+		} else if (count > INCREMENTAL_LIMIT) {
+			// Una sola pasada quitando los borrados y corrigiendo los indices de los demas.
+			// Cada tramo de filas borradas seguidas se avisa en su sitio
+			int kept = 0;
+			int runStart = -1;
+			for (int v = 0; v < size; v++) {
+				int s = order[v];
+				if (s >= from && s < end) {
+					if (runStart < 0) {
+						runStart = v;
+					}
+					continue;
+				}
+				if (runStart >= 0) {
+					nextRemove(kept, Arrays.asList(Arrays.copyOfRange(items, runStart, v)));
+					runStart = -1;
+				}
+				order[kept] = s >= end ? s - count : s;
+				items[kept] = items[v];
+				kept++;
+			}
+			if (runStart >= 0) {
+				nextRemove(kept, Arrays.asList(Arrays.copyOfRange(items, runStart, size)));
+			}
+			Arrays.fill(items, kept, size, null);
+			size = kept;
+		} else {
+			int[] rows = new int[count];
+			for (int k = 0; k < count; k++) {
+				rows[k] = position[from + k];
+			}
+			Arrays.sort(rows);
+			// De abajo arriba, asi quitar una fila no mueve las que quedan por quitar
+			for (int k = count - 1; k >= 0; k--) {
+				int row = rows[k];
+				nextRemove(row, items[row]);
+				System.arraycopy(order, row + 1, order, row, size - row - 1);
+				System.arraycopy(items, row + 1, items, row, size - row - 1);
+				size--;
+				items[size] = null;
+			}
+			for (int v = 0; v < size; v++) {
+				if (order[v] >= end) {
+					order[v] -= count;
+				}
+			}
+		}
+		updatePositions(0, size);
+	}
+
+	/**
+	 * Mete en la vista los productos añadidos en [from, from + count) de la lista original
+	 */
+	private void addSource(int from, int count) {
+		ensureCapacity(size + count);
+		for (int v = 0; v < size; v++) {
+			if (order[v] >= from) {
+				order[v] += count;
+			}
+		}
+		if (sortKey == SortKey.NONE) {
+			// En el orden de la lista original los nuevos van juntos en la fila from
+			int[] added = new int[count];
+			for (int k = 0; k < count; k++) {
+				added[k] = from + k;
+			}
+			insertBlock(from, added, count);
+		} else if (count > INCREMENTAL_LIMIT) {
+			// Se ordenan los nuevos entre ellos y se mezclan con los que habia, sin ordenar todo otra vez
+			int[] added = new int[count];
+			for (int k = 0; k < count; k++) {
+				added[k] = from + k;
+			}
+			sortIndexes(added, count);
+			if (size == 0 || compare(items[size - 1], order[size - 1], getSource().get(added[0]), added[0]) < 0) {
+				// Todos van despues de la ultima fila
+				insertBlock(size, added, count);
+			} else {
+				merge(added, count);
+			}
+		} else {
+			for (int s = from; s < from + count; s++) {
+				Product product = getSource().get(s);
+				int row = insertionPoint(product, s);
+				System.arraycopy(order, row, order, row + 1, size - row);
+				System.arraycopy(items, row, items, row + 1, size - row);
+				order[row] = s;
+				items[row] = product;
+				size++;
+				nextAdd(row, row + 1);
+			}
+		}
+		updatePositions(0, size);
+	}
+
+	/**
+	 * Mete productos de la lista original en filas seguidas a partir de row
+	 */
+	private void insertBlock(int row, int[] added, int count) {
+		System.arraycopy(order, row, order, row + count, size - row);
+		System.arraycopy(items, row, items, row + count, size - row);
+		for (int k = 0; k < count; k++) {
+			order[row + k] = added[k];
+			items[row + k] = getSource().get(added[k]);
+		}
+		size += count;
+		nextAdd(row, row + count);
+	}
+
+	/**
+	 * Mezcla los productos añadidos, ya ordenados entre ellos, con las filas que habia.
+	 * Cada tramo de filas nuevas seguidas se avisa en su sitio final.
+	 */
+	private void merge(int[] added, int count) {
+		int[] mergedOrder = new int[order.length];
+		Product[] mergedItems = new Product[items.length];
+		int i = 0;
+		int j = 0;
+		int w = 0;
+		int runStart = -1;
+		while (i < size || j < count) {
+			Product addedProduct = j < count ? getSource().get(added[j]) : null;
+			if (j == count || (i < size && compare(items[i], order[i], addedProduct, added[j]) <= 0)) {
+				if (runStart >= 0) {
+					nextAdd(runStart, w);
+					runStart = -1;
+				}
+				mergedOrder[w] = order[i];
+				mergedItems[w++] = items[i++];
+			} else {
+				if (runStart < 0) {
+					runStart = w;
+				}
+				mergedOrder[w] = added[j++];
+				mergedItems[w++] = addedProduct;
+			}
+		}
+		if (runStart >= 0) {
+			nextAdd(runStart, w);
+		}
+		order = mergedOrder;
+		items = mergedItems;
+		size = w;
+	}
+
+	/**
+	 * Mueve una fila a su sitio, que se busca por busqueda binaria entre las demas
+	 */
+	private void reposition(int row) {
+		Product product = items[row];
+		int s = order[row];
+		System.arraycopy(order, row + 1, order, row, size - row - 1);
+		System.arraycopy(items, row + 1, items, row, size - row - 1);
+		size--;
+		int newRow = insertionPoint(product, s);
+		System.arraycopy(order, newRow, order, newRow + 1, size - newRow);
+		System.arraycopy(items, newRow, items, newRow + 1, size - newRow);
+		order[newRow] = s;
+		items[newRow] = product;
+		size++;
+		if (newRow == row) {
+			return;
+		}
+		int from = Math.min(row, newRow);
+		int to = Math.max(row, newRow) + 1;
+		int[] permutation = new int[to - from];
+		for (int i = from; i < to; i++) {
+			if (i == row) {
+				permutation[i - from] = newRow;
+			} else {
+				// Las filas entre medias se corren una hacia donde estaba la fila movida
+				permutation[i - from] = row < newRow ? i - 1 : i + 1;
+			}
+		}
+		nextPermutation(from, to, permutation);
+		updatePositions(from, to);
+	}
+
+	/**
+	 * Primera fila cuyo producto va despues del dado
+	 */
+	private int insertionPoint(Product product, int sourceIndex) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(items[mid], order[mid], product, sourceIndex) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int compare(Product a, int sourceA, Product b, int sourceB) {
+		int result = ascending ? sortKey.compare(a, b) : sortKey.compare(b, a);
+		return result != 0 ? result : Integer.compare(sourceA, sourceB);
+	}
+
+	/**
+	 * Ordena indices de la lista original. Cada indice se junta con la posicion de su valor en un long
+	 * (posicion en los 32 bits altos, indice en los bajos) y se ordenan los long en paralelo.
+	 * 
+	 * @param indexes int[] se ordena en el sitio
+	 * @param count   int
+	 */
+	private void sortIndexes(int[] indexes, int count) {
+		int[] ranks = ranks(indexes, count);
+		long[] packed = new long[count];
+		for (int i = 0; i < count; i++) {
+			// ~rank invierte el orden sin desbordar, y a igual valor se sigue ordenando por indice
+			int rank = ascending ? ranks[i] : ~ranks[i];
+			packed[i] = ((long) rank << 32) | (indexes[i] & 0xffffffffL);
+		}
+		Arrays.parallelSort(packed);
+		for (int i = 0; i < count; i++) {
+			indexes[i] = (int) packed[i];
+		}
+	}
+
+	/**
+	 * Posicion del valor de cada producto entre todos los valores: mismo valor, misma posicion
+	 */
+	private int[] ranks(int[] indexes, int count) {
+		int[] ranks = new int[count];
+		switch (sortKey) {
+		case CANTIDAD:
+			// La cantidad ya es un int que se ordena como tal
+			for (int i = 0; i < count; i++) {
+				ranks[i] = getSource().get(indexes[i]).getCantidad();
+			}
+			break;
+		case PRECIO:
+			long[] prices = new long[count];
+			for (int i = 0; i < count; i++) {
+				prices[i] = sortableBits(getSource().get(indexes[i]).getUnitPrice());
+			}
+			long[] sortedPrices = prices.clone();
+			Arrays.parallelSort(sortedPrices);
+			for (int i = 0; i < count; i++) {
+				ranks[i] = Arrays.binarySearch(sortedPrices, prices[i]);
+			}
+			break;
+		case NAME:
+			// El collator compara letra a letra con sus tablas; con las claves se hace una vez por nombre
+			CollationKey[] names = new CollationKey[count];
+			for (int i = 0; i < count; i++) {
+				names[i] = SortKey.nameKeyOf(getSource().get(indexes[i]));
+			}
+			CollationKey[] sortedNames = names.clone();
+			Arrays.parallelSort(sortedNames);
+			for (int i = 0; i < count; i++) {
+				ranks[i] = Arrays.binarySearch(sortedNames, names[i]);
+			}
+			break;
+		default:
+			break;
+		}
+		return ranks;
+	}
+
+	/**
+	 * Bits de un double que ordenados como long dan el mismo orden que Double.compare
+	 */
+	private static long sortableBits(double value) {
+		long bits = Double.doubleToLongBits(value);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	private void updatePositions(int from, int to) {
+		for (int v = from; v < to; v++) {
+			position[order[v]] = v;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= order.length) {
+			return;
+		}
+		int newLength = Math.max(capacity, order.length + (order.length >> 1));
+		order = Arrays.copyOf(order, newLength);
+		items = Arrays.copyOf(items, newLength);
+		position = Arrays.copyOf(position, newLength);
+	}
+}
@@ -0,0 +1,56 @@
+package com.aitorarias.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresion de los archivos de productos. Cada formato (gzip, deflate...) se registra en StreamCodecs:
+ * al guardar se elige por la extension del archivo y al cargar por los primeros bytes.
+ * 
+ * @author AitorArias
+ *
+ */
+public interface StreamCodec {
+
+	/**
+	 * Nombre para enseñar al usuario
+	 * 
+	 * @return String
+	 */
+	String getName();
+
+	/**
+	 * Extension que se añade al archivo, con el punto. Por ejemplo ".gz"
+	 * 
+	 * @return String
+	 */
+	String getExtension();
+
+	/**
+	 * Mira si los primeros bytes de un archivo son de este formato
+	 * 
+	 * @param header byte[] los primeros bytes (pueden ser menos de los que hacen falta si el archivo es muy corto)
+	 * @param length int bytes validos en header
+	 * @return boolean
+	 */
+	boolean matches(byte[] header, int length);
+
+	/**
+	 * Descomprime lo que se lee de input
+	 * 
+	 * @param input InputStream
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	InputStream decode(InputStream input) throws IOException;
+
+	/**
+	 * Comprime lo que se escribe antes de pasarlo a output. Cerrar el stream que devuelve termina el formato.
+	 * 
+	 * @param output OutputStream
+	 * @return OutputStream
+	 * @throws IOException
+	 */
+	OutputStream encode(OutputStream output) throws IOException;
+}
@@ -0,0 +1,223 @@
+package com.aitorarias.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Registro de los StreamCodec. Trae gzip y deflate (zlib) de java.util.zip; se pueden registrar mas.
+ * 
+ * @author AitorArias
+ *
+ */
+public class StreamCodecs {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Bytes que se miran para reconocer el formato
+	private static final int HEADER_SIZE = 16;
+
+	public static final StreamCodec GZIP = new StreamCodec() {
+		@Override
+		public String getName() {
+			return "gzip";
+		}
+
+		@Override
+		public String getExtension() {
+			return ".gz";
+		}
+
+		@Override
+		public boolean matches(byte[] header, int length) {
+			return length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+		}
+
+		@Override
+		public InputStream decode(InputStream input) throws IOException {
+			return new GZIPInputStream(input, BUFFER_SIZE);
+		}
+
+		@Override
+		public OutputStream encode(OutputStream output) throws IOException {
+			return new GZIPOutputStream(output, BUFFER_SIZE);
+		}
+	};
+
+	public static final StreamCodec DEFLATE = new StreamCodec() {
+		@Override
+		public String getName() {
+			return "deflate";
+		}
+
+		@Override
+		public String getExtension() {
+			return ".zz";
+		}
+
+		@Override
+		public boolean matches(byte[] header, int length) {
+			// Cabecera zlib: metodo 8 (deflate) y los dos bytes juntos multiplo de 31 (RFC 1950)
+			return length >= 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+		}
+
+		@Override
+		public InputStream decode(InputStream input) throws IOException {
+			return new InflaterInputStream(input, new Inflater(), BUFFER_SIZE);
+		}
+
+		@Override
+		public OutputStream encode(OutputStream output) throws IOException {
+			// Con un Deflater propio hay que liberarlo al cerrar, DeflaterOutputStream no lo hace
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+			return new DeflaterOutputStream(output, deflater, BUFFER_SIZE) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						deflater.end();
+					}
+				}
+			};
+		}
+	};
+
+	private static final List<StreamCodec> CODECS = new CopyOnWriteArrayList<>();
+
+	static {
+		CODECS.add(GZIP);
+		CODECS.add(DEFLATE);
+	}
+
+	/**
+	 * Añade un formato de compresion
+	 * 
+	 * @param codec StreamCodec
+	 */
+	public static void register(StreamCodec codec) {
+		CODECS.add(codec);
+	}
+
+	/**
+	 * Busca un formato de compresion por su nombre
+	 * 
+	 * @param name String por ejemplo "gzip"
+	 * @return StreamCodec o null si no hay ninguno con ese nombre
+	 */
+	public static StreamCodec forName(String name) {
+		for (StreamCodec codec : CODECS) {
+			if (codec.getName().equalsIgnoreCase(name)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Formato de compresion que corresponde a la extension del archivo
+	 * 
+	 * @param file File
+	 * @return StreamCodec o null si no se comprime
+	 */
+	public static StreamCodec forFile(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		for (StreamCodec codec : CODECS) {
+			if (name.endsWith(codec.getExtension())) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reconoce el formato de compresion por los primeros bytes del stream, sin consumirlos
+	 * 
+	 * @param input InputStream tiene que soportar mark()
+	 * @return StreamCodec o null si no esta comprimido
+	 * @throws IOException
+	 */
+	public static StreamCodec detect(InputStream input) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		input.mark(HEADER_SIZE);
+		int length = 0;
+		int n;
+		while (length < HEADER_SIZE && (n = input.read(header, length, HEADER_SIZE - length)) > 0) {
+			length += n;
+		}
+		input.reset();
+		// Un xml sin comprimir empieza por '<' o por espacios o la marca BOM, que ningun formato usa
+		for (StreamCodec codec : CODECS) {
+			if (codec.matches(header, length)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reconoce el formato de compresion de un archivo
+	 * 
+	 * @param file File
+	 * @return StreamCodec o null si no esta comprimido
+	 * @throws IOException
+	 */
+	public static StreamCodec detect(File file) throws IOException {
+		try (InputStream input = new BufferedInputStream(new FileInputStream(file), HEADER_SIZE)) {
+			return detect(input);
+		}
+	}
+
+	/**
+	 * Envuelve el stream para leer el contenido ya descomprimido, si estaba comprimido
+	 * 
+	 * @param input InputStream
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	public static InputStream decode(InputStream input) throws IOException {
+		InputStream buffered = input.markSupported() ? input : new BufferedInputStream(input, BUFFER_SIZE);
+		StreamCodec codec = detect(buffered);
+		return codec == null ? buffered : codec.decode(buffered);
+	}
+
+	/**
+	 * Envuelve el stream para comprimir lo que se escribe si la extension del archivo lo pide
+	 * 
+	 * @param file   File
+	 * @param output OutputStream
+	 * @return OutputStream
+	 * @throws IOException
+	 */
+	public static OutputStream encode(File file, OutputStream output) throws IOException {
+		StreamCodec codec = forFile(file);
+		return codec == null ? output : codec.encode(output);
+	}
+
+	/**
+	 * Quita la extension de compresion del nombre, "factura.xml.gz" da "factura.xml"
+	 * 
+	 * @param name String
+	 * @return String
+	 */
+	public static String stripExtension(String name) {
+		String lower = name.toLowerCase(Locale.ROOT);
+		for (StreamCodec codec : CODECS) {
+			if (lower.endsWith(codec.getExtension())) {
+				return name.substring(0, name.length() - codec.getExtension().length());
+			}
+		}
+		return name;
+	}
+}
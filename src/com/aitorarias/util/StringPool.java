@@ -0,0 +1,64 @@
+package com.aitorarias.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tabla de cadenas sin repetir. Cada cadena distinta se guarda una vez y se referencia
+ * por su indice, asi miles de productos con la misma imagen o el mismo nombre comparten
+ * un solo String.
+ * 
+ * @author AitorArias
+ *
+ */
+public class StringPool {
+
+	// Indice que representa null
+	public static final int NULL_INDEX = -1;
+
+	private final Map<String, Integer> indexes = new HashMap<>();
+	private String[] strings = new String[16];
+	private int size;
+
+	/**
+	 * Devuelve el indice de la cadena, añadiendola si no estaba
+	 * 
+	 * @param value String puede ser null
+	 * @return int
+	 */
+	public int intern(String value) {
+		if (value == null) {
+			return NULL_INDEX;
+		}
+		Integer index = indexes.get(value);
+		if (index != null) {
+			return index;
+		}
+		if (size == strings.length) {
+			strings = Arrays.copyOf(strings, size + (size >> 1));
+		}
+		strings[size] = value;
+		indexes.put(value, size);
+		return size++;
+	}
+
+	/**
+	 * Cadena de un indice
+	 * 
+	 * @param index int
+	 * @return String o null si es NULL_INDEX
+	 */
+	public String get(int index) {
+		return index == NULL_INDEX ? null : strings[index];
+	}
+
+	/**
+	 * Cadenas distintas guardadas
+	 * 
+	 * @return int
+	 */
+	public int size() {
+		return size;
+	}
+}
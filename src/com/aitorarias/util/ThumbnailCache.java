@@ -0,0 +1,209 @@
+package com.aitorarias.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+
+import com.aitorarias.entity.Product;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+
+/**
+ * Cache de miniaturas para la columna de imagen de la tabla.
+ * 
+ * Tiene dos niveles: en memoria un LRU con un numero maximo de miniaturas, y en disco
+ * los PNG ya reducidos para no tener que volver a decodificar la imagen original.
+ * Las imagenes se cargan en segundo plano y ya reducidas al tamaño pedido, asi que
+ * el scroll de la tabla nunca espera a una imagen.
+ * 
+ * En el hilo de JavaFX solo se miran mapas en memoria. La clave de una imagen que no esta en el
+ * ImageStore (ruta y fecha del archivo, en SHA-1) y si ya hay miniatura en disco se miran en el hilo
+ * de carga, y la clave se recuerda por ruta para no volver a calcularla en cada celda.
+ * 
+ * Solo se usa desde el hilo de JavaFX.
+ * 
+ * @author AitorArias
+ *
+ */
+public class ThumbnailCache {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final int size;
+	private final File directory;
+	private final Map<String, Image> memory;
+	// Ruta de la imagen original -> clave de su miniatura
+	private final Map<String, String> pathKeys;
+	// Peticiones que esta resolviendo el hilo de carga, con quien espera cada una
+	private final Map<String, List<Consumer<Image>>> pending = new HashMap<>();
+	// Un solo hilo para calcular claves y mirar el disco
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "thumbnail-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Un solo hilo para escribir las miniaturas a disco
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "thumbnail-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Constructor
+	 * 
+	 * @param size       int lado de la miniatura en pixeles
+	 * @param maxEntries int miniaturas como mucho en memoria
+	 * @param directory  File donde se guardan las miniaturas en disco
+	 */
+	public ThumbnailCache(int size, int maxEntries, File directory) {
+		this.size = size;
+		this.directory = directory;
+		// LinkedHashMap en orden de acceso: el primero es siempre el menos usado
+		this.memory = lru(maxEntries);
+		this.pathKeys = lru(maxEntries);
+	}
+
+	// LinkedHashMap en orden de acceso: el primero es siempre el menos usado
+	private static <V> Map<String, V> lru(int maxEntries) {
+		return new LinkedHashMap<String, V>(maxEntries, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Miniatura de la imagen de un producto, solo si ya esta en memoria. Si no, se busca en
+	 * segundo plano y cuando este lista se pasa a onLoaded en el hilo de JavaFX.
+	 * 
+	 * @param product  Product
+	 * @param onLoaded Consumer<Image> recibe la miniatura cuando no estaba en memoria
+	 * @return Image o null si todavia no esta o el producto no tiene imagen
+	 */
+	public Image get(Product product, Consumer<Image> onLoaded) {
+		String digest = product.getImageDigest();
+		String filePath = product.getFilePath();
+		if (digest == null && filePath == null) {
+			return null;
+		}
+		String key = digest != null ? digest : pathKeys.get(filePath);
+		Image image = key != null ? memory.get(key) : null;
+		if (image != null) {
+			return image;
+		}
+		String request = digest != null ? "digest:" + digest : "path:" + filePath;
+		List<Consumer<Image>> waiting = pending.get(request);
+		if (waiting != null) {
+			waiting.add(onLoaded);
+			return null;
+		}
+		waiting = new ArrayList<>();
+		waiting.add(onLoaded);
+		pending.put(request, waiting);
+		loader.execute(() -> {
+			String resolved = digest != null ? digest : keyOf(filePath);
+			File thumbnail = new File(directory, resolved + "-" + size + ".png");
+			boolean cached = thumbnail.exists();
+			Platform.runLater(() -> loaded(request, resolved, filePath, thumbnail, cached));
+		});
+		return null;
+	}
+
+	/**
+	 * Clave de la miniatura de una imagen que no esta en el ImageStore: su ruta y su fecha
+	 * 
+	 * @param filePath String
+	 * @return String
+	 */
+	private static String keyOf(String filePath) {
+		File file = new File(filePath);
+		return sha1(file.getAbsolutePath() + ":" + file.lastModified());
+	}
+
+	/**
+	 * Ya en el hilo de JavaFX: guarda la clave y la miniatura y avisa a quien la esperaba
+	 */
+	private void loaded(String request, String key, String filePath, File thumbnail, boolean cached) {
+		if (request.startsWith("path:")) {
+			pathKeys.put(filePath, key);
+		}
+		Image image = memory.get(key);
+		if (image == null) {
+			image = load(filePath, thumbnail, cached);
+			memory.put(key, image);
+		}
+		for (Consumer<Image> onLoaded : pending.remove(request)) {
+			onLoaded.accept(image);
+		}
+	}
+
+	private Image load(String filePath, File thumbnail, boolean cached) {
+		if (cached) {
+			return new Image(thumbnail.toURI().toString(), size, size, true, true, true);
+		}
+		// Decodificamos directamente al tamaño pedido, nunca la imagen entera
+		Image image = new Image(new File(filePath).toURI().toString(), size, size, true, true, true);
+		image.progressProperty().addListener((observable, oldValue, progress) -> {
+			if (progress.doubleValue() >= 1.0 && !image.isError()) {
+				save(image, thumbnail);
+			}
+		});
+		return image;
+	}
+
+	private void save(Image image, File thumbnail) {
+		// La conversion es barata con imagenes tan pequeñas; lo lento (el disco) va en el otro hilo
+		BufferedImage buffered = SwingFXUtils.fromFXImage(image, null);
+		writer.execute(() -> {
+			try {
+				directory.mkdirs();
+				ImageIO.write(buffered, "png", thumbnail);
+			} catch (IOException e) {
+				// Si no se puede guardar la volveremos a generar la proxima vez
+				e.printStackTrace();
+			}
+		});
+	}
+
+	private static String sha1(String value) {
+		try {
+			byte[] bytes = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+			char[] chars = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+				chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+			}
+			return new String(chars);
+		} catch (NoSuchAlgorithmException e) {
+			// Toda JVM tiene SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Para los hilos de carga y de escritura
+	 */
+	public void shutdown() {
+		loader.shutdown();
+		writer.shutdown();
+	}
+}
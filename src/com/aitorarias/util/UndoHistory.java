@@ -0,0 +1,517 @@
+package com.aitorarias.util;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import com.aitorarias.entity.Product;
+
+import javafx.collections.ObservableList;
+
+/**
+ * Historial para deshacer y rehacer cambios de la factura. Cada cambio se guarda como un registro
+ * pequeño (posiciones y valores primitivos de antes y de despues), nunca como una copia de la lista.
+ * Un cambio de muchas filas es un solo registro que comparte sus arrays con el diario, y si el valor
+ * nuevo es el mismo para todas las filas se guarda una sola vez.
+ *
+ * El historial tiene un limite de memoria: cuando se pasa se olvidan los cambios mas antiguos.
+ * Lo que ocupa cada registro es una estimacion. Abrir o importar un documento no es un cambio:
+ * el historial empieza de nuevo (clear()), asi nunca guarda la lista de antes entera.
+ *
+ * Las filas se identifican por su posicion en la lista de productos, como en el diario.
+ * Solo se usa desde el hilo de JavaFX.
+ *
+ * @author AitorArias
+ *
+ */
+public class UndoHistory {
+
+	// Estimaciones de memoria: cabecera de un objeto o array, una referencia y un producto
+	// que ya no esta en la lista y solo sigue vivo por el historial
+	private static final long OBJECT_BYTES = 16;
+	private static final long REFERENCE_BYTES = 8;
+	private static final long PRODUCT_BYTES = 160;
+
+	// Los cambios que solo añaden o quitan filas no cambian el valor de ninguna
+	private static final int[] NO_INDEXES = new int[0];
+
+	/**
+	 * Un cambio que se puede deshacer y rehacer
+	 */
+	public interface Edit {
+
+		void undo(ObservableList<Product> products);
+
+		void redo(ObservableList<Product> products);
+
+		/**
+		 * Apunta en el diario lo que hace undo()
+		 *
+		 * @param journal ChangeJournal
+		 * @throws IOException
+		 */
+		void logUndo(ChangeJournal journal) throws IOException;
+
+		/**
+		 * Apunta en el diario lo que hace redo()
+		 *
+		 * @param journal ChangeJournal
+		 * @throws IOException
+		 */
+		void logRedo(ChangeJournal journal) throws IOException;
+
+		/**
+		 * Memoria aproximada que ocupa el registro
+		 *
+		 * @return long bytes
+		 */
+		long getSize();
+
+		/**
+		 * Indica si el cambio añade o quita filas, y por tanto cambia las posiciones de las demas
+		 *
+		 * @return boolean
+		 */
+		boolean movesRows();
+
+		/**
+		 * Posiciones en la lista de los productos a los que cambia algun valor. Las filas añadidas o
+		 * quitadas no cuentan, de esas ya avisa la propia lista.
+		 *
+		 * @return int[] no se debe modificar
+		 */
+		int[] getChangedIndexes();
+	}
+
+	private final Deque<Edit> undoStack = new ArrayDeque<>();
+	private final Deque<Edit> redoStack = new ArrayDeque<>();
+	private final long maxBytes;
+	private long bytes;
+
+	/**
+	 * @param maxBytes long memoria aproximada que puede ocupar el historial
+	 */
+	public UndoHistory(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Guarda un cambio ya hecho. Lo que hubiera para rehacer se pierde.
+	 * Un cambio que por si solo no cabe en el limite no se guarda y los anteriores se quedan,
+	 * salvo si añade o quita filas: entonces las posiciones de los anteriores ya no valen y se olvidan.
+	 *
+	 * @param edit Edit
+	 * @return boolean false si el cambio no se ha guardado y no se va a poder deshacer
+	 */
+	public boolean record(Edit edit) {
+		for (Edit discarded : redoStack) {
+			bytes -= discarded.getSize();
+		}
+		redoStack.clear();
+		long size = edit.getSize();
+		if (size > maxBytes) {
+			if (edit.movesRows()) {
+				clear();
+			}
+			return false;
+		}
+		undoStack.push(edit);
+		bytes += size;
+		evict();
+		return true;
+	}
+
+	/**
+	 * Deshace el ultimo cambio
+	 *
+	 * @param products ObservableList<Product>
+	 * @return Edit el cambio deshecho, o null si no hay nada que deshacer
+	 */
+	public Edit undo(ObservableList<Product> products) {
+		Edit edit = undoStack.poll();
+		if (edit == null) {
+			return null;
+		}
+		// Lo que ocupa puede cambiar al deshacerlo
+		bytes -= edit.getSize();
+		edit.undo(products);
+		redoStack.push(edit);
+		bytes += edit.getSize();
+		evict();
+		return edit;
+	}
+
+	/**
+	 * Rehace el ultimo cambio deshecho
+	 *
+	 * @param products ObservableList<Product>
+	 * @return Edit el cambio rehecho, o null si no hay nada que rehacer
+	 */
+	public Edit redo(ObservableList<Product> products) {
+		Edit edit = redoStack.poll();
+		if (edit == null) {
+			return null;
+		}
+		bytes -= edit.getSize();
+		edit.redo(products);
+		undoStack.push(edit);
+		bytes += edit.getSize();
+		evict();
+		return edit;
+	}
+
+	public boolean canUndo() {
+		return !undoStack.isEmpty();
+	}
+
+	public boolean canRedo() {
+		return !redoStack.isEmpty();
+	}
+
+	/**
+	 * Memoria aproximada que ocupa ahora el historial
+	 *
+	 * @return long bytes
+	 */
+	public long getSize() {
+		return bytes;
+	}
+
+	/**
+	 * Olvida todo el historial
+	 */
+	public void clear() {
+		undoStack.clear();
+		redoStack.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Olvida los cambios mas antiguos hasta caber en el limite
+	 */
+	private void evict() {
+		while (bytes > maxBytes && !undoStack.isEmpty()) {
+			bytes -= undoStack.removeLast().getSize();
+		}
+	}
+
+	/**
+	 * Cambio de nombre de un producto
+	 *
+	 * @param products List<Product> la lista antes del cambio
+	 * @param index    int
+	 * @param nombre   String el nombre nuevo
+	 * @return Edit
+	 */
+	public static Edit nameChange(List<Product> products, int index, String nombre) {
+		return new NameEdit(index, products.get(index).getName(), nombre);
+	}
+
+	/**
+	 * La misma cantidad para uno o varios productos
+	 *
+	 * @param products List<Product> la lista antes del cambio
+	 * @param indexes  int[]
+	 * @param cantidad int la cantidad nueva
+	 * @return Edit
+	 */
+	public static Edit cantidadChange(List<Product> products, int[] indexes, int cantidad) {
+		int[] before = new int[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			before[i] = products.get(indexes[i]).getCantidad();
+		}
+		return new CantidadEdit(indexes, before, cantidad);
+	}
+
+	/**
+	 * Precios nuevos de uno o varios productos
+	 *
+	 * @param products List<Product> la lista antes del cambio
+	 * @param indexes  int[]
+	 * @param precios  double[] el precio nuevo de cada posicion de indexes
+	 * @return Edit
+	 */
+	public static Edit precioChange(List<Product> products, int[] indexes, double[] precios) {
+		double[] before = new double[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			before[i] = products.get(indexes[i]).getUnitPrice();
+		}
+		return new PrecioEdit(indexes, before, precios);
+	}
+
+	/**
+	 * Productos añadidos seguidos a partir de una posicion
+	 *
+	 * @param index int posicion del primero
+	 * @param added List<Product>
+	 * @return Edit
+	 */
+	public static Edit addition(int index, List<Product> added) {
+		int[] indexes = new int[added.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = index + i;
+		}
+		return new RowsEdit(indexes, added.toArray(new Product[0]), true);
+	}
+
+	/**
+	 * Productos que se van a quitar
+	 *
+	 * @param products List<Product> la lista antes del cambio
+	 * @param indexes  int[] posiciones sin repetir, en cualquier orden
+	 * @return Edit
+	 */
+	public static Edit removal(List<Product> products, int[] indexes) {
+		int[] sorted = indexes.clone();
+		Arrays.sort(sorted);
+		Product[] removed = new Product[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			removed[i] = products.get(sorted[i]);
+		}
+		return new RowsEdit(sorted, removed, false);
+	}
+
+	private static long intsSize(int[] values) {
+		return OBJECT_BYTES + 4L * values.length;
+	}
+
+	private static long doublesSize(double[] values) {
+		return OBJECT_BYTES + 8L * values.length;
+	}
+
+	private static long stringSize(String value) {
+		return value == null ? 0 : 2 * OBJECT_BYTES + 2L * value.length();
+	}
+
+	private static long productsSize(Product[] values) {
+		return OBJECT_BYTES + (REFERENCE_BYTES + PRODUCT_BYTES) * values.length;
+	}
+
+	private static class NameEdit implements Edit {
+
+		private final int index;
+		private final String before;
+		private final String after;
+
+		NameEdit(int index, String before, String after) {
+			this.index = index;
+			this.before = before;
+			this.after = after;
+		}
+
+		@Override
+		public void undo(ObservableList<Product> products) {
+			products.get(index).setName(before);
+		}
+
+		@Override
+		public void redo(ObservableList<Product> products) {
+			products.get(index).setName(after);
+		}
+
+		@Override
+		public void logUndo(ChangeJournal journal) throws IOException {
+			journal.logName(index, before);
+		}
+
+		@Override
+		public void logRedo(ChangeJournal journal) throws IOException {
+			journal.logName(index, after);
+		}
+
+		@Override
+		public boolean movesRows() {
+			return false;
+		}
+
+		@Override
+		public int[] getChangedIndexes() {
+			return new int[] { index };
+		}
+
+		@Override
+		public long getSize() {
+			return OBJECT_BYTES + stringSize(before) + stringSize(after);
+		}
+	}
+
+	private static class CantidadEdit implements Edit {
+
+		private final int[] indexes;
+		private final int[] before;
+		// Siempre es la misma para todas las filas
+		private final int after;
+
+		CantidadEdit(int[] indexes, int[] before, int after) {
+			this.indexes = indexes;
+			this.before = before;
+			this.after = after;
+		}
+
+		@Override
+		public void undo(ObservableList<Product> products) {
+			for (int i = 0; i < indexes.length; i++) {
+				products.get(indexes[i]).setCantidad(before[i]);
+			}
+		}
+
+		@Override
+		public void redo(ObservableList<Product> products) {
+			for (int index : indexes) {
+				products.get(index).setCantidad(after);
+			}
+		}
+
+		@Override
+		public void logUndo(ChangeJournal journal) throws IOException {
+			journal.logCantidadAll(indexes, before);
+		}
+
+		@Override
+		public void logRedo(ChangeJournal journal) throws IOException {
+			journal.logCantidadAll(indexes, after);
+		}
+
+		@Override
+		public boolean movesRows() {
+			return false;
+		}
+
+		@Override
+		public int[] getChangedIndexes() {
+			return indexes;
+		}
+
+		@Override
+		public long getSize() {
+			return OBJECT_BYTES + intsSize(indexes) + intsSize(before);
+		}
+	}
+
+	private static class PrecioEdit implements Edit {
+
+		private final int[] indexes;
+		private final double[] before;
+		private final double[] after;
+
+		PrecioEdit(int[] indexes, double[] before, double[] after) {
+			this.indexes = indexes;
+			this.before = before;
+			this.after = after;
+		}
+
+		@Override
+		public void undo(ObservableList<Product> products) {
+			for (int i = 0; i < indexes.length; i++) {
+				products.get(indexes[i]).setUnitPrice(before[i]);
+			}
+		}
+
+		@Override
+		public void redo(ObservableList<Product> products) {
+			for (int i = 0; i < indexes.length; i++) {
+				products.get(indexes[i]).setUnitPrice(after[i]);
+			}
+		}
+
+		@Override
+		public void logUndo(ChangeJournal journal) throws IOException {
+			journal.logPrecioAll(indexes, before);
+		}
+
+		@Override
+		public void logRedo(ChangeJournal journal) throws IOException {
+			journal.logPrecioAll(indexes, after);
+		}
+
+		@Override
+		public boolean movesRows() {
+			return false;
+		}
+
+		@Override
+		public int[] getChangedIndexes() {
+			return indexes;
+		}
+
+		@Override
+		public long getSize() {
+			return OBJECT_BYTES + intsSize(indexes) + doublesSize(before) + doublesSize(after);
+		}
+	}
+
+	/**
+	 * Filas añadidas o quitadas. Guarda los mismos productos, no copias.
+	 */
+	private static class RowsEdit implements Edit {
+
+		// Posiciones en la lista con las filas puestas, de menor a mayor
+		private final int[] indexes;
+		private final Product[] rows;
+		private final boolean added;
+
+		RowsEdit(int[] indexes, Product[] rows, boolean added) {
+			this.indexes = indexes;
+			this.rows = rows;
+			this.added = added;
+		}
+
+		@Override
+		public void undo(ObservableList<Product> products) {
+			apply(products, !added);
+		}
+
+		@Override
+		public void redo(ObservableList<Product> products) {
+			apply(products, added);
+		}
+
+		@Override
+		public void logUndo(ChangeJournal journal) throws IOException {
+			log(journal, !added);
+		}
+
+		@Override
+		public void logRedo(ChangeJournal journal) throws IOException {
+			log(journal, added);
+		}
+
+		private void apply(ObservableList<Product> products, boolean insert) {
+			if (insert) {
+				ProductListOps.insertAll(products, indexes, rows);
+			} else {
+				ProductListOps.removeAll(products, indexes);
+			}
+		}
+
+		private void log(ChangeJournal journal, boolean insert) throws IOException {
+			if (insert) {
+				journal.logAddAll(indexes, rows);
+			} else {
+				// El diario quita de mayor a menor
+				int[] descending = new int[indexes.length];
+				for (int i = 0; i < indexes.length; i++) {
+					descending[i] = indexes[indexes.length - 1 - i];
+				}
+				journal.logRemoveAll(descending);
+			}
+		}
+
+		@Override
+		public boolean movesRows() {
+			return true;
+		}
+
+		@Override
+		public int[] getChangedIndexes() {
+			return NO_INDEXES;
+		}
+
+		@Override
+		public long getSize() {
+			return OBJECT_BYTES + intsSize(indexes) + productsSize(rows);
+		}
+	}
+}
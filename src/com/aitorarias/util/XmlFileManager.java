@@ -1,12 +1,24 @@
 package com.aitorarias.util;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
 
 import com.aitorarias.entity.Product;
 import com.aitorarias.wrapper.ProductListWrapper;
@@ -17,6 +29,78 @@ import com.aitorarias.wrapper.ProductListWrapper;
  *
  */
 public class XmlFileManager {
+
+	// El JAXBContext es thread-safe y muy caro de crear (reflexion sobre ProductListWrapper y Product),
+	// asi que lo creamos una sola vez y lo compartimos
+	private static volatile JAXBContext context;
+	// Marshaller y Unmarshaller NO son thread-safe: uno por hilo y reutilizados entre llamadas
+	private static final ThreadLocal<Marshaller> MARSHALLER = new ThreadLocal<>();
+	private static final ThreadLocal<Unmarshaller> UNMARSHALLER = new ThreadLocal<>();
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Crea el contexto JAXB por adelantado para que el primer guardado o carga no pague su coste.
+	 * Pensado para llamarse al arrancar la aplicacion.
+	 * 
+	 * @throws JAXBException
+	 */
+	public static void warmUp() throws JAXBException {
+		getMarshaller();
+		getUnmarshaller();
+	}
+
+	/**
+	 * Devuelve el contexto compartido, creandolo la primera vez
+	 * 
+	 * @return JAXBContext
+	 * @throws JAXBException
+	 */
+	private static JAXBContext getContext() throws JAXBException {
+		JAXBContext result = context;
+		if (result == null) {
+			synchronized (XmlFileManager.class) {
+				result = context;
+				if (result == null) {
+					result = JAXBContext.newInstance(ProductListWrapper.class);
+					context = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Devuelve el Marshaller del hilo actual
+	 * 
+	 * @return Marshaller
+	 * @throws JAXBException
+	 */
+	private static Marshaller getMarshaller() throws JAXBException {
+		Marshaller marshaller = MARSHALLER.get();
+		if (marshaller == null) {
+			// La clase Marshaller es responsable de gobernar el proceso de serialización de los árboles de contenido Java en datos XML. 
+			// Referencias: https://docs.oracle.com/javase/7/docs/api/javax/xml/bind/Marshaller.html
+			marshaller = getContext().createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+			MARSHALLER.set(marshaller);
+		}
+		return marshaller;
+	}
+
+	/**
+	 * Devuelve el Unmarshaller del hilo actual
+	 * 
+	 * @return Unmarshaller
+	 * @throws JAXBException
+	 */
+	static Unmarshaller getUnmarshaller() throws JAXBException {
+		Unmarshaller unmarshaller = UNMARSHALLER.get();
+		if (unmarshaller == null) {
+			unmarshaller = getContext().createUnmarshaller();
+			UNMARSHALLER.set(unmarshaller);
+		}
+		return unmarshaller;
+	}
 	
 	/**
 	 * Guardar la lista de productos almacenadas en el objecto wrapper a un archivo especifico
@@ -26,29 +110,196 @@ public class XmlFileManager {
 	 * @throws JAXBException
 	 */
 	public static void saveToXmlFile(ProductListWrapper wrapper, File file) throws JAXBException {
-		JAXBContext context = JAXBContext.newInstance(ProductListWrapper.class);
-		// La clase Marshaller es responsable de gobernar el proceso de serialización de los árboles de contenido Java en datos XML. 
-		// Proporciona los métodos básicos de clasificación:
-		Marshaller marshaller = context.createMarshaller();
-		// Creamos el Marshaller
-		// Referencias: https://docs.oracle.com/javase/7/docs/api/javax/xml/bind/Marshaller.html
-		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-		marshaller.marshal(wrapper, file);
+		// Se escribe en un temporal y solo se cambia por el archivo si todo ha ido bien
+		AtomicFile atomicFile = new AtomicFile(file, 0);
+		try {
+			try (OutputStream output = StreamCodecs.encode(file,
+					new BufferedOutputStream(Channels.newOutputStream(atomicFile.open()), BUFFER_SIZE))) {
+				getMarshaller().marshal(wrapper, output);
+			}
+			atomicFile.commit();
+		} catch (IOException e) {
+			atomicFile.abort();
+			throw new JAXBException(e);
+		} catch (JAXBException | RuntimeException e) {
+			atomicFile.abort();
+			throw e;
+		}
 	}
 	
 	/**
-	 * Carga la lista de productos desde un .xml
+	 * Abre un escritor en streaming sobre el archivo. Al cerrarlo se termina el documento.
+	 * 
+	 * @param file   File
+	 * @param indent boolean
+	 * @return ProductXmlWriter
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 */
+	public static ProductXmlWriter openWriter(File file, boolean indent) throws XMLStreamException, IOException {
+		return openWriter(file, indent, 0);
+	}
+
+	/**
+	 * Abre un escritor en streaming guardando copias de las versiones anteriores del archivo
+	 * 
+	 * @param file    File
+	 * @param indent  boolean
+	 * @param backups int copias que se guardan (archivo.bak1, archivo.bak2...)
+	 * @return ProductXmlWriter
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 */
+	public static ProductXmlWriter openWriter(File file, boolean indent, int backups)
+			throws XMLStreamException, IOException {
+		return openWriter(file, indent, backups, 0);
+	}
+
+	/**
+	 * Abre un escritor en streaming que guarda tambien la generacion del documento (ver ChangeJournal)
+	 * 
+	 * @param file       File
+	 * @param indent     boolean
+	 * @param backups    int copias que se guardan (archivo.bak1, archivo.bak2...)
+	 * @param generation long
+	 * @return ProductXmlWriter
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 */
+	public static ProductXmlWriter openWriter(File file, boolean indent, int backups, long generation)
+			throws XMLStreamException, IOException {
+		return new ProductXmlWriter(file, indent, backups, generation);
+	}
+
+	/**
+	 * Guarda la lista de productos escribiendolos uno a uno, sin pasar por el ProductListWrapper
+	 * 
+	 * @param products List<Product>
+	 * @param file     File
+	 * @param indent   boolean
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 */
+	public static void saveToXmlFile(List<Product> products, File file, boolean indent)
+			throws XMLStreamException, IOException {
+		try (ProductXmlWriter writer = openWriter(file, indent)) {
+			for (Product product : products) {
+				writer.write(product);
+			}
+		}
+	}
+	
+	/**
+	 * Carga la lista de productos desde un .xml, comprimido o no
 	 * 
 	 * @param file File
 	 * @return List<Product>
 	 * @throws JAXBException
 	 */
 	public static List<Product> loadFromXmlFile(File file) throws JAXBException {
-		JAXBContext context = JAXBContext.newInstance(ProductListWrapper.class);
-		Unmarshaller unmarshaller = context.createUnmarshaller();
-		ProductListWrapper wrapper = (ProductListWrapper) unmarshaller.unmarshal(file);
-		
-		return wrapper.getProducts();
+		try (InputStream input = StreamCodecs.decode(new FileInputStream(file))) {
+			ProductListWrapper wrapper = (ProductListWrapper) getUnmarshaller().unmarshal(input);
+			
+			return wrapper.getProducts();
+		} catch (IOException e) {
+			throw new JAXBException(e);
+		}
 	}
 
+	/**
+	 * Abre un lector en streaming sobre el archivo. Hay que cerrarlo al terminar.
+	 * 
+	 * @param file File
+	 * @return ProductXmlReader
+	 * @throws JAXBException
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 */
+	public static ProductXmlReader openReader(File file) throws JAXBException, XMLStreamException, IOException {
+		return new ProductXmlReader(file, getUnmarshaller());
+	}
+
+	/**
+	 * Carga los productos desde un .xml por lotes sin tener el documento entero en memoria.
+	 * Cada lote se entrega al consumer en cuanto se ha leido.
+	 * 
+	 * @param file      File
+	 * @param batchSize int
+	 * @param consumer  Consumer<List<Product>>
+	 * @throws JAXBException
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 */
+	public static void loadFromXmlFile(File file, int batchSize, Consumer<List<Product>> consumer)
+			throws JAXBException, XMLStreamException, IOException {
+		try (ProductXmlReader reader = openReader(file)) {
+			List<Product> batch;
+			while (!(batch = reader.readBatch(batchSize)).isEmpty()) {
+				consumer.accept(batch);
+			}
+		}
+	}
+
+	/**
+	 * Carga un .xml grande usando varios hilos: el archivo se parte en trozos que empiezan en un
+	 * elemento product, cada trozo se parsea en el executor y al final se juntan en el orden del documento.
+	 * Un archivo comprimido no se puede partir y se lee entero en este hilo.
+	 * 
+	 * @param file     File
+	 * @param executor ExecutorService
+	 * @param shards   int trozos que se quieren como mucho
+	 * @return List<Product>
+	 * @throws IOException
+	 * @throws JAXBException
+	 * @throws XMLStreamException
+	 * @throws InterruptedException
+	 */
+	public static List<Product> loadFromXmlFileParallel(File file, ExecutorService executor, int shards)
+			throws IOException, JAXBException, XMLStreamException, InterruptedException {
+		if (StreamCodecs.detect(file) != null) {
+			return loadFromXmlFile(file);
+		}
+		List<Future<List<Product>>> futures = ProductXmlShards.submit(file,
+				ProductXmlShards.findBoundaries(file, shards), executor);
+		List<Product> products = new ArrayList<>();
+		try {
+			for (Future<List<Product>> future : futures) {
+				products.addAll(getShard(future));
+			}
+		} finally {
+			for (Future<List<Product>> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return products;
+	}
+
+	/**
+	 * Espera a un trozo y devuelve sus productos, relanzando el error del trozo con su tipo
+	 * 
+	 * @param future Future<List<Product>>
+	 * @return List<Product>
+	 * @throws IOException
+	 * @throws JAXBException
+	 * @throws XMLStreamException
+	 * @throws InterruptedException
+	 */
+	public static List<Product> getShard(Future<List<Product>> future)
+			throws IOException, JAXBException, XMLStreamException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof JAXBException) {
+				throw (JAXBException) cause;
+			} else if (cause instanceof XMLStreamException) {
+				throw (XMLStreamException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
 }
@@ -0,0 +1,211 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Pruebas del diario de cambios: aplicar los cambios sobre el documento, y no aplicar dos veces
+ * los que ya estan dentro del documento si la aplicacion se cierra en mitad de un guardado
+ *
+ * @author AitorArias
+ *
+ */
+public class ChangeJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replayAppliesEveryRecord() throws Exception {
+		File document = folder.newFile("factura.xml");
+		List<Product> saved = products("a", "b", "c");
+		save(saved, document, 0);
+
+		try (ChangeJournal journal = ChangeJournal.create(document)) {
+			journal.logName(0, "A");
+			journal.logCantidad(1, 8);
+			journal.logPrecio(2, 4.25);
+			journal.logAdd(3, new Product("d", 1, 1.0, null));
+			journal.logRemove(0);
+			journal.logAddAll(new int[] { 0, 2 }, new Product[] { new Product("x", 1, 1, null),
+					new Product("y", 1, 1, null) });
+		}
+		assertTrue(ChangeJournal.hasPendingChanges(document));
+
+		List<Product> products = load(document);
+		assertEquals(7, ChangeJournal.replay(document, products));
+		assertEquals(Arrays.asList("x", "b", "y", "c", "d"), names(products));
+		assertEquals(8, products.get(1).getCantidad());
+		assertEquals(4.25, products.get(3).getUnitPrice(), 0.0);
+	}
+
+	@Test
+	public void secondCompactionIsRejected() throws Exception {
+		File document = folder.newFile("factura.xml");
+		save(products("a"), document, 0);
+		try (ChangeJournal journal = ChangeJournal.create(document)) {
+			journal.beginCompaction();
+			journal.logCantidad(0, 3);
+			try {
+				journal.beginCompaction();
+				fail("Se ha empezado una compactacion encima de otra");
+			} catch (IllegalStateException expected) {
+				// El segundo diario sigue intacto
+			}
+			journal.endCompaction(true);
+		}
+		List<Product> products = load(document);
+		assertEquals(1, ChangeJournal.replay(document, products));
+		assertEquals(3, products.get(0).getCantidad());
+	}
+
+	@Test
+	public void recordCutInHalfIsIgnored() throws Exception {
+		File document = folder.newFile("factura.xml");
+		save(products("a"), document, 0);
+		try (ChangeJournal journal = ChangeJournal.create(document)) {
+			journal.logCantidad(0, 3);
+		}
+		// La aplicacion se cerro escribiendo el siguiente registro: solo llego el tipo de registro
+		try (FileOutputStream output = new FileOutputStream(journalOf(document), true)) {
+			output.write(2);
+		}
+		List<Product> products = load(document);
+		assertEquals(1, ChangeJournal.replay(document, products));
+		assertEquals(3, products.get(0).getCantidad());
+	}
+
+	@Test
+	public void crashAfterSavingDoesNotApplyTheOldJournalAgain() throws Exception {
+		File document = folder.newFile("factura.xml");
+		List<Product> products = products("a", "b");
+		save(products, document, 0);
+
+		ChangeJournal journal = ChangeJournal.create(document);
+		products.add(new Product("c", 1, 1.0, null));
+		journal.logAdd(2, products.get(2));
+		// Se guarda el documento entero, y mientras se guarda se sigue editando
+		long generation = journal.beginCompaction();
+		save(products, document, generation);
+		products.add(new Product("d", 1, 1.0, null));
+		journal.logAdd(3, products.get(3));
+		// Se cierra antes de endCompaction: el primer diario sigue ahi pero ya esta en el documento
+		journal.close();
+
+		List<Product> recovered = load(document);
+		assertEquals(1, ChangeJournal.replay(document, recovered));
+		assertEquals(Arrays.asList("a", "b", "c", "d"), names(recovered));
+	}
+
+	@Test
+	public void crashBeforeSavingAppliesBothJournals() throws Exception {
+		File document = folder.newFile("factura.xml");
+		List<Product> products = products("a");
+		save(products, document, 0);
+
+		ChangeJournal journal = ChangeJournal.create(document);
+		journal.logName(0, "b");
+		journal.beginCompaction();
+		journal.logCantidad(0, 5);
+		// El documento no llego a guardarse
+		journal.close();
+
+		List<Product> recovered = load(document);
+		assertEquals(2, ChangeJournal.replay(document, recovered));
+		assertEquals("b", recovered.get(0).getName());
+		assertEquals(5, recovered.get(0).getCantidad());
+	}
+
+	@Test
+	public void resumeDropsJournalsAlreadyInTheDocument() throws Exception {
+		File document = folder.newFile("factura.xml");
+		List<Product> products = products("a");
+		save(products, document, 0);
+
+		ChangeJournal journal = ChangeJournal.create(document);
+		journal.logName(0, "b");
+		long generation = journal.beginCompaction();
+		products.get(0).setName("b");
+		save(products, document, generation);
+		journal.logCantidad(0, 9);
+		journal.close();
+
+		try (ChangeJournal resumed = ChangeJournal.resume(document)) {
+			assertEquals(generation, resumed.getGeneration());
+			resumed.logPrecio(0, 3.0);
+		}
+		assertFalse(new File(document.getPath() + ".journal.next").exists());
+		List<Product> recovered = load(document);
+		assertEquals(2, ChangeJournal.replay(document, recovered));
+		assertEquals(9, recovered.get(0).getCantidad());
+		assertEquals(3.0, recovered.get(0).getUnitPrice(), 0.0);
+	}
+
+	@Test
+	public void successfulCompactionLeavesNothingPending() throws Exception {
+		File document = folder.newFile("factura.xml");
+		List<Product> products = products("a");
+		save(products, document, 0);
+
+		try (ChangeJournal journal = ChangeJournal.create(document)) {
+			journal.logName(0, "b");
+			products.get(0).setName("b");
+			save(products, document, journal.beginCompaction());
+			journal.endCompaction(true);
+		}
+		assertFalse(ChangeJournal.hasPendingChanges(document));
+		assertEquals(0, ChangeJournal.replay(document, load(document)));
+	}
+
+	private static File journalOf(File document) {
+		File journal = new File(document.getPath() + ".journal");
+		assertTrue(journal.exists());
+		return journal;
+	}
+
+	private static void save(List<Product> products, File document, long generation)
+			throws IOException, XMLStreamException {
+		try (ProductXmlWriter writer = XmlFileManager.openWriter(document, false, 0, generation)) {
+			for (Product product : products) {
+				writer.write(product);
+			}
+		}
+	}
+
+	private static List<Product> load(File document) throws Exception {
+		return new ArrayList<>(XmlFileManager.loadFromXmlFile(document));
+	}
+
+	private static List<Product> products(String... names) {
+		List<Product> products = new ArrayList<>();
+		for (String name : names) {
+			products.add(new Product(name, 1, 1.0, null));
+		}
+		return products;
+	}
+
+	private static List<String> names(List<Product> products) {
+		List<String> names = new ArrayList<>();
+		for (Product product : products) {
+			names.add(product.getName());
+		}
+		return names;
+	}
+}
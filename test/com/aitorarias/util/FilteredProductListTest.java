@@ -0,0 +1,153 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.aitorarias.entity.Product;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Pruebas de la vista filtrada: tiene que tener los mismos productos que filtrar la lista entera,
+ * y los avisos a la tabla tienen que llevar a la misma vista
+ *
+ * @author AitorArias
+ *
+ */
+public class FilteredProductListTest {
+
+	@Test
+	public void narrowingAndWideningMatchAFullFilter() {
+		Random random = new Random(1);
+		ObservableList<Product> source = products(random, 500);
+		FilteredProductList filtered = new FilteredProductList(source);
+		List<Product> view = mirror(filtered);
+		Set<Product> matches = new HashSet<>(source);
+		for (int round = 0; round < 200; round++) {
+			if (random.nextInt(10) == 0) {
+				matches = null;
+			} else {
+				matches = random.nextBoolean() && matches != null ? narrow(random, matches) : pick(random, source);
+			}
+			filtered.setMatches(matches);
+			assertFiltered(source, matches, filtered);
+			assertEquals(filtered, view);
+		}
+	}
+
+	@Test
+	public void fewChangesAreSentRowByRow() {
+		ObservableList<Product> source = products(new Random(2), 100);
+		FilteredProductList filtered = new FilteredProductList(source);
+		Set<Product> matches = new HashSet<>(source);
+		matches.remove(source.get(10));
+		matches.remove(source.get(50));
+		List<Integer> removedRows = new ArrayList<>();
+		filtered.addListener((ListChangeListener<Product>) change -> {
+			while (change.next()) {
+				assertEquals(1, change.getRemovedSize());
+				removedRows.add(change.getFrom());
+			}
+		});
+		filtered.setMatches(matches);
+		assertEquals(98, filtered.size());
+		assertEquals(2, removedRows.size());
+		assertEquals(-1, filtered.getViewIndex(50));
+		assertEquals(49, filtered.getViewIndex(51));
+	}
+
+	@Test
+	public void sourceChangesKeepTheFilter() {
+		Random random = new Random(3);
+		ObservableList<Product> source = products(random, 300);
+		FilteredProductList filtered = new FilteredProductList(source);
+		List<Product> view = mirror(filtered);
+		Set<Product> matches = pick(random, source);
+		filtered.setMatches(matches);
+
+		List<Product> added = products(random, 40);
+		for (int i = 0; i < added.size(); i += 2) {
+			matches.add(added.get(i));
+		}
+		source.addAll(100, added);
+		source.remove(0, 30);
+		source.remove(source.size() - 5, source.size());
+		source.set(7, added.get(0));
+		source.add(added.get(2));
+		assertFiltered(source, matches, filtered);
+		assertEquals(filtered, view);
+
+		FXCollections.sort(source, (a, b) -> Double.compare(a.getUnitPrice(), b.getUnitPrice()));
+		assertFiltered(source, matches, filtered);
+		assertEquals(filtered, view);
+	}
+
+	/**
+	 * Lo que veria la tabla aplicando los avisos de la lista
+	 */
+	private static List<Product> mirror(FilteredProductList filtered) {
+		List<Product> view = new ArrayList<>(filtered);
+		filtered.addListener((ListChangeListener<Product>) change -> {
+			while (change.next()) {
+				for (int i = 0; i < change.getRemovedSize(); i++) {
+					assertEquals(change.getRemoved().get(i), view.remove(change.getFrom()));
+				}
+				view.addAll(change.getFrom(), change.getAddedSubList());
+			}
+		});
+		return view;
+	}
+
+	private static void assertFiltered(List<Product> source, Set<Product> matches, FilteredProductList filtered) {
+		List<Product> expected = new ArrayList<>();
+		for (Product product : source) {
+			if (matches == null || matches.contains(product)) {
+				expected.add(product);
+			}
+		}
+		assertEquals(expected, filtered);
+		for (int row = 0; row < filtered.size(); row++) {
+			assertEquals(row, filtered.getViewIndex(filtered.getSourceIndex(row)));
+		}
+	}
+
+	private static Set<Product> narrow(Random random, Set<Product> matches) {
+		Set<Product> narrowed = new HashSet<>();
+		// A veces casi todos, a veces pocos: filas sueltas y cambios grandes
+		int keep = random.nextBoolean() ? 95 : 40;
+		for (Product product : matches) {
+			if (random.nextInt(100) < keep) {
+				narrowed.add(product);
+			}
+		}
+		return narrowed;
+	}
+
+	private static Set<Product> pick(Random random, List<Product> source) {
+		Set<Product> picked = new HashSet<>();
+		int percent = random.nextInt(100);
+		for (Product product : source) {
+			if (random.nextInt(100) < percent) {
+				picked.add(product);
+			}
+		}
+		return picked;
+	}
+
+	private static ObservableList<Product> products(Random random, int count) {
+		ObservableList<Product> products = FXCollections.observableArrayList();
+		for (int i = 0; i < count; i++) {
+			products.add(new Product("p" + i, random.nextInt(20), random.nextInt(400) / 4.0, null));
+		}
+		return products;
+	}
+}
@@ -0,0 +1,153 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.entity.ProductColumnStore;
+
+/**
+ * Pruebas del formato binario: ida y vuelta, y archivos corruptos que deben dar IOException
+ *
+ * @author AitorArias
+ *
+ */
+public class ProductBinaryFileTest {
+
+	// Mismos desplazamientos que ProductBinaryFile
+	private static final int HEADER_SIZE = 32;
+	private static final int COUNT_OFFSET = 8;
+	private static final int STRING_COUNT_OFFSET = 12;
+	private static final int RECORD_SIZE = 24;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTripKeepsEveryField() throws IOException {
+		File file = folder.newFile("factura" + ProductBinaryFile.EXTENSION);
+		Product conImagen = new Product("Café ñandú", 3, 2.5, "/tmp/cafe.png");
+		conImagen.setImageDigest("abc123");
+		Product sinImagen = new Product("Té", 0, 0.1, null);
+		// El nombre repetido se guarda una sola vez en la tabla de cadenas
+		Product repetido = new Product("Té", 7, 1e9, null);
+		try (ProductWriter writer = ProductBinaryFile.openWriter(file, 0, 42)) {
+			writer.write(conImagen);
+			writer.write(sinImagen);
+			writer.write(repetido);
+		}
+
+		assertEquals(42, ProductBinaryFile.readGeneration(file));
+		ProductColumnStore store = ProductBinaryFile.read(file);
+		assertEquals(3, store.size());
+		assertProduct(conImagen, store.get(0));
+		assertProduct(sinImagen, store.get(1));
+		assertProduct(repetido, store.get(2));
+		assertNull(store.get(1).getFilePath());
+		assertNull(store.get(1).getImageDigest());
+	}
+
+	@Test
+	public void roundTripEmptyFile() throws IOException {
+		File file = folder.newFile("vacia" + ProductBinaryFile.EXTENSION);
+		ProductBinaryFile.openWriter(file).close();
+		assertEquals(0, ProductBinaryFile.read(file).size());
+		assertEquals(0, ProductBinaryFile.readGeneration(file));
+	}
+
+	@Test
+	public void countLargerThanFileIsRejected() throws IOException {
+		File file = writeTwoProducts();
+		writeInt(file, COUNT_OFFSET, Integer.MAX_VALUE);
+		assertCorrupt(file);
+	}
+
+	@Test
+	public void stringCountLargerThanTableIsRejected() throws IOException {
+		File file = writeTwoProducts();
+		writeInt(file, STRING_COUNT_OFFSET, 1_000_000);
+		assertCorrupt(file);
+	}
+
+	@Test
+	public void negativeStringLengthIsRejected() throws IOException {
+		File file = writeTwoProducts();
+		writeInt(file, HEADER_SIZE + 2 * RECORD_SIZE, -5);
+		assertCorrupt(file);
+	}
+
+	@Test
+	public void stringLengthPastEndIsRejected() throws IOException {
+		File file = writeTwoProducts();
+		writeInt(file, HEADER_SIZE + 2 * RECORD_SIZE, 1 << 20);
+		assertCorrupt(file);
+	}
+
+	@Test
+	public void stringIndexOutOfTableIsRejected() throws IOException {
+		File file = writeTwoProducts();
+		// Indice del nombre del segundo producto
+		writeInt(file, HEADER_SIZE + RECORD_SIZE, 99);
+		assertCorrupt(file);
+	}
+
+	@Test
+	public void truncatedFileIsRejected() throws IOException {
+		File file = writeTwoProducts();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+		assertCorrupt(file);
+	}
+
+	@Test
+	public void nonFinitePriceIsRejected() throws IOException {
+		File file = folder.newFile("nan" + ProductBinaryFile.EXTENSION);
+		try (ProductWriter writer = ProductBinaryFile.openWriter(file)) {
+			writer.write(new Product("a", 1, Double.NaN, null));
+		}
+		assertCorrupt(file);
+	}
+
+	private File writeTwoProducts() throws IOException {
+		File file = folder.newFile();
+		try (ProductWriter writer = ProductBinaryFile.openWriter(file)) {
+			writer.write(new Product("uno", 1, 1.0, null));
+			writer.write(new Product("dos", 2, 2.0, null));
+		}
+		return file;
+	}
+
+	private static void writeInt(File file, long offset, int value) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(offset);
+			raf.writeInt(value);
+		}
+	}
+
+	private static void assertCorrupt(File file) {
+		try {
+			ProductBinaryFile.read(file);
+			fail("Se esperaba IOException");
+		} catch (IOException e) {
+			// lo esperado
+		}
+	}
+
+	private static void assertProduct(Product expected, Product actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getCantidad(), actual.getCantidad());
+		assertEquals(expected.getUnitPrice(), actual.getUnitPrice(), 0.0);
+		assertEquals(expected.getFilePath(), actual.getFilePath());
+		assertEquals(expected.getImageDigest(), actual.getImageDigest());
+	}
+}
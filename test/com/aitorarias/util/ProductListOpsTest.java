@@ -0,0 +1,103 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.aitorarias.entity.Product;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+/**
+ * Pruebas de las operaciones de muchas filas a la vez
+ *
+ * @author AitorArias
+ *
+ */
+public class ProductListOpsTest {
+
+	@Test
+	public void removeAllReturnsIndexesFromLastToFirst() {
+		ObservableList<Integer> list = FXCollections.observableArrayList(0, 1, 2, 3, 4, 5, 6);
+		int[] removed = ProductListOps.removeAll(list, new int[] { 5, 1, 2 });
+		assertEquals(Arrays.asList(0, 3, 4, 6), list);
+		assertArrayEquals(new int[] { 5, 2, 1 }, removed);
+	}
+
+	@Test
+	public void removedIndexesReplayOneByOne() {
+		ObservableList<Integer> list = numbers(20);
+		List<Integer> replayed = new ArrayList<>(list);
+		for (int index : ProductListOps.removeAll(list, new int[] { 19, 0, 7, 8, 9, 3 })) {
+			replayed.remove(index);
+		}
+		assertEquals(replayed, list);
+	}
+
+	@Test
+	public void insertAllUndoesRemoveAllWithFewRanges() {
+		assertInsertUndoesRemove(new Random(1), 50, 5);
+	}
+
+	@Test
+	public void insertAllUndoesRemoveAllWithManyRanges() {
+		// Mas de 32 tramos: las dos operaciones rehacen la lista de una vez
+		assertInsertUndoesRemove(new Random(2), 1000, 300);
+	}
+
+	@Test
+	public void insertAllAtTheEnd() {
+		ObservableList<Integer> list = FXCollections.observableArrayList(0, 1);
+		ProductListOps.insertAll(list, new int[] { 2, 3 }, new Integer[] { 2, 3 });
+		assertEquals(Arrays.asList(0, 1, 2, 3), list);
+	}
+
+	@Test
+	public void changedPricesRoundsToCentsWithoutChangingProducts() {
+		List<Product> products = Arrays.asList(new Product("a", 1, 10.0, null), new Product("b", 1, 0.05, null),
+				new Product("c", 1, 19.99, null));
+		double[] precios = ProductListOps.changedPrices(products, new int[] { 0, 1, 2 }, new BigDecimal("10"));
+		assertArrayEquals(new double[] { 11.0, 0.06, 21.99 }, precios, 0.0);
+		assertEquals(10.0, products.get(0).getUnitPrice(), 0.0);
+	}
+
+	@Test
+	public void changedPricesDownToZero() {
+		List<Product> products = Arrays.asList(new Product("a", 1, 12.34, null));
+		assertArrayEquals(new double[] { 0.0 },
+				ProductListOps.changedPrices(products, new int[] { 0 }, new BigDecimal("-100")), 0.0);
+	}
+
+	private static void assertInsertUndoesRemove(Random random, int size, int count) {
+		ObservableList<Integer> list = numbers(size);
+		List<Integer> original = new ArrayList<>(list);
+		int[] indexes = random.ints(0, size).distinct().limit(count).toArray();
+		int[] descending = ProductListOps.removeAll(list, indexes);
+		assertEquals(size - count, list.size());
+
+		int[] ascending = new int[descending.length];
+		Integer[] items = new Integer[descending.length];
+		for (int i = 0; i < descending.length; i++) {
+			ascending[i] = descending[descending.length - 1 - i];
+			items[i] = original.get(ascending[i]);
+		}
+		ProductListOps.insertAll(list, ascending, items);
+		assertEquals(original, list);
+	}
+
+	private static ObservableList<Integer> numbers(int size) {
+		ObservableList<Integer> list = FXCollections.observableArrayList();
+		for (int i = 0; i < size; i++) {
+			list.add(i);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,76 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.aitorarias.entity.Product;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+/**
+ * Pruebas del indice de busqueda
+ *
+ * @author AitorArias
+ *
+ */
+public class ProductSearchIndexTest {
+
+	@Test
+	public void shortAndLongQueriesSearchAnywhereInTheName() {
+		ObservableList<Product> products = products("Pizza Barbacoa", "Cuatro quesos", "Barra de pan", "Agua");
+		ProductSearchIndex index = new ProductSearchIndex(products);
+		// Con 1, 2 o 3 letras se busca lo mismo: el texto en cualquier parte del nombre
+		assertEquals(names("Pizza Barbacoa", "Barra de pan", "Agua", "Cuatro quesos"), names(index.search("a")));
+		assertEquals(names("Pizza Barbacoa", "Barra de pan"), names(index.search("ar")));
+		assertEquals(names("Pizza Barbacoa", "Barra de pan"), names(index.search("bar")));
+		assertEquals(names("Cuatro quesos"), names(index.search("qu")));
+		assertEquals(names("Cuatro quesos"), names(index.search("QUE")));
+		assertEquals(names(), names(index.search("xy")));
+		assertNull(index.search("  "));
+	}
+
+	@Test
+	public void indexFollowsEditsAndRanges() {
+		ObservableList<Product> products = products("uno", "dos", "tres");
+		ProductSearchIndex index = new ProductSearchIndex(products);
+		products.get(0).setName("once");
+		products.get(1).setUnitPrice(15);
+		products.remove(2);
+		products.add(new Product("doce", 4, 12, null));
+
+		assertEquals(names("once", "doce"), names(index.search("ce")));
+		assertEquals(names("dos", "doce"), names(index.search("precio:10-20")));
+		assertEquals(names("doce"), names(index.search("do cantidad:3-")));
+		assertEquals(names(), names(index.search("tr")));
+	}
+
+	private static Set<String> names(Set<Product> products) {
+		Set<String> names = new TreeSet<>();
+		for (Product product : products) {
+			names.add(product.getName());
+		}
+		return names;
+	}
+
+	private static Set<String> names(String... names) {
+		Set<String> set = new TreeSet<>();
+		for (String name : names) {
+			set.add(name);
+		}
+		return set;
+	}
+
+	private static ObservableList<Product> products(String... names) {
+		ObservableList<Product> products = FXCollections.observableArrayList();
+		for (String name : names) {
+			products.add(new Product(name, 1, 1.0, null));
+		}
+		return products;
+	}
+}
@@ -0,0 +1,119 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Pruebas del indice de paginas: leer las paginas una a una tiene que dar lo mismo que leer el archivo
+ * entero, tambien con archivos que no estan en UTF-8
+ *
+ * @author AitorArias
+ *
+ */
+public class ProductXmlIndexTest {
+
+	private static final int PAGE_SIZE = 100;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void utf8PagesMatchTheWholeFile() throws Exception {
+		File file = write(products(1050), "UTF-8", StandardCharsets.UTF_8);
+		ProductXmlIndex index = ProductXmlIndex.build(file, PAGE_SIZE);
+		assertTrue(index.isPaged());
+		assertSameProducts(products(1050), readAll(index));
+	}
+
+	@Test
+	public void latin1PagesKeepAccents() throws Exception {
+		File file = write(products(1050), "ISO-8859-1", StandardCharsets.ISO_8859_1);
+		ProductXmlIndex index = ProductXmlIndex.build(file, PAGE_SIZE);
+		assertTrue(index.isPaged());
+		assertEquals(11, index.getPageCount());
+		assertSameProducts(products(1050), readAll(index));
+		// Una pagina suelta, sin haber leido las anteriores
+		assertEquals(products(1050).get(720).getName(), index.readPage(7).get(20).getName());
+	}
+
+	@Test
+	public void utf16IsLoadedWhole() throws Exception {
+		File file = write(products(250), "UTF-16", StandardCharsets.UTF_16);
+		ProductXmlIndex index = ProductXmlIndex.build(file, PAGE_SIZE);
+		assertFalse(index.isPaged());
+		assertEquals(250, index.size());
+		assertEquals(3, index.getPageCount());
+		assertSameProducts(products(250), readAll(index));
+	}
+
+	@Test
+	public void binaryCatalogIsReadFromTheColumnStore() throws Exception {
+		File file = folder.newFile("catalogo" + ProductBinaryFile.EXTENSION);
+		try (ProductWriter writer = ProductBinaryFile.openWriter(file)) {
+			for (Product product : products(250)) {
+				writer.write(product);
+			}
+		}
+		ProductXmlIndex index = ProductXmlIndex.build(file, PAGE_SIZE);
+		assertFalse(index.isPaged());
+		assertEquals(250, index.size());
+		assertEquals(50, index.readPage(2).size());
+		assertSameProducts(products(250), readAll(index));
+		// Cada lectura crea productos nuevos: la tabla puede descartar las paginas que ya no se ven
+		assertNotSame(index.readPage(0).get(0), index.readPage(0).get(0));
+	}
+
+	private static List<Product> readAll(ProductXmlIndex index) throws Exception {
+		List<Product> products = new ArrayList<>();
+		for (int page = 0; page < index.getPageCount(); page++) {
+			products.addAll(index.readPage(page));
+		}
+		return products;
+	}
+
+	/**
+	 * Se guarda en UTF-8 y se pasa al encoding pedido, cambiando la declaracion
+	 */
+	private File write(List<Product> products, String encoding, Charset charset) throws Exception {
+		File utf8 = folder.newFile();
+		XmlFileManager.saveToXmlFile(products, utf8, true);
+		String xml = new String(Files.readAllBytes(utf8.toPath()), StandardCharsets.UTF_8);
+		String converted = xml.replaceFirst("encoding=\"(?i:utf-8)\"", "encoding=\"" + encoding + "\"");
+		assertTrue(converted.contains(encoding));
+		File file = folder.newFile();
+		Files.write(file.toPath(), converted.getBytes(charset));
+		return file;
+	}
+
+	private static List<Product> products(int count) {
+		List<Product> products = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			products.add(new Product("Piña con jamón ñ" + i + " ¿Sí?", i % 10, i / 4.0, null));
+		}
+		return products;
+	}
+
+	private static void assertSameProducts(List<Product> expected, List<Product> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getName(), actual.get(i).getName());
+			assertEquals(expected.get(i).getCantidad(), actual.get(i).getCantidad());
+			assertEquals(expected.get(i).getUnitPrice(), actual.get(i).getUnitPrice(), 0.0);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Pruebas de la carga por trozos: tiene que dar lo mismo que leer el archivo entero, tambien
+ * con archivos que no estan en UTF-8
+ *
+ * @author AitorArias
+ *
+ */
+public class ProductXmlShardsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void latin1ShardsKeepAccents() throws Exception {
+		// Mas de 4 MB para que haya varios trozos
+		File file = write(products(100_000), "ISO-8859-1", StandardCharsets.ISO_8859_1);
+		assertTrue(ProductXmlShards.findBoundaries(file, 4).length > 1);
+		assertSameProducts(XmlFileManager.loadFromXmlFile(file), XmlFileManager.loadFromXmlFileParallel(file, executor, 4));
+	}
+
+	@Test
+	public void utf16IsReadInOneShard() throws Exception {
+		File file = write(products(100), "UTF-16", StandardCharsets.UTF_16);
+		assertEquals(1, ProductXmlShards.findBoundaries(file, 4).length);
+		List<Product> products = XmlFileManager.loadFromXmlFileParallel(file, executor, 4);
+		assertSameProducts(products(100), products);
+	}
+
+	/**
+	 * Se guarda en UTF-8 y se pasa al encoding pedido, cambiando la declaracion
+	 */
+	private File write(List<Product> products, String encoding, Charset charset) throws Exception {
+		File utf8 = folder.newFile();
+		XmlFileManager.saveToXmlFile(products, utf8, true);
+		String xml = new String(Files.readAllBytes(utf8.toPath()), StandardCharsets.UTF_8);
+		String converted = xml.replaceFirst("encoding=\"(?i:utf-8)\"", "encoding=\"" + encoding + "\"");
+		assertTrue(converted.contains(encoding));
+		File file = folder.newFile();
+		Files.write(file.toPath(), converted.getBytes(charset));
+		return file;
+	}
+
+	private static List<Product> products(int count) {
+		List<Product> products = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			products.add(new Product("Piña con jamón ñ" + i + " ¿Sí?", i % 10, i / 4.0, null));
+		}
+		return products;
+	}
+
+	private static void assertSameProducts(List<Product> expected, List<Product> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getName(), actual.get(i).getName());
+			assertEquals(expected.get(i).getCantidad(), actual.get(i).getCantidad());
+			assertEquals(expected.get(i).getUnitPrice(), actual.get(i).getUnitPrice(), 0.0);
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.aitorarias.entity.Product;
+import com.aitorarias.enums.SortKey;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Pruebas de la vista ordenada: el resultado tiene que ser siempre el de ordenar la lista entera
+ * de forma estable, y los avisos a la tabla tienen que llevar a la misma vista
+ *
+ * @author AitorArias
+ *
+ */
+public class SortedProductListTest {
+
+	@Test
+	public void noneKeepsSourceOrder() {
+		ObservableList<Product> source = products(new Random(1), 50);
+		SortedProductList sorted = new SortedProductList(source);
+		assertEquals(source, sorted);
+		sorted.sort(SortKey.CANTIDAD, true);
+		sorted.sort(SortKey.NONE, true);
+		assertEquals(source, sorted);
+	}
+
+	@Test
+	public void sortIsStableInBothDirections() {
+		ObservableList<Product> source = products(new Random(2), 500);
+		SortedProductList sorted = new SortedProductList(source);
+		for (SortKey key : new SortKey[] { SortKey.NAME, SortKey.CANTIDAD, SortKey.PRECIO }) {
+			sorted.sort(key, true);
+			assertSorted(source, sorted, key, true);
+			sorted.sort(key, false);
+			assertSorted(source, sorted, key, false);
+		}
+	}
+
+	@Test
+	public void rowChangedMovesOnlyThatRow() {
+		ObservableList<Product> source = products(new Random(3), 200);
+		SortedProductList sorted = new SortedProductList(source);
+		List<Product> view = mirror(sorted);
+		sorted.sort(SortKey.PRECIO, true);
+		view.clear();
+		view.addAll(sorted);
+		sorted.get(10).setUnitPrice(1e6);
+		sorted.rowChanged(10);
+		assertSorted(source, sorted, SortKey.PRECIO, true);
+		assertEquals(sorted, view);
+	}
+
+	@Test
+	public void rowsChangedMatchesFullSort() {
+		Random random = new Random(4);
+		for (int round = 0; round < 100; round++) {
+			ObservableList<Product> source = products(random, 1 + random.nextInt(300));
+			SortedProductList sorted = new SortedProductList(source);
+			boolean ascending = random.nextBoolean();
+			sorted.sort(SortKey.CANTIDAD, ascending);
+			List<Product> view = mirror(sorted);
+			int changed = Math.min(sorted.size(), 1 + random.nextInt(80));
+			int[] rows = random.ints(0, sorted.size()).distinct().limit(changed).toArray();
+			for (int row : rows) {
+				sorted.get(row).setCantidad(random.nextInt(20));
+			}
+			sorted.rowsChanged(rows);
+			assertSorted(source, sorted, SortKey.CANTIDAD, ascending);
+			assertEquals(sorted, view);
+		}
+	}
+
+	@Test
+	public void addedAndRemovedProductsStaySorted() {
+		Random random = new Random(5);
+		ObservableList<Product> source = products(random, 100);
+		SortedProductList sorted = new SortedProductList(source);
+		sorted.sort(SortKey.NAME, true);
+		List<Product> view = mirror(sorted);
+		// Pocos de golpe van uno a uno; muchos se ordenan y se mezclan
+		source.addAll(products(random, 5));
+		source.addAll(20, products(random, 500));
+		source.remove(10, 15);
+		source.remove(0, 300);
+		assertSorted(source, sorted, SortKey.NAME, true);
+		assertEquals(sorted, view);
+	}
+
+	@Test
+	public void largeChangesOnlyTouchTheirRows() {
+		Random random = new Random(7);
+		ObservableList<Product> source = products(random, 1000);
+		SortedProductList sorted = new SortedProductList(source);
+		List<Product> view = mirror(sorted);
+		List<int[]> changes = changes(sorted);
+
+		// Sin ordenar: los nuevos y los borrados son filas seguidas
+		source.addAll(300, products(random, 500));
+		source.remove(100, 400);
+		assertEquals(source, sorted);
+		assertEquals(sorted, view);
+		assertEquals(Arrays.asList("+300-800", "-100-400"), describe(changes));
+
+		// Ordenado: los que van despues de la ultima fila se añaden al final
+		sorted.sort(SortKey.CANTIDAD, true);
+		changes.clear();
+		List<Product> last = products(random, 200);
+		for (Product product : last) {
+			product.setCantidad(100);
+		}
+		source.addAll(last);
+		assertEquals("+" + (sorted.size() - 200) + "-" + sorted.size(), describe(changes).get(0));
+		assertEquals(1, changes.size());
+
+		// Mezclados y borrados entre medias: nunca se quita toda la lista
+		changes.clear();
+		source.addAll(0, products(random, 300));
+		source.remove(50, 600);
+		assertSorted(source, sorted, SortKey.CANTIDAD, true);
+		assertEquals(sorted, view);
+		for (int[] change : changes) {
+			assertTrue(change[1] - change[0] < sorted.size());
+		}
+	}
+
+	@Test
+	public void namesSortAlphabeticallyNotByCharCode() {
+		ObservableList<Product> source = FXCollections.observableArrayList();
+		for (String name : new String[] { "zeta", "Árbol", "ñu", "oso", "nube", "arbol", "Oso" }) {
+			source.add(new Product(name, 1, 1, null));
+		}
+		SortedProductList sorted = new SortedProductList(source);
+		List<Product> view = mirror(sorted);
+		sorted.sort(SortKey.NAME, true);
+		assertEquals(Arrays.asList("arbol", "Árbol", "nube", "ñu", "oso", "Oso", "zeta"), names(sorted));
+		assertSorted(source, sorted, SortKey.NAME, true);
+
+		// La fila editada va al mismo sitio que con el orden completo
+		sorted.get(6).setName("ángel");
+		sorted.rowChanged(6);
+		assertEquals("ángel", sorted.get(0).getName());
+		assertSorted(source, sorted, SortKey.NAME, true);
+		assertEquals(sorted, view);
+	}
+
+	@Test
+	public void viewIndexIsInverseOfSourceIndex() {
+		ObservableList<Product> source = products(new Random(6), 300);
+		SortedProductList sorted = new SortedProductList(source);
+		sorted.sort(SortKey.PRECIO, false);
+		for (int row = 0; row < sorted.size(); row++) {
+			assertEquals(row, sorted.getViewIndex(sorted.getSourceIndex(row)));
+			assertEquals(source.get(sorted.getSourceIndex(row)), sorted.get(row));
+		}
+	}
+
+	/**
+	 * Lo que veria la tabla aplicando los avisos de la lista
+	 */
+	private static List<Product> mirror(SortedProductList sorted) {
+		List<Product> view = new ArrayList<>(sorted);
+		sorted.addListener((ListChangeListener<Product>) change -> {
+			while (change.next()) {
+				if (change.wasPermutated()) {
+					List<Product> before = new ArrayList<>(view);
+					for (int i = change.getFrom(); i < change.getTo(); i++) {
+						view.set(change.getPermutation(i), before.get(i));
+					}
+				} else {
+					for (int i = 0; i < change.getRemovedSize(); i++) {
+						view.remove(change.getFrom());
+					}
+					view.addAll(change.getFrom(), change.getAddedSubList());
+				}
+			}
+		});
+		return view;
+	}
+
+	/**
+	 * Filas añadidas y quitadas que recibe la tabla: {desde, hasta, añadidas (1) o quitadas (0)}
+	 */
+	private static List<int[]> changes(SortedProductList sorted) {
+		List<int[]> changes = new ArrayList<>();
+		sorted.addListener((ListChangeListener<Product>) change -> {
+			while (change.next()) {
+				if (change.wasRemoved()) {
+					changes.add(new int[] { change.getFrom(), change.getFrom() + change.getRemovedSize(), 0 });
+				}
+				if (change.wasAdded()) {
+					changes.add(new int[] { change.getFrom(), change.getTo(), 1 });
+				}
+			}
+		});
+		return changes;
+	}
+
+	private static List<String> describe(List<int[]> changes) {
+		List<String> descriptions = new ArrayList<>();
+		for (int[] change : changes) {
+			descriptions.add((change[2] == 1 ? "+" : "-") + change[0] + "-" + change[1]);
+		}
+		return descriptions;
+	}
+
+	private static void assertSorted(List<Product> source, List<Product> sorted, SortKey key, boolean ascending) {
+		List<Product> expected = new ArrayList<>(source);
+		Comparator<Product> comparator = key::compare;
+		// Collections.sort es estable, igual que la vista
+		Collections.sort(expected, ascending ? comparator : comparator.reversed());
+		assertEquals(expected, sorted);
+	}
+
+	private static List<String> names(List<Product> products) {
+		List<String> names = new ArrayList<>();
+		for (Product product : products) {
+			names.add(product.getName());
+		}
+		return names;
+	}
+
+	private static ObservableList<Product> products(Random random, int count) {
+		ObservableList<Product> products = FXCollections.observableArrayList();
+		for (int i = 0; i < count; i++) {
+			// Pocos valores distintos, asi hay muchos empates
+			products.add(new Product("p" + random.nextInt(30), random.nextInt(20), random.nextInt(40) / 4.0, null));
+		}
+		return products;
+	}
+}
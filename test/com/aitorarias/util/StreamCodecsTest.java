@@ -0,0 +1,118 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.aitorarias.entity.Product;
+
+/**
+ * Pruebas de los formatos de compresion: se eligen por la extension al escribir y se reconocen
+ * por los primeros bytes al leer
+ *
+ * @author AitorArias
+ *
+ */
+public class StreamCodecsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void gzipRoundTrip() throws IOException {
+		assertRoundTrip(new File("factura.xml.gz"), StreamCodecs.GZIP);
+	}
+
+	@Test
+	public void deflateRoundTrip() throws IOException {
+		assertRoundTrip(new File("factura.xml.zz"), StreamCodecs.DEFLATE);
+	}
+
+	@Test
+	public void plainXmlIsNotDetected() throws IOException {
+		for (String xml : new String[] { "<?xml version=\"1.0\"?><products/>", "\uFEFF<products/>", "  \n<a/>", "" }) {
+			InputStream input = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+			InputStream buffered = new BufferedInputStream(input);
+			assertNull(xml, StreamCodecs.detect(buffered));
+			// detect no consume nada
+			assertArrayEquals(xml.getBytes(StandardCharsets.UTF_8), readAll(StreamCodecs.decode(buffered)));
+		}
+	}
+
+	@Test
+	public void plainFileIsWrittenAsIs() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertSame(bytes, StreamCodecs.encode(new File("factura.xml"), bytes));
+	}
+
+	@Test
+	public void codecByNameAndExtension() {
+		assertSame(StreamCodecs.GZIP, StreamCodecs.forName("GZIP"));
+		assertSame(StreamCodecs.DEFLATE, StreamCodecs.forName("deflate"));
+		assertNull(StreamCodecs.forName("bzip2"));
+		assertSame(StreamCodecs.GZIP, StreamCodecs.forFile(new File("FACTURA.XML.GZ")));
+		assertNull(StreamCodecs.forFile(new File("factura.xml")));
+		assertEquals("factura.xml", StreamCodecs.stripExtension("factura.xml.gz"));
+		assertEquals("Factura.xml", StreamCodecs.stripExtension("Factura.xml.ZZ"));
+		assertEquals("factura.xml", StreamCodecs.stripExtension("factura.xml"));
+	}
+
+	@Test
+	public void compressedXmlRoundTrip() throws Exception {
+		File file = folder.newFile("factura.xml.gz");
+		List<Product> products = Arrays.asList(new Product("Café", 2, 3.5, null), new Product("Té", 1, 0.25, null));
+		XmlFileManager.saveToXmlFile(products, file, false);
+		assertSame(StreamCodecs.GZIP, StreamCodecs.detect(file));
+
+		try (ProductXmlReader reader = XmlFileManager.openReader(file)) {
+			List<Product> loaded = reader.readBatch(10);
+			assertEquals(2, loaded.size());
+			assertEquals("Café", loaded.get(0).getName());
+			assertEquals(0.25, loaded.get(1).getUnitPrice(), 0.0);
+		}
+	}
+
+	private static void assertRoundTrip(File file, StreamCodec expected) throws IOException {
+		assertSame(expected, StreamCodecs.forFile(file));
+		byte[] data = new byte[200_000];
+		// Mitad aleatorio, mitad repetido: que haya bloques comprimidos y sin comprimir
+		new Random(7).nextBytes(data);
+		Arrays.fill(data, data.length / 2, data.length, (byte) 'x');
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream output = StreamCodecs.encode(file, bytes)) {
+			output.write(data);
+		}
+		byte[] compressed = bytes.toByteArray();
+		assertSame(expected, StreamCodecs.detect(new BufferedInputStream(new ByteArrayInputStream(compressed))));
+		assertArrayEquals(data, readAll(StreamCodecs.decode(new ByteArrayInputStream(compressed))));
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = input.read(buffer)) > 0) {
+			bytes.write(buffer, 0, n);
+		}
+		input.close();
+		return bytes.toByteArray();
+	}
+}
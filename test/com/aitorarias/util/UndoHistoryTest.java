@@ -0,0 +1,181 @@
+package com.aitorarias.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.aitorarias.entity.Product;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+/**
+ * Pruebas del historial de deshacer
+ *
+ * @author AitorArias
+ *
+ */
+public class UndoHistoryTest {
+
+	private static final long UNLIMITED = Long.MAX_VALUE;
+
+	@Test
+	public void undoAndRedoValueChanges() {
+		ObservableList<Product> products = products(3);
+		UndoHistory history = new UndoHistory(UNLIMITED);
+
+		apply(history, products, UndoHistory.nameChange(products, 0, "nuevo"));
+		apply(history, products, UndoHistory.cantidadChange(products, new int[] { 0, 2 }, 9));
+		apply(history, products, UndoHistory.precioChange(products, new int[] { 1 }, new double[] { 7.5 }));
+		assertEquals("nuevo", products.get(0).getName());
+		assertEquals(9, products.get(2).getCantidad());
+		assertEquals(7.5, products.get(1).getUnitPrice(), 0.0);
+
+		history.undo(products);
+		history.undo(products);
+		history.undo(products);
+		assertEquals("p0", products.get(0).getName());
+		assertEquals(2, products.get(2).getCantidad());
+		assertEquals(1.0, products.get(1).getUnitPrice(), 0.0);
+		assertFalse(history.canUndo());
+		assertNull(history.undo(products));
+
+		history.redo(products);
+		history.redo(products);
+		assertEquals("nuevo", products.get(0).getName());
+		assertEquals(9, products.get(0).getCantidad());
+		assertTrue(history.canRedo());
+	}
+
+	@Test
+	public void undoRemovalPutsRowsBackInPlace() {
+		ObservableList<Product> products = products(10);
+		List<Product> original = new ArrayList<>(products);
+		UndoHistory history = new UndoHistory(UNLIMITED);
+
+		apply(history, products, UndoHistory.removal(products, new int[] { 7, 0, 3, 4 }));
+		assertEquals(6, products.size());
+		history.undo(products);
+		assertEquals(original, products);
+		history.redo(products);
+		assertEquals(Arrays.asList(original.get(1), original.get(2), original.get(5), original.get(6),
+				original.get(8), original.get(9)), products);
+	}
+
+	@Test
+	public void undoAdditionRemovesTheRows() {
+		ObservableList<Product> products = products(2);
+		List<Product> original = new ArrayList<>(products);
+		UndoHistory history = new UndoHistory(UNLIMITED);
+		List<Product> added = Arrays.asList(new Product("x", 1, 1, null), new Product("y", 1, 1, null));
+
+		products.addAll(added);
+		history.record(UndoHistory.addition(2, added));
+		history.undo(products);
+		assertEquals(original, products);
+		history.redo(products);
+		assertSame(added.get(1), products.get(3));
+	}
+
+	@Test
+	public void recordDropsRedo() {
+		ObservableList<Product> products = products(1);
+		UndoHistory history = new UndoHistory(UNLIMITED);
+		apply(history, products, UndoHistory.cantidadChange(products, new int[] { 0 }, 5));
+		history.undo(products);
+		assertTrue(history.canRedo());
+		apply(history, products, UndoHistory.cantidadChange(products, new int[] { 0 }, 6));
+		assertFalse(history.canRedo());
+	}
+
+	@Test
+	public void oldestChangesAreEvictedToFitTheLimit() {
+		ObservableList<Product> products = products(1);
+		UndoHistory history = new UndoHistory(1000);
+		for (int i = 0; i < 100; i++) {
+			apply(history, products, UndoHistory.cantidadChange(products, new int[] { 0 }, i));
+		}
+		assertTrue(history.getSize() <= 1000);
+		int undone = 0;
+		while (history.undo(products) != null) {
+			undone++;
+		}
+		assertTrue(undone > 0 && undone < 100);
+		// Se ha deshecho hasta el cambio mas antiguo que se conserva, no hasta el principio
+		assertEquals(100 - undone - 1, products.get(0).getCantidad());
+	}
+
+	@Test
+	public void oversizedValueChangeIsDroppedAndOlderOnesKept() {
+		ObservableList<Product> products = products(1000);
+		UndoHistory history = new UndoHistory(500);
+		apply(history, products, UndoHistory.nameChange(products, 0, "a"));
+
+		int[] all = new int[products.size()];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = i;
+		}
+		UndoHistory.Edit big = UndoHistory.cantidadChange(products, all, 0);
+		big.redo(products);
+		assertFalse(history.record(big));
+
+		assertTrue(history.canUndo());
+		history.undo(products);
+		assertEquals("p0", products.get(0).getName());
+	}
+
+	@Test
+	public void oversizedRowChangeForgetsOlderOnes() {
+		ObservableList<Product> products = products(1000);
+		UndoHistory history = new UndoHistory(500);
+		apply(history, products, UndoHistory.nameChange(products, 999, "a"));
+
+		int[] half = new int[500];
+		for (int i = 0; i < half.length; i++) {
+			half[i] = i;
+		}
+		UndoHistory.Edit removal = UndoHistory.removal(products, half);
+		removal.redo(products);
+		// El cambio de nombre apunta a la fila 999, que ya no existe
+		assertFalse(history.record(removal));
+		assertFalse(history.canUndo());
+		assertEquals(0, history.getSize());
+	}
+
+	@Test
+	public void clearForgetsUndoAndRedo() {
+		ObservableList<Product> products = products(3);
+		UndoHistory history = new UndoHistory(UNLIMITED);
+		apply(history, products, UndoHistory.nameChange(products, 0, "nuevo"));
+		apply(history, products, UndoHistory.cantidadChange(products, new int[] { 1 }, 9));
+		history.undo(products);
+
+		// Como al abrir otro documento: nada que deshacer ni rehacer, y no ocupa memoria
+		history.clear();
+		assertFalse(history.canUndo());
+		assertFalse(history.canRedo());
+		assertEquals(0, history.getSize());
+		assertNull(history.undo(products));
+	}
+
+	private static void apply(UndoHistory history, ObservableList<Product> products, UndoHistory.Edit edit) {
+		edit.redo(products);
+		assertTrue(history.record(edit));
+	}
+
+	private static ObservableList<Product> products(int count) {
+		ObservableList<Product> products = FXCollections.observableArrayList();
+		for (int i = 0; i < count; i++) {
+			products.add(new Product("p" + i, 2, 1.0, null));
+		}
+		return products;
+	}
+}